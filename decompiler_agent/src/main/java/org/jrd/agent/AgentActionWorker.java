@@ -2,19 +2,32 @@ package org.jrd.agent;
 
 import org.jrd.backend.data.MetadataProperties;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * This class handles the socket accepting and request processing from the
@@ -22,12 +35,26 @@ import java.util.concurrent.LinkedBlockingQueue;
  *
  * @author pmikova
  */
-public class AgentActionWorker extends Thread {
+public class AgentActionWorker implements Runnable {
 
     private InstrumentationProvider provider;
+    private Socket clientSocket;
+    private RequestExecutor executor;
     private Boolean abort = false;
 
+    /**
+     * How long may an open session wait for next command, before agent closes it.
+     * Should be longer then client's pool idle timeout, so clients are usually those who close the session.
+     */
+    private static final int SESSION_IDLE_TIMEOUT_MS = 60000;
+
     private static final String AGENT_ERROR_ID = "ERROR";
+    private static final String END_OF_LIST = "---END---";
+
+    /**
+     * How long may producer of listing wait for its consumer to take the end of list.
+     */
+    private static final int LIST_HANDOFF_TIMEOUT_MS = 30000;
 
     private static String toError(String message) {
         return AGENT_ERROR_ID + " " + message;
@@ -37,25 +64,72 @@ public class AgentActionWorker extends Thread {
         return toError(ex.toString());
     }
 
-    public AgentActionWorker(Socket socket, InstrumentationProvider provider) {
+    /**
+     * How long may rejected client take to send its command, it is read by the thread refusing connections.
+     */
+    private static final int REJECTED_READ_TIMEOUT_MS = 1000;
+
+    AgentActionWorker(Socket socket, InstrumentationProvider provider, RequestExecutor executor) {
         this.provider = provider;
+        this.clientSocket = socket;
+        this.executor = executor;
+    }
+
+    /**
+     * Reads the command of client which will not be served, so the refusal is sent in protocol the client expects.
+     */
+    static void reject(Socket socket, String reason) {
+        AgentMetrics.getMetrics().connectionRejected();
+        try {
+            socket.setSoTimeout(REJECTED_READ_TIMEOUT_MS);
+            AgentChannel channel = openChannel(new BufferedInputStream(socket.getInputStream()), socket.getOutputStream());
+            channel.readCommand();
+            channel.writeLine(toError(reason));
+            channel.endResponse();
+        } catch (IOException e) {
+            AgentLogger.getLogger().log(new RuntimeException("Error when rejecting the request:", e));
+        } finally {
+            closeRejected(socket);
+        }
+    }
+
+    /**
+     * Closes connection of client which will not be served, without telling it why.
+     */
+    static void drop(Socket socket) {
+        AgentMetrics.getMetrics().connectionRejected();
+        closeRejected(socket);
+    }
 
+    private static void closeRejected(Socket socket) {
         try {
-            executeRequest(socket, provider);
+            socket.close();
+        } catch (IOException e) {
+            AgentLogger.getLogger().log(new RuntimeException("Error when trying to close the socket:", e));
+        }
+    }
+
+    @Override
+    public void run() {
+        AgentMetrics.getMetrics().connectionOpened();
+        try {
+            executeRequest(clientSocket, provider);
         } catch (Exception e) {
             AgentLogger.getLogger().log(new RuntimeException("Error when trying to execute the request. Cause: ", e));
             try {
-                socket.close();
+                clientSocket.close();
             } catch (IOException e1) {
                 AgentLogger.getLogger().log(new RuntimeException("Error when trying to close the socket. Cause: ", e1));
             }
+        } finally {
+            AgentMetrics.getMetrics().connectionClosed();
         }
     }
 
     private void executeRequest(Socket socket, InstrumentationProvider localProvider) {
         InputStream is = null;
         try {
-            is = socket.getInputStream();
+            is = new BufferedInputStream(AgentMetrics.getMetrics().countIn(socket.getInputStream()));
         } catch (IOException e) {
             AgentLogger.getLogger().log(new RuntimeException("Error when opening the socket input stream. Cause: ", e));
             try {
@@ -68,7 +142,7 @@ public class AgentActionWorker extends Thread {
 
         OutputStream os = null;
         try {
-            os = socket.getOutputStream();
+            os = AgentMetrics.getMetrics().countOut(socket.getOutputStream());
         } catch (IOException e) {
             AgentLogger.getLogger().log(new RuntimeException("Error when opening the socket output stream. Cause: ", e));
             try {
@@ -78,25 +152,19 @@ public class AgentActionWorker extends Thread {
             }
             return;
         }
-        BufferedReader inputStream = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-        BufferedWriter outputStream = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
 
-        String line = null;
-        try {
-            line = inputStream.readLine();
-        } catch (IOException e) {
-            AgentLogger.getLogger().log(new RuntimeException("Exception occurred during reading of the line: ", e));
-        }
+        AgentChannel channel = null;
         try {
-            if (null == line) {
-                outputStream.write(toError("Agent received no command.") + "\n");
-                outputStream.flush();
-            } else {
-                writeToStreamBasedOnLine(socket, localProvider, inputStream, outputStream, line);
-            }
+            channel = openChannel(is, os);
+            serveCommands(socket, localProvider, channel);
+        } catch (SocketTimeoutException e) {
+            AgentLogger.getLogger().log("Closing session idle for more than " + SESSION_IDLE_TIMEOUT_MS + "ms.");
         } catch (IOException e) {
             AgentLogger.getLogger().log(new RuntimeException("Error when trying to process the request:", e));
         } finally {
+            if (channel != null) {
+                channel.close();
+            }
             try {
                 socket.close();
             } catch (IOException e) {
@@ -105,56 +173,161 @@ public class AgentActionWorker extends Thread {
         }
     }
 
-    private void writeToStreamBasedOnLine(
-            Socket socket, InstrumentationProvider localProvider, BufferedReader inputStream, BufferedWriter outputStream, String line
-    ) throws IOException {
+    /**
+     * Text protocol serves exactly one command, binary one serves commands until client closes the session.
+     */
+    private void serveCommands(Socket socket, InstrumentationProvider localProvider, AgentChannel channel) throws IOException {
+        String line = channel.readCommand();
+        if (null == line) {
+            channel.writeLine(toError("Agent received no command."));
+            channel.endResponse();
+        }
+        while (line != null) {
+            executeInLane(socket, localProvider, channel, line);
+            if (socket.isClosed()) {
+                break;
+            }
+            channel.endResponse();
+            if (!channel.isSession()) {
+                break;
+            }
+            socket.setSoTimeout(SESSION_IDLE_TIMEOUT_MS);
+            line = channel.readCommand();
+            socket.setSoTimeout(0);
+        }
+    }
+
+    private void executeInLane(Socket socket, InstrumentationProvider localProvider, AgentChannel channel, String line)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            executor.execute(line, () -> writeToStreamBasedOnLine(socket, localProvider, channel, line));
+            AgentMetrics.getMetrics().commandExecuted(line, System.nanoTime() - start);
+        } catch (RejectedExecutionException e) {
+            AgentMetrics.getMetrics().commandRejected();
+            AgentLogger.getLogger().log(AgentLogger.Level.WARN, "Agent is busy, rejected " + line);
+            channel.writeLine(toError("Agent is busy with other requests, try " + line + " again later."));
+        }
+    }
+
+    /**
+     * Reads the first line of the connection and decides which protocol the client speaks.
+     * The line is read byte by byte, so nothing from the following (possibly binary) data is consumed.
+     */
+    private static AgentChannel openChannel(InputStream is, OutputStream os) throws IOException {
+        ByteArrayOutputStream firstLine = new ByteArrayOutputStream();
+        int b = is.read();
+        if (b < 0) {
+            return new TextAgentChannel(is, os, null);
+        }
+        while (b >= 0 && b != '\n') {
+            if (b != '\r') {
+                firstLine.write(b);
+            }
+            b = is.read();
+        }
+        String line = new String(firstLine.toByteArray(), StandardCharsets.UTF_8);
+        if (BinaryAgentChannel.HANDSHAKE.equals(line)) {
+            os.write((BinaryAgentChannel.HANDSHAKE + "\n").getBytes(StandardCharsets.UTF_8));
+            return new BinaryAgentChannel(is, os);
+        }
+        return new TextAgentChannel(is, os, line);
+    }
+
+    private void writeToStreamBasedOnLine(Socket socket, InstrumentationProvider localProvider, AgentChannel channel, String line)
+            throws IOException {
         switch (line) {
             case "HALT":
                 AgentLogger.getLogger().log("Agent received HALT command, closing socket.");
-                closeSocket(outputStream, socket);
+                closeSocket(channel, socket);
                 AgentLogger.getLogger().log("Agent received HALT command, removing instrumentation");
                 localProvider.detach();
                 break;
             case "SEARCH_CLASSES":
-                getAllFilteredClasses(inputStream, outputStream);
+                getAllFilteredClasses(channel);
                 break;
             case "CLASSES":
-                getAllLoadedClasses(outputStream, false);
+                getAllLoadedClasses(channel, false);
                 break;
             case "CLASSES_WITH_INFO":
-                getAllLoadedClasses(outputStream, true);
+                getAllLoadedClasses(channel, true);
+                break;
+            case "CLASSES_SINCE":
+                getLoadedClassesSince(channel);
+                break;
+            case "CLASSES_PAGE":
+                getClassesPage(channel);
                 break;
             case "OVERRIDES":
-                getAllOverridesClasses(outputStream);
+                getAllOverridesClasses(channel);
+                break;
+            case "CLASS_EVENTS":
+                dumpClassEvents(channel);
                 break;
             case "BYTES":
-                sendByteCode(inputStream, outputStream);
+                sendByteCode(channel);
+                break;
+            case "BYTES_MULTI":
+                sendByteCodes(channel);
                 break;
             case "VERSION":
-                getVersion(outputStream);
+                getVersion(channel);
                 break;
             case "OVERWRITE":
-                receiveByteCode(inputStream, outputStream, ReceivedType.OVERWRITE_CLASS);
+                receiveByteCode(channel, ReceivedType.OVERWRITE_CLASS);
+                break;
+            case "OVERWRITE_MULTI":
+                receiveByteCodes(channel);
                 break;
             case "ADD_CLASS":
-                receiveByteCode(inputStream, outputStream, ReceivedType.ADD_CLASS);
+                receiveByteCode(channel, ReceivedType.ADD_CLASS);
                 break;
             case "ADD_JAR":
-                receiveByteCode(inputStream, outputStream, ReceivedType.ADD_JAR);
+                receiveJar(channel);
                 break;
             case "INIT_CLASS":
-                initClass(inputStream, outputStream);
+                initClass(channel);
                 break;
             case "REMOVE_OVERRIDES":
-                removeOverrides(inputStream, outputStream);
+                removeOverrides(channel);
+                break;
+            case "COMPRESS":
+                compress(channel);
                 break;
             case "HELLO":
-                outputStream.write("Agent HELLO handshake: '" + line + "'." + "\n");
-                outputStream.flush();
+                channel.writeLine("Agent HELLO handshake: '" + line + "'.");
+                break;
+            default:
+                writeReportBasedOnLine(channel, line);
+                break;
+        }
+    }
+
+    /**
+     * Commands reporting details of classes or of the agent itself, none of them changes the target VM.
+     */
+    private void writeReportBasedOnLine(AgentChannel channel, String line) throws IOException {
+        switch (line) {
+            case "CLASS_HASHES":
+                getClassHashes(channel);
+                break;
+            case "CLASS_VERSIONS":
+                getClassVersions(channel);
+                break;
+            case "METHODS":
+                getClassMethods(channel);
+                break;
+            case "METRICS":
+                getMetrics(channel);
+                break;
+            case "LOGS":
+                getLogs(channel);
+                break;
+            case "CP_INDEX":
+                constantPoolIndex(channel);
                 break;
             default:
-                outputStream.write(toError("Agent received unknown command: '" + line + "'.") + "\n");
-                outputStream.flush();
+                channel.writeLine(toError("Agent received unknown command: '" + line + "'."));
                 break;
         }
     }
@@ -163,54 +336,185 @@ public class AgentActionWorker extends Thread {
         void inject(BlockingQueue<T> target) throws InterruptedException;
     }
 
-    private void getList(BufferedWriter out, String id, ListInjector<String> injector) throws IOException {
-        out.write(id);
-        out.newLine();
+    /**
+     * Streams items produced by the injector, which runs in its own thread, to the client.
+     * The handoff queue is bounded, so the producer waits when the client is slow. Whatever is already queued is sent
+     * whenever the queue runs empty, so the client gets first items before the whole list is known.
+     * If sending fails, the producer is interrupted, so it does not keep working for nobody.
+     */
+    private void getList(AgentChannel out, String id, ListInjector<String> injector) throws IOException {
+        out.writeLine(id);
         BlockingQueue<String> classNames = new LinkedBlockingQueue<String>(1024);
-        new Thread(() -> {
-            try {
-                injector.inject(classNames);
-            } catch (InterruptedException e) {
-                AgentLogger.getLogger().log(e);
-            }
-        }).start();
-        while (true) {
-            String x = classNames.poll();
-            if (x == null) {
-                continue;
-            }
-            if ("---END---".equals(x)) {
-                break;
-            } else {
-                out.write(x);
-                out.newLine();
+        Thread producer = new Thread(() -> produceList(injector, classNames, id), "JRD " + id + " listing");
+        producer.setDaemon(true);
+        producer.start();
+        try {
+            while (true) {
+                if (classNames.isEmpty()) {
+                    out.flush();
+                }
+                String x = classNames.take();
+                if (END_OF_LIST.equals(x)) {
+                    break;
+                } else {
+                    out.writeLine(x);
+                }
             }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted when waiting for " + id + " listing", e);
+        } finally {
+            producer.interrupt();
         }
         out.flush();
     }
 
-    private void getAllLoadedClasses(BufferedWriter out, boolean doGetInfo) throws IOException {
+    /**
+     * The end of list is not handed off when interrupted, as the consumer interrupts only when it is gone,
+     * and it is only offered otherwise, so producer in target application never waits for a consumer which left.
+     */
+    private static void produceList(ListInjector<String> injector, BlockingQueue<String> target, String id) {
+        try {
+            injector.inject(target);
+        } catch (InterruptedException e) {
+            AgentLogger.getLogger().log("Listing of " + id + " interrupted.");
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            AgentLogger.getLogger().log(e);
+        }
+        try {
+            if (!target.offer(END_OF_LIST, LIST_HANDOFF_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                AgentLogger.getLogger().log("Listing of " + id + " not finished, client is not reading.");
+            }
+        } catch (InterruptedException e) {
+            AgentLogger.getLogger().log("Listing of " + id + " not finished, client is gone.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void getAllLoadedClasses(AgentChannel out, boolean doGetInfo) throws IOException {
+        final ClassDescriber describer = new ClassDescriber(doGetInfo, false);
         getList(out, "CLASSES", new ListInjector<String>() {
             @Override
             public void inject(BlockingQueue<String> target) throws InterruptedException {
-                provider.getClasses(target, abort, doGetInfo, Optional.empty());
+                provider.getClasses(target, abort, describer, Optional.empty());
+            }
+        });
+    }
+
+    /**
+     * Expects line "token [dict] [true]", details are described when it ends by true, by ids of dictionary if dict is present.
+     */
+    private void getLoadedClassesSince(AgentChannel channel) throws IOException {
+        final String tokenAndDetails = channel.readLine();
+        final String[] words = tokenAndDetails == null ? new String[]{""} : tokenAndDetails.trim().split("\\s+");
+        final boolean doGetInfo = tokenAndDetails != null && tokenAndDetails.endsWith(" true");
+        final ClassDescriber describer = new ClassDescriber(doGetInfo, Arrays.asList(words).contains(ClassDescriber.DICTIONARY_MODE));
+        getList(channel, "CLASSES_SINCE", new ListInjector<String>() {
+            @Override
+            public void inject(BlockingQueue<String> target) throws InterruptedException {
+                provider.getClassesSince(target, abort, describer, words[0]);
+            }
+        });
+    }
+
+    /**
+     * Expects line of options, see {@link ClassQuery}, and replies "PAGE total" followed by the page of matching classes.
+     */
+    private void getClassesPage(AgentChannel channel) throws IOException {
+        final ClassQuery query;
+        try {
+            query = ClassQuery.parse(channel.readLine());
+        } catch (RuntimeException ex) {
+            AgentLogger.getLogger().log(ex);
+            channel.writeLine(toError(ex));
+            return;
+        }
+        getList(channel, "CLASSES_PAGE", new ListInjector<String>() {
+            @Override
+            public void inject(BlockingQueue<String> target) throws InterruptedException {
+                provider.getClassesPage(target, abort, query);
             }
         });
     }
 
-    private void getAllFilteredClasses(BufferedReader in, BufferedWriter out) throws IOException {
-        final String substringAndRegexLineAndDetails = in.readLine();
+    private void getAllFilteredClasses(AgentChannel channel) throws IOException {
+        final String substringAndRegexLineAndDetails = channel.readLine();
         boolean doGetInfo = (substringAndRegexLineAndDetails != null) ? substringAndRegexLineAndDetails.endsWith(" true") : false;
         final Optional<ClassFilter> filter = ClassFilter.create(substringAndRegexLineAndDetails);
-        getList(out, "SEARCH_CLASSES", new ListInjector<String>() {
+        final ClassDescriber describer = new ClassDescriber(doGetInfo, false);
+        getList(channel, "SEARCH_CLASSES", new ListInjector<String>() {
+            @Override
+            public void inject(BlockingQueue<String> target) throws InterruptedException {
+                provider.getClasses(target, abort, describer, filter);
+            }
+        });
+    }
+
+    private interface ClassesCommand {
+        void execute(BlockingQueue<String> target, List<String> classNames, Pattern nameFilter) throws InterruptedException;
+    }
+
+    /**
+     * Replies "name hash" or "name ERROR reason" for every class.
+     */
+    private void getClassHashes(AgentChannel channel) throws IOException {
+        getSelectedClasses(channel, "CLASS_HASHES", (target, classNames, nameFilter) ->
+                provider.getClassHashes(target, abort, classNames, nameFilter));
+    }
+
+    /**
+     * Replies "name major minor" or "name ERROR reason" for every class.
+     */
+    private void getClassVersions(AgentChannel channel) throws IOException {
+        getSelectedClasses(channel, "CLASS_VERSIONS", (target, classNames, nameFilter) ->
+                provider.getClassVersions(target, abort, classNames, nameFilter));
+    }
+
+    /**
+     * Replies "name signature" for every constructor and method, or "name ERROR reason" for every class.
+     */
+    private void getClassMethods(AgentChannel channel) throws IOException {
+        getSelectedClasses(channel, "METHODS", (target, classNames, nameFilter) ->
+                provider.getClassMethods(target, abort, classNames, nameFilter));
+    }
+
+    /**
+     * Expects line "NAMES name..." or "REGEX pattern", and lists what the command inserts for the selected classes.
+     */
+    private void getSelectedClasses(AgentChannel channel, String id, ClassesCommand command) throws IOException {
+        String line = channel.readLine();
+        String[] modeAndArgs = line == null ? new String[0] : line.trim().split("\\s+", 2);
+        if (modeAndArgs.length < 2) {
+            channel.writeLine(toError(id + " needs NAMES followed by class names, or REGEX followed by pattern."));
+            return;
+        }
+        final List<String> classNames;
+        final Pattern nameFilter;
+        try {
+            if ("NAMES".equals(modeAndArgs[0])) {
+                classNames = Arrays.asList(modeAndArgs[1].split("\\s+"));
+                nameFilter = null;
+            } else if ("REGEX".equals(modeAndArgs[0])) {
+                classNames = null;
+                nameFilter = Pattern.compile(modeAndArgs[1]);
+            } else {
+                channel.writeLine(toError("Unknown " + id + " mode " + modeAndArgs[0] + ", use NAMES or REGEX."));
+                return;
+            }
+        } catch (PatternSyntaxException ex) {
+            channel.writeLine(toError(ex));
+            return;
+        }
+        getList(channel, id, new ListInjector<String>() {
             @Override
             public void inject(BlockingQueue<String> target) throws InterruptedException {
-                provider.getClasses(target, abort, doGetInfo, filter);
+                command.execute(target, classNames, nameFilter);
             }
         });
     }
 
-    private void getAllOverridesClasses(BufferedWriter out) throws IOException {
+    private void getAllOverridesClasses(AgentChannel out) throws IOException {
         getList(out, "OVERRIDES", new ListInjector<String>() {
             @Override
             public void inject(BlockingQueue<String> target) throws InterruptedException {
@@ -219,66 +523,197 @@ public class AgentActionWorker extends Thread {
         });
     }
 
-    private void sendByteCode(BufferedReader in, BufferedWriter out) throws IOException {
-        String className = in.readLine();
+    /**
+     * Arguments are comma separated kinds of events (or ALL), for how many seconds to collect them,
+     * and optionally how many events may wait for the client. The reply is one list, which ends when the time is up.
+     */
+    private void dumpClassEvents(AgentChannel channel) throws IOException {
+        String args = channel.readLine();
+        final ClassEventStream.Subscription subscription;
+        final int seconds;
+        try {
+            String[] parts = args == null ? new String[0] : args.trim().split("\\s+");
+            Set<ClassEventStream.Kind> kinds = EnumSet.noneOf(ClassEventStream.Kind.class);
+            if (parts.length > 0 && !parts[0].isEmpty() && !"ALL".equals(parts[0])) {
+                for (String kind : parts[0].split(",")) {
+                    kinds.add(ClassEventStream.Kind.valueOf(kind));
+                }
+            }
+            seconds = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (seconds <= 0) {
+                throw new IllegalArgumentException("Seconds to collect class events must be positive, got " + seconds);
+            }
+            int capacity = parts.length > 2 ? Integer.parseInt(parts[2]) : ClassEventStream.DEFAULT_CAPACITY;
+            subscription = provider.subscribe(kinds, capacity);
+        } catch (RuntimeException ex) {
+            AgentLogger.getLogger().log(ex);
+            channel.writeLine(toError(ex));
+            return;
+        }
+        try {
+            getList(channel, "CLASS_EVENTS", new ListInjector<String>() {
+                @Override
+                public void inject(BlockingQueue<String> target) throws InterruptedException {
+                    provider.sendEvents(target, subscription, seconds);
+                }
+            });
+        } finally {
+            provider.unsubscribe(subscription);
+        }
+    }
+
+    private void getMetrics(AgentChannel out) throws IOException {
+        getList(out, "METRICS", new ListInjector<String>() {
+            @Override
+            public void inject(BlockingQueue<String> target) throws InterruptedException {
+                AgentMetrics.getMetrics().dump(target);
+            }
+        });
+    }
+
+    private void sendByteCode(AgentChannel channel) throws IOException {
+        String className = channel.readLine();
         if (className == null) {
-            out.write(toError("No class name provided for the get bytes command.") + "\n");
-            out.flush();
+            channel.writeLine(toError("No class name provided for the get bytes command."));
             return;
         }
         try {
             byte[] body = provider.findClassBody(className);
-            String encoded = Base64.getEncoder().encodeToString(body);
-            out.write("BYTES");
-            out.newLine();
-            out.write(encoded);
-            out.newLine();
+            channel.writeLine("BYTES");
+            channel.writeBytes(body);
         } catch (Throwable ex) {
             AgentLogger.getLogger().log(ex);
-            out.write(toError(ex) + "\n");
+            channel.writeLine(toError(ex));
         }
-        out.flush();
     }
 
-    private void getVersion(BufferedWriter out) throws IOException {
+    /**
+     * Reply is, for every requested class, its name followed either by BYTES and the body, or by an error line.
+     */
+    private void sendByteCodes(AgentChannel channel) throws IOException {
+        String classNames = channel.readLine();
+        if (classNames == null || classNames.trim().isEmpty()) {
+            channel.writeLine(toError("No class names provided for the get multiple bytes command."));
+            return;
+        }
+        List<String> requested = Arrays.asList(classNames.trim().split("\\s+"));
+        Map<String, String> errors = new HashMap<>();
+        Map<String, byte[]> bodies;
         try {
-            out.write("VERSION");
-            out.newLine();
-            out.write(MetadataProperties.getInstance().toString());
-            out.newLine();
+            bodies = provider.findClassBodies(requested, errors);
         } catch (Throwable ex) {
             AgentLogger.getLogger().log(ex);
-            out.write(toError(ex) + "\n");
+            channel.writeLine(toError(ex));
+            return;
+        }
+        channel.writeLine("BYTES_MULTI");
+        for (String className : requested) {
+            channel.writeLine(className);
+            byte[] body = bodies.get(className);
+            if (body != null) {
+                channel.writeLine("BYTES");
+                channel.writeBytes(body);
+            } else {
+                channel.writeLine(toError(errors.getOrDefault(className, "Body of " + className + " was not obtained.")));
+            }
+        }
+    }
+
+    private void getVersion(AgentChannel out) throws IOException {
+        try {
+            out.writeLine("VERSION");
+            out.writeLine(MetadataProperties.getInstance().toString());
+        } catch (Throwable ex) {
+            AgentLogger.getLogger().log(ex);
+            out.writeLine(toError(ex));
+        }
+    }
+
+    /**
+     * Optional arguments are the sequence of the first record (NEXT of the previous reply, 0 if not given)
+     * and the most verbose level (DEBUG if not given). Lines of multi-line records, eg. stack traces, are sent as separate items.
+     */
+    private void getLogs(AgentChannel channel) throws IOException {
+        String args = channel.readLine();
+        String[] words = args == null || args.trim().isEmpty() ? new String[0] : args.trim().split("\\s+");
+        long since;
+        AgentLogger.Level level;
+        try {
+            since = words.length > 0 ? Long.parseLong(words[0]) : 0;
+            level = words.length > 1 ? AgentLogger.Level.valueOf(words[1]) : AgentLogger.Level.DEBUG;
+        } catch (IllegalArgumentException ex) {
+            channel.writeLine(toError("Invalid arguments of logs command: " + args + ". Use [SINCE] [ERROR|WARN|INFO|DEBUG]."));
+            return;
+        }
+        List<String> records = new ArrayList<>();
+        long next = AgentLogger.getLogger().read(since, level, records);
+        channel.writeLine("LOGS");
+        channel.writeLine("NEXT " + next);
+        for (String logRecord : records) {
+            for (String line : logRecord.split("\n")) {
+                channel.writeLine(line);
+            }
+        }
+    }
+
+    /**
+     * Argument is the threshold in bytes, replies smaller than that are not worth compressing.
+     */
+    private void compress(AgentChannel channel) throws IOException {
+        String thresholdLine = channel.readLine();
+        int threshold;
+        try {
+            threshold = Integer.parseInt(thresholdLine == null ? "" : thresholdLine.trim());
+        } catch (NumberFormatException ex) {
+            channel.writeLine(toError("No threshold in bytes provided for the compress command."));
+            return;
+        }
+        if (!channel.compress(threshold)) {
+            channel.writeLine(toError("Compression is supported only in binary protocol."));
+            return;
+        }
+        channel.writeLine("COMPRESS");
+        channel.writeLine("DEFLATE " + threshold);
+    }
+
+    private void constantPoolIndex(AgentChannel channel) throws IOException {
+        String operation = channel.readLine();
+        if (operation == null) {
+            channel.writeLine(toError("No operation provided for the constant pool index command. Try enable, drop or status."));
+            return;
+        }
+        try {
+            String status = provider.constantPoolIndex(operation.trim());
+            channel.writeLine("CP_INDEX");
+            channel.writeLine(status);
+        } catch (Throwable ex) {
+            AgentLogger.getLogger().log(ex);
+            channel.writeLine(toError(ex));
         }
-        out.flush();
     }
 
     private interface ParametrisedRunner {
         void run(String args) throws Exception;
     }
 
-    private void executeParametrisedNoReturnCommand(
-            BufferedReader in, BufferedWriter out, String help, ParametrisedRunner parametrisedRunner
-    ) throws IOException {
-        String args = in.readLine();
+    private void executeParametrisedNoReturnCommand(AgentChannel channel, String help, ParametrisedRunner parametrisedRunner)
+            throws IOException {
+        String args = channel.readLine();
         if (args == null) {
-            out.write(toError(help) + "\n");
-            out.flush();
+            channel.writeLine(toError(help));
             return;
         }
         try {
             parametrisedRunner.run(args);
-            out.write("DONE");
-            out.newLine();
+            channel.writeLine("DONE");
         } catch (Throwable ex) {
             AgentLogger.getLogger().log(ex);
-            out.write(toError(ex) + "\n");
+            channel.writeLine(toError(ex));
         }
-        out.flush();
     }
 
-    private void initClass(BufferedReader in, BufferedWriter out) throws IOException {
-        executeParametrisedNoReturnCommand(in, out, "No FQN provided for the init class command.", new ParametrisedRunner() {
+    private void initClass(AgentChannel channel) throws IOException {
+        executeParametrisedNoReturnCommand(channel, "No FQN provided for the init class command.", new ParametrisedRunner() {
             @Override
             public void run(String arg) throws Exception {
                 Class.forName(arg);
@@ -286,8 +721,8 @@ public class AgentActionWorker extends Thread {
         });
     }
 
-    private void removeOverrides(BufferedReader in, BufferedWriter out) throws IOException {
-        executeParametrisedNoReturnCommand(in, out, "No regex provided for the remove override. Try .*", new ParametrisedRunner() {
+    private void removeOverrides(AgentChannel channel) throws IOException {
+        executeParametrisedNoReturnCommand(channel, "No regex provided for the remove override. Try .*", new ParametrisedRunner() {
             @Override
             public void run(String pattern) throws Exception {
                 int removed = provider.cleanOverrides(pattern);
@@ -298,27 +733,22 @@ public class AgentActionWorker extends Thread {
         });
     }
 
-    private void receiveByteCode(BufferedReader in, BufferedWriter out, ReceivedType rewroteAddJar) throws IOException {
-        executeParametrisedNoReturnCommand(in, out, "No class name provided for the overwrite command.", new ParametrisedRunner() {
+    private void receiveByteCode(AgentChannel channel, ReceivedType rewroteAddJar) throws IOException {
+        executeParametrisedNoReturnCommand(channel, "No class name provided for the overwrite command.", new ParametrisedRunner() {
             @Override
             public void run(String className) throws Exception {
-                String classBodyBase64 = in.readLine();
-                if (classBodyBase64 == null) {
-                    out.write(toError("No class body provided for the overwrite command.") + "\n");
-                    out.flush();
-                    return;
+                byte[] classBody = channel.readBytes();
+                if (classBody == null) {
+                    throw new Exception("No class body provided for the overwrite command.");
                 }
                 switch (rewroteAddJar) {
                     case OVERWRITE_CLASS:
-                        provider.setClassBody(className, Base64.getDecoder().decode(classBodyBase64));
+                        provider.setClassBody(className, classBody);
                         break;
                     case ADD_CLASS:
-                        provider.addClass(className, Base64.getDecoder().decode(classBodyBase64));
+                        provider.addClass(className, classBody);
                         //initClass(in, out); returns
                         break;
-                    case ADD_JAR:
-                        provider.addJar(className, Base64.getDecoder().decode(classBodyBase64));
-                        break;
                     default:
                         throw new RuntimeException("Unknown action to receiveByteCode: " + rewroteAddJar);
                 }
@@ -326,11 +756,54 @@ public class AgentActionWorker extends Thread {
         });
     }
 
-    private void closeSocket(BufferedWriter out, Socket socket) throws IOException {
-        out.write("GOODBYE");
-        out.flush();
+    /**
+     * Arguments are the jar name, its body and optionally which of its classes to initialize, see {@link InstrumentationProvider#addJar}.
+     * The body is streamed to a temporary file, so the target VM never holds the whole jar in memory.
+     */
+    private void receiveJar(AgentChannel channel) throws IOException {
+        executeParametrisedNoReturnCommand(channel, "No jar name provided for the add jar command.", new ParametrisedRunner() {
+            @Override
+            public void run(String jarName) throws Exception {
+                File tmp = File.createTempFile("jrdagent", ".jar");
+                tmp.deleteOnExit();
+                long size;
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                    size = channel.readBytesTo(os);
+                }
+                if (size < 0) {
+                    tmp.delete();
+                    throw new Exception("No jar body provided for the add jar command.");
+                }
+                provider.addJar(jarName, tmp, channel.readLine());
+            }
+        });
+    }
+
+    /**
+     * Arguments are space separated class names, followed by body of each of them. All are overwritten or none.
+     */
+    private void receiveByteCodes(AgentChannel channel) throws IOException {
+        executeParametrisedNoReturnCommand(channel, "No class names provided for the overwrite command.", new ParametrisedRunner() {
+            @Override
+            public void run(String classNames) throws Exception {
+                Map<String, byte[]> bodies = new LinkedHashMap<>();
+                for (String className : classNames.trim().split("\\s+")) {
+                    byte[] classBody = channel.readBytes();
+                    if (classBody == null) {
+                        throw new Exception("No class body provided for " + className + " in the overwrite command.");
+                    }
+                    bodies.put(className, classBody);
+                }
+                provider.setClassBodies(bodies);
+            }
+        });
+    }
+
+    private void closeSocket(AgentChannel out, Socket socket) throws IOException {
+        out.writeLine("GOODBYE");
+        out.endResponse();
         socket.close();
         ConnectionDelegator.gracefulShutdown();
-        AgentLogger.getLogger().log("done");
+        AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "done");
     }
 }
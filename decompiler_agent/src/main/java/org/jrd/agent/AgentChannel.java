@@ -0,0 +1,66 @@
+package org.jrd.agent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Wire protocol independent view of one client connection.
+ * Commands read their arguments and write their replies through it,
+ * so the same command code serves both the line based text protocol and the framed binary one.
+ */
+interface AgentChannel {
+
+    /**
+     * @return name of the next command, or null if the client sent nothing or closed the session
+     */
+    String readCommand() throws IOException;
+
+    /**
+     * @return next textual argument of current command, or null if there is none
+     */
+    String readLine() throws IOException;
+
+    /**
+     * @return next binary argument (eg. class body) of current command, or null if there is none
+     */
+    byte[] readBytes() throws IOException;
+
+    /**
+     * Copies next binary argument to the target in chunks, so large ones (eg. jars) are never whole in memory.
+     *
+     * @return number of bytes copied, or -1 if there is no such argument
+     */
+    long readBytesTo(OutputStream target) throws IOException;
+
+    void writeLine(String line) throws IOException;
+
+    void writeBytes(byte[] bytes) throws IOException;
+
+    /**
+     * Sends everything written so far. More output of the same reply may follow.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Finishes reply to current command.
+     */
+    void endResponse() throws IOException;
+
+    /**
+     * @return true if more commands may follow on this connection after the reply is ended
+     */
+    boolean isSession();
+
+    /**
+     * Starts compressing replies following the current one, as negotiated by the client.
+     *
+     * @param threshold replies (or their parts) smaller than this many bytes are not compressed
+     * @return false if the protocol does not support compression
+     */
+    boolean compress(int threshold);
+
+    /**
+     * Releases resources of the channel, the socket is closed separately.
+     */
+    void close();
+}
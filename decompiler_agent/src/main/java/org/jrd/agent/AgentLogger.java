@@ -1,12 +1,63 @@
 package org.jrd.agent;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
- * Class for logging exceptions in the Agent.
+ * Class for logging in the Agent.
+ * <p>
+ * Records are stored in a bounded ring buffer and never block the logging thread, the oldest are overwritten when it is full.
+ * They are printed to System.err of the target VM by a daemon thread, only from the configured level up,
+ * and clients can fetch all of them by the LOGS command.
  */
 public class AgentLogger {
 
+    public enum Level {
+        ERROR,
+        WARN,
+        INFO,
+        DEBUG
+    }
+
+    static final int CAPACITY = 4096;
+    private static final long DRAIN_INTERVAL_MS = 200;
     private static final String NULL_OBJECT_MESSAGE = "Trying to log null object";
 
+    private final AtomicReferenceArray<LogRecord> ring = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong next = new AtomicLong();
+    /**
+     * Records up to this level are printed to System.err, null for none.
+     */
+    private volatile Level stderrLevel = Level.INFO;
+    private volatile Thread drainer;
+
+    private static final class LogRecord {
+        private final long sequence;
+        private final long time;
+        private final Level level;
+        private final String thread;
+        private final String message;
+
+        private LogRecord(long sequence, Level level, String message) {
+            this.sequence = sequence;
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+        }
+
+        private String format() {
+            return sequence + " " + new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(time)) + " " + level + " [" + thread + "] " +
+                    message;
+        }
+    }
+
     private static class AgentLoggerHolder {
         // https://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom
         // https://en.wikipedia.org/wiki/Double-checked_locking#Usage_in_Java
@@ -17,18 +68,99 @@ public class AgentLogger {
         return AgentLoggerHolder.INSTANCE;
     }
 
+    /**
+     * Throwables are logged as errors with their stack trace, anything else as info.
+     */
     public void log(Object o) {
-        String s = "";
+        log(o instanceof Throwable ? Level.ERROR : Level.INFO, o);
+    }
 
+    public void log(Level level, Object o) {
+        String s;
         if (o == null) {
             s = NULL_OBJECT_MESSAGE;
         } else if (o instanceof Throwable) {
-            ((Throwable) o).printStackTrace();
-            return;
+            StringWriter trace = new StringWriter();
+            ((Throwable) o).printStackTrace(new PrintWriter(trace));
+            s = trace.toString().trim();
         } else {
             s = o.toString();
         }
+        long sequence = next.getAndIncrement();
+        ring.set(index(sequence), new LogRecord(sequence, level, s));
+        Level printed = stderrLevel;
+        if (printed != null && level.compareTo(printed) <= 0 && drainer == null) {
+            startDrainer();
+        }
+    }
 
-        System.err.println(s);
+    /**
+     * @param level records up to this level are printed to System.err of the target VM, null for none
+     */
+    void setStderrLevel(Level level) {
+        stderrLevel = level;
+    }
+
+    private static int index(long sequence) {
+        return (int) (sequence % CAPACITY);
+    }
+
+    private synchronized void startDrainer() {
+        if (drainer != null) {
+            return;
+        }
+        drainer = new Thread(this::drain, "JRD logger");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private void drain() {
+        long printed = 0;
+        while (true) {
+            try {
+                Thread.sleep(DRAIN_INTERVAL_MS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            List<String> lines = new ArrayList<>();
+            Level level = stderrLevel;
+            printed = read(printed, level == null ? Level.ERROR : level, lines);
+            if (level != null) {
+                for (String line : lines) {
+                    System.err.println(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param since sequence of the first record to read
+     * @param level the most verbose level to read
+     * @param target where to add formatted records, preceded by "DROPPED count" if some were overwritten since then
+     * @return sequence of the first record not read yet, to be passed as since next time
+     */
+    long read(long since, Level level, List<String> target) {
+        long end = next.get();
+        // sequence from the future belongs to a previous agent, its client gets everything
+        long start = since > end ? 0 : Math.max(0, since);
+        long from = Math.max(start, end - CAPACITY);
+        long dropped = from - start;
+        for (long sequence = from; sequence < end; sequence++) {
+            LogRecord logRecord = ring.get(index(sequence));
+            if (logRecord == null || logRecord.sequence < sequence) {
+                // its writer did not store it yet, it and anything after it will be read next time
+                end = sequence;
+                break;
+            }
+            if (logRecord.sequence > sequence) {
+                dropped++;
+            } else if (logRecord.level.compareTo(level) <= 0) {
+                target.add(logRecord.format());
+            }
+        }
+        if (dropped > 0) {
+            target.add(0, "DROPPED " + dropped);
+        }
+        return end;
     }
 }
@@ -0,0 +1,169 @@
+package org.jrd.agent;
+
+import org.jrd.agent.api.Metrics;
+import org.jrd.agent.api.Metrics.Histogram;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * What the agent costs the target VM. Everything is kept in striped {@link LongAdder}s, so recording from many threads
+ * does not contend, and only reading the metrics sums the stripes.
+ */
+final class AgentMetrics {
+
+    private static final String RETRANSFORM = "retransformClasses";
+    /**
+     * Commands come from clients, anything over this many distinct ones is counted together.
+     */
+    private static final int MAX_COMMANDS = 64;
+    private static final String OTHER_COMMANDS = "other";
+
+    private final Map<String, Histogram> commands = new ConcurrentHashMap<>();
+    private final Histogram retransforms = new Histogram();
+    private final LongAdder retransformedClasses = new LongAdder();
+    private final LongAdder rejectedCommands = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final Histogram compressions = new Histogram();
+    private final LongAdder compressedFrom = new LongAdder();
+    private final LongAdder compressedTo = new LongAdder();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private static class AgentMetricsHolder {
+        private static final AgentMetrics INSTANCE = new AgentMetrics();
+    }
+
+    static AgentMetrics getMetrics() {
+        return AgentMetricsHolder.INSTANCE;
+    }
+
+    private AgentMetrics() {
+    }
+
+    void commandExecuted(String command, long nanos) {
+        String key = command;
+        if (commands.size() >= MAX_COMMANDS && !commands.containsKey(command)) {
+            key = OTHER_COMMANDS;
+        }
+        commands.computeIfAbsent(key, k -> new Histogram()).recordNanos(nanos);
+    }
+
+    void commandRejected() {
+        rejectedCommands.increment();
+    }
+
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    void retransformed(int classes, long nanos) {
+        retransformedClasses.add(classes);
+        retransforms.recordNanos(nanos);
+    }
+
+    /**
+     * @param rawBytes size of a frame before compression
+     * @param compressedBytes size of the frame as sent
+     */
+    void compressed(int rawBytes, int compressedBytes, long nanos) {
+        compressedFrom.add(rawBytes);
+        compressedTo.add(compressedBytes);
+        compressions.recordNanos(nanos);
+    }
+
+    /**
+     * @param name name under which current value of the supplier is reported
+     */
+    void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    InputStream countIn(InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesIn.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    OutputStream countOut(OutputStream stream) {
+        return new FilterOutputStream(stream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesOut.add(len);
+            }
+        };
+    }
+
+    /**
+     * Puts one line per metric into the queue.
+     */
+    void dump(BlockingQueue<String> queue) throws InterruptedException {
+        queue.put("connections.active " + activeConnections.sum());
+        queue.put("connections.rejected " + rejectedConnections.sum());
+        queue.put("commands.rejected " + rejectedCommands.sum());
+        queue.put("bytes.in " + bytesIn.sum());
+        queue.put("bytes.out " + bytesOut.sum());
+        long from = compressedFrom.sum();
+        long to = compressedTo.sum();
+        queue.put("compression.bytesBefore " + from);
+        queue.put("compression.bytesAfter " + to);
+        queue.put("compression.bytesSaved " + (from - to));
+        queue.put("compression " + compressions.describe());
+        queue.put(RETRANSFORM + ".classes " + retransformedClasses.sum());
+        queue.put(RETRANSFORM + " " + retransforms.describe());
+        for (Map.Entry<String, Histogram> command : new TreeMap<>(commands).entrySet()) {
+            queue.put("command." + command.getKey() + " " + command.getValue().describe());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            queue.put(gauge.getKey() + " " + gauge.getValue().getAsLong());
+        }
+        // what patched code records through the api
+        for (String apiMetric : Metrics.dumpAll().split("\n")) {
+            if (!apiMetric.isEmpty()) {
+                queue.put("api." + apiMetric);
+            }
+        }
+    }
+}
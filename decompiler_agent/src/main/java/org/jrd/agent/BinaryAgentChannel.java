@@ -0,0 +1,260 @@
+package org.jrd.agent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Framed binary protocol. Client selects it by sending {@link #HANDSHAKE} line instead of command,
+ * agent confirms by the same line and from that moment both sides speak in frames.
+ * <p>
+ * Frame is: opcode (1 byte), request id (int), payload length (int), payload.
+ * Payload is sequence of fields, each is its length (int) followed by bytes.
+ * Textual fields are UTF-8, binary fields (class bodies, jars) are sent raw, without Base64.
+ * <p>
+ * Client sends one {@link #REQUEST} frame, first field is the command, others are its arguments.
+ * Arguments are read from the socket only as the command asks for them, so large ones (jars) can be streamed.
+ * Agent replies with any number of {@link #DATA} frames terminated by {@link #END} frame, all with id of the request.
+ * <p>
+ * Connection is a session, after the {@link #END} frame client may send next request.
+ * Session ends by {@link #CLOSE} frame, by closing the socket, or by agent after idle timeout.
+ * <p>
+ * Client may negotiate compression by COMPRESS command. From its reply on, data frames of at least threshold bytes
+ * are sent as {@link #DEFLATED} frames, whose payload is the length of the original payload followed by the original
+ * payload deflated. All such frames of a session are one deflate stream, each ended by sync flush,
+ * so repeated names from previous frames compress too.
+ */
+class BinaryAgentChannel implements AgentChannel {
+
+    static final String HANDSHAKE = "BINARY";
+    static final byte REQUEST = 1;
+    static final byte DATA = 2;
+    static final byte END = 3;
+    static final byte CLOSE = 4;
+    static final byte DEFLATED = 5;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private int remainingRequest;
+    private final List<byte[]> pending = new ArrayList<>();
+    private int pendingLength;
+    private int requestId;
+    private Deflater deflater;
+    private int compressThreshold;
+    private int requestedCompressThreshold = -1;
+
+    BinaryAgentChannel(InputStream is, OutputStream os) {
+        this.in = new DataInputStream(is);
+        this.out = new DataOutputStream(new BufferedOutputStream(os));
+    }
+
+    @Override
+    public String readCommand() throws IOException {
+        // arguments the previous command did not ask for
+        skipFully(remainingRequest);
+        remainingRequest = 0;
+        int opcode = in.read();
+        if (opcode < 0) {
+            return null;
+        }
+        requestId = in.readInt();
+        int length = in.readInt();
+        if (opcode == CLOSE) {
+            return null;
+        }
+        if (opcode != REQUEST) {
+            throw new IOException("Expected request frame, got opcode " + opcode);
+        }
+        if (length < 0) {
+            throw new IOException("Corrupted frame, negative length " + length);
+        }
+        remainingRequest = length;
+        return readLine();
+    }
+
+    /**
+     * @return length of the next field of current request, whose bytes follow in the stream, or -1 if there is none
+     */
+    private int nextField() throws IOException {
+        if (remainingRequest <= 0) {
+            return -1;
+        }
+        int fieldLength = in.readInt();
+        if (fieldLength < 0 || fieldLength > remainingRequest - Integer.BYTES) {
+            throw new IOException("Corrupted frame, field of " + fieldLength + " bytes in " + remainingRequest + " remaining");
+        }
+        remainingRequest = remainingRequest - Integer.BYTES - fieldLength;
+        return fieldLength;
+    }
+
+    private void skipFully(int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                // skipBytes gives up on end of stream, read tells whether it was the end
+                if (in.read() < 0) {
+                    throw new IOException("Connection closed in the middle of request");
+                }
+                skipped = 1;
+            }
+            remaining = remaining - skipped;
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        byte[] field = readBytes();
+        if (field == null) {
+            return null;
+        }
+        return new String(field, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] readBytes() throws IOException {
+        int fieldLength = nextField();
+        if (fieldLength < 0) {
+            return null;
+        }
+        byte[] field = new byte[fieldLength];
+        in.readFully(field);
+        return field;
+    }
+
+    @Override
+    public long readBytesTo(OutputStream target) throws IOException {
+        int fieldLength = nextField();
+        if (fieldLength < 0) {
+            return -1;
+        }
+        byte[] buffer = new byte[Math.min(fieldLength, COPY_BUFFER)];
+        int remaining = fieldLength;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, Math.min(remaining, buffer.length));
+            if (read < 0) {
+                throw new IOException("Connection closed in the middle of request");
+            }
+            remaining = remaining - read;
+            try {
+                target.write(buffer, 0, read);
+            } catch (IOException ex) {
+                // the stream stays in sync, so the failure can be reported and the session goes on
+                skipFully(remaining);
+                throw ex;
+            }
+        }
+        return fieldLength;
+    }
+
+    @Override
+    public void writeLine(String line) {
+        writeBytes(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes) {
+        pending.add(bytes);
+        pendingLength = pendingLength + Integer.BYTES + bytes.length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!pending.isEmpty()) {
+            writeFrame(DATA);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void endResponse() throws IOException {
+        if (!pending.isEmpty()) {
+            writeFrame(DATA);
+        }
+        writeFrame(END);
+        out.flush();
+        if (requestedCompressThreshold >= 0) {
+            if (deflater == null) {
+                // fastest level, the CPU is taken from the target VM
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            compressThreshold = requestedCompressThreshold;
+            requestedCompressThreshold = -1;
+        }
+    }
+
+    @Override
+    public boolean isSession() {
+        return true;
+    }
+
+    /**
+     * Compression starts after the end of current reply, so the reply to the negotiation itself is not compressed.
+     */
+    @Override
+    public boolean compress(int threshold) {
+        requestedCompressThreshold = Math.max(0, threshold);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private void writeFrame(byte opcode) throws IOException {
+        if (opcode == DATA && deflater != null && pendingLength >= compressThreshold) {
+            writeDeflatedFrame();
+            return;
+        }
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeInt(pendingLength);
+        for (byte[] field : pending) {
+            out.writeInt(field.length);
+            out.write(field);
+        }
+        pending.clear();
+        pendingLength = 0;
+    }
+
+    private void writeDeflatedFrame() throws IOException {
+        final long start = System.nanoTime();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(pendingLength);
+        DataOutputStream fieldsOut = new DataOutputStream(payload);
+        for (byte[] field : pending) {
+            fieldsOut.writeInt(field.length);
+            fieldsOut.write(field);
+        }
+        deflater.setInput(payload.toByteArray());
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(pendingLength / 4 + 64);
+        byte[] buffer = new byte[8192];
+        int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        // sync flush is complete once the buffer is not filled
+        while (length > 0) {
+            deflated.write(buffer, 0, length);
+            length = length == buffer.length ? deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH) : 0;
+        }
+        out.writeByte(DEFLATED);
+        out.writeInt(requestId);
+        out.writeInt(Integer.BYTES + deflated.size());
+        out.writeInt(pendingLength);
+        deflated.writeTo(out);
+        AgentMetrics.getMetrics().compressed(pendingLength, Integer.BYTES + deflated.size(), System.nanoTime() - start);
+        pending.clear();
+        pendingLength = 0;
+    }
+}
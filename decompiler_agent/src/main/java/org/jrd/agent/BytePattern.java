@@ -0,0 +1,39 @@
+package org.jrd.agent;
+
+/**
+ * Boyer-Moore-Horspool search of fixed byte sequence, so class bodies can be searched without decoding them to Strings.
+ * The shift table is computed once, instances are immutable and may be shared between threads.
+ */
+final class BytePattern {
+
+    private static final int ALPHABET = 256;
+
+    private final byte[] needle;
+    private final int[] shift = new int[ALPHABET];
+
+    BytePattern(byte[] needle) {
+        this.needle = needle.clone();
+        for (int i = 0; i < ALPHABET; i++) {
+            shift[i] = needle.length;
+        }
+        for (int i = 0; i < needle.length - 1; i++) {
+            shift[needle[i] & 0xff] = needle.length - 1 - i;
+        }
+    }
+
+    boolean isIn(byte[] haystack) {
+        int last = needle.length - 1;
+        int position = 0;
+        while (position + last < haystack.length) {
+            int i = last;
+            while (i >= 0 && haystack[position + i] == needle[i]) {
+                i--;
+            }
+            if (i < 0) {
+                return true;
+            }
+            position = position + shift[haystack[position + last] & 0xff];
+        }
+        return needle.length == 0;
+    }
+}
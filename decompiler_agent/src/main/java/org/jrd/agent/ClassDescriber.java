@@ -0,0 +1,117 @@
+package org.jrd.agent;
+
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Describes classes of one listing, either by name or as "name|location|classloader".
+ * <p>
+ * There are only a few distinct locations and class loaders, so they are resolved once per protection domain and class loader.
+ * In dictionary mode, each distinct location and class loader is sent once as "|id|text" before the first class referencing it,
+ * and classes are described as "name|locationId|classloaderId". Ids are valid only within the listing.
+ */
+final class ClassDescriber {
+
+    static final String DICTIONARY_MODE = "dict";
+    private static final String INFO_DELIMITER = "|";
+    private static final String UNKNOWN = "unknown";
+
+    private final boolean details;
+    private final boolean dictionary;
+    private final Map<ProtectionDomain, String> locations = new IdentityHashMap<>();
+    private final Map<ClassLoader, String> classLoaders = new IdentityHashMap<>();
+    private final Map<String, String> ids = new HashMap<>();
+    private final List<String> definitions = new ArrayList<>();
+
+    /**
+     * @param details whether to describe location and class loader, or just the name
+     * @param dictionary whether to reference locations and class loaders by ids of the dictionary
+     */
+    ClassDescriber(boolean details, boolean dictionary) {
+        this.details = details;
+        this.dictionary = details && dictionary;
+    }
+
+    /**
+     * Dictionary items for locations and class loaders seen by this call are kept until {@link #flush}.
+     */
+    synchronized String describe(Class<?> clazz) {
+        if (!details) {
+            return clazz.getName();
+        }
+        return describe(clazz.getName(), getLocation(clazz), getClassLoader(clazz));
+    }
+
+    /**
+     * Describes class which may be gone already, by its location and class loader as they were described when it was loaded.
+     */
+    synchronized String describe(String className, String location, String classLoader) {
+        if (!details) {
+            return className;
+        }
+        return className + INFO_DELIMITER + encode(location) + INFO_DELIMITER + encode(classLoader);
+    }
+
+    /**
+     * Inserts the class into the queue, preceded by dictionary items it references for the first time.
+     */
+    synchronized void put(BlockingQueue<String> queue, Class<?> clazz) throws InterruptedException {
+        String described = describe(clazz);
+        flush(queue);
+        queue.put(described);
+    }
+
+    /**
+     * Inserts dictionary items not yet inserted into the queue.
+     */
+    synchronized void flush(BlockingQueue<String> queue) throws InterruptedException {
+        for (String definition : definitions) {
+            queue.put(definition);
+        }
+        definitions.clear();
+    }
+
+    private String encode(String text) {
+        if (!dictionary) {
+            return text;
+        }
+        String id = ids.get(text);
+        if (id == null) {
+            id = String.valueOf(ids.size());
+            ids.put(text, id);
+            definitions.add(INFO_DELIMITER + id + INFO_DELIMITER + text);
+        }
+        return id;
+    }
+
+    String getLocation(Class<?> clazz) {
+        ProtectionDomain domain;
+        try {
+            domain = clazz.getProtectionDomain();
+        } catch (Exception ex) {
+            return UNKNOWN;
+        }
+        return locations.computeIfAbsent(domain, d -> {
+            try {
+                return d.getCodeSource().getLocation().getPath();
+            } catch (Exception ex) {
+                return UNKNOWN;
+            }
+        });
+    }
+
+    String getClassLoader(Class<?> clazz) {
+        return classLoaders.computeIfAbsent(clazz.getClassLoader(), l -> {
+            try {
+                return l.toString();
+            } catch (Exception ex) {
+                return UNKNOWN;
+            }
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package org.jrd.agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects changes of classes for clients dumping them during a given time, so they do not need to poll CLASSES and OVERRIDES.
+ * <p>
+ * Every subscription has its own bounded buffer. Repeated event of the same kind for the same class is coalesced
+ * into the latest one, and when the buffer is full, the oldest event is dropped and the client is told how many.
+ * Publishing is called from the observer hook of {@link Transformer}, which is registered only while there are subscribers.
+ */
+final class ClassEventStream {
+
+    enum Kind {
+        LOADED,
+        REDEFINED,
+        OVERRIDE_SET,
+        OVERRIDE_REMOVED
+    }
+
+    static final int MAX_SUBSCRIPTIONS = 8;
+    static final int DEFAULT_CAPACITY = 10000;
+    static final String DROPPED = "DROPPED";
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+
+    final class Subscription {
+        private final Set<Kind> kinds;
+        private final int capacity;
+        private final Set<String> pending = new LinkedHashSet<>();
+        private long droppedSinceDrain;
+
+        private Subscription(Set<Kind> kinds, int capacity) {
+            this.kinds = kinds;
+            this.capacity = capacity;
+        }
+
+        private synchronized void offer(Kind kind, String className) {
+            if (!kinds.contains(kind)) {
+                return;
+            }
+            String event = kind + " " + className;
+            // moved to the end, so the order of different events of the same class is kept
+            if (!pending.remove(event) && pending.size() >= capacity) {
+                Iterator<String> oldest = pending.iterator();
+                oldest.next();
+                oldest.remove();
+                droppedSinceDrain++;
+                dropped.increment();
+            }
+            pending.add(event);
+            notifyAll();
+        }
+
+        /**
+         * @return true if there are events to drain, false if none came in time
+         */
+        synchronized boolean await(long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (pending.isEmpty() && droppedSinceDrain == 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        /**
+         * @return pending events, "KIND class name", preceded by "DROPPED count" if some were dropped since last drain
+         */
+        synchronized List<String> drain() {
+            List<String> events = new ArrayList<>(pending.size() + 1);
+            if (droppedSinceDrain > 0) {
+                events.add(DROPPED + " " + droppedSinceDrain);
+                droppedSinceDrain = 0;
+            }
+            events.addAll(pending);
+            pending.clear();
+            return events;
+        }
+
+        void cancel() {
+            subscriptions.remove(this);
+        }
+    }
+
+    /**
+     * @param kinds kinds of events to receive, all if empty
+     * @param capacity how many events may wait for the client, before the oldest is dropped
+     * @throws IllegalStateException if there are already too many subscriptions
+     */
+    synchronized Subscription subscribe(Set<Kind> kinds, int capacity) {
+        if (subscriptions.size() >= MAX_SUBSCRIPTIONS) {
+            throw new IllegalStateException("There are already " + MAX_SUBSCRIPTIONS + " subscriptions to class events.");
+        }
+        Set<Kind> subscribed = kinds.isEmpty() ? EnumSet.allOf(Kind.class) : EnumSet.copyOf(kinds);
+        Subscription subscription = new Subscription(Collections.unmodifiableSet(subscribed), Math.max(1, capacity));
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void publish(Kind kind, String className) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(kind, className);
+        }
+    }
+
+    int getSubscriptionsCount() {
+        return subscriptions.size();
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+}
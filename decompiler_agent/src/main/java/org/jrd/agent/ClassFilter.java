@@ -1,6 +1,13 @@
 package org.jrd.agent;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
 
@@ -8,10 +15,33 @@ public class ClassFilter {
 
     private final Pattern nameFilter;
     private final String bodySubstring;
+    private final List<BytePattern> bodyPatterns;
 
     public ClassFilter(Optional<String> bodySubstring, Optional<String> nameFilter) {
         this.nameFilter = Pattern.compile(nameFilter.orElseGet(() -> ".*"));
         this.bodySubstring = bodySubstring.orElseGet(() -> "");
+        this.bodyPatterns = Collections.unmodifiableList(createPatterns(this.bodySubstring));
+    }
+
+    /**
+     * Class files store strings in modified UTF-8, which differs from UTF-8 for zero and supplementary characters,
+     * so both forms are searched. For plain ASCII they are the same.
+     */
+    private static List<BytePattern> createPatterns(String substring) {
+        List<BytePattern> patterns = new ArrayList<>(2);
+        byte[] utf8 = substring.getBytes(StandardCharsets.UTF_8);
+        patterns.add(new BytePattern(utf8));
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            new DataOutputStream(bos).writeUTF(substring);
+            byte[] modifiedUtf8 = Arrays.copyOfRange(bos.toByteArray(), 2, bos.size()); // strip the length
+            if (!Arrays.equals(utf8, modifiedUtf8)) {
+                patterns.add(new BytePattern(modifiedUtf8));
+            }
+        } catch (IOException ex) {
+            AgentLogger.getLogger().log(ex); // longer than any class file constant, UTF-8 form is enough
+        }
+        return patterns;
     }
 
     public static Optional<ClassFilter> create(String substringAndRegexLine) {
@@ -28,23 +58,27 @@ public class ClassFilter {
         return Optional.of(new ClassFilter(Optional.of(substringAndRegex[0]), Optional.of(substringAndRegex[1])));
     }
 
-    public boolean match(InstrumentationProvider instrumentationProvider, Class loadedClass) {
-        try {
-            if (nameFilter.matcher(loadedClass.getName()).matches()) {
-                byte[] b = instrumentationProvider.getClassBody(loadedClass);
-                String ascii = new String(b, StandardCharsets.US_ASCII);
-                if (ascii.contains(bodySubstring)) {
-                    return true;
-                } else {
-                    String utf8 = new String(b, StandardCharsets.UTF_8);
-                    if (utf8.contains(bodySubstring)) {
-                        return true;
-                    }
-                }
+    public boolean matchesName(Class loadedClass) {
+        return nameFilter.matcher(loadedClass.getName()).matches();
+    }
+
+    /**
+     * @return false if any class with matching name matches, so bodies do not need to be obtained at all
+     */
+    public boolean needsBody() {
+        return !bodySubstring.isEmpty();
+    }
+
+    public String getBodySubstring() {
+        return bodySubstring;
+    }
+
+    public boolean matchesBody(byte[] body) {
+        for (BytePattern pattern : bodyPatterns) {
+            if (pattern.isIn(body)) {
+                return true;
             }
-            return false;
-        } catch (Exception ex) {
-            return false;
         }
+        return false;
     }
 }
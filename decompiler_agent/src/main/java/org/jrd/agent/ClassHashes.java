@@ -0,0 +1,91 @@
+package org.jrd.agent;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SHA-256 digests of class bodies, cached until the class is retransformed or redefined by anybody.
+ * Only the observer hook of {@link Transformer} sees redefinitions, so digests are cached only while it is registered:
+ * during hashing, and between hashings only while something else needs the hook anyway. Its removal clears the cache.
+ * Classes are only weakly referenced, so the cache does not prevent their unloading.
+ */
+class ClassHashes {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Map<Class<?>, byte[]> hashes = Collections.synchronizedMap(new WeakHashMap<>());
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @return cached digest of the class, or null if it must be computed from its current body
+     */
+    String get(Class<?> clazz) {
+        byte[] hash = hashes.get(clazz);
+        return hash == null ? null : toHex(hash);
+    }
+
+    /**
+     * To be called before the bodies to hash are obtained, and passed to {@link #put}.
+     */
+    long mark() {
+        return invalidations.get();
+    }
+
+    /**
+     * @param mark {@link #mark()} from before the body was obtained, the digest is not cached if anything was redefined since then
+     * @return digest of the body
+     */
+    String put(Class<?> clazz, byte[] body, long mark) {
+        byte[] hash = digest(body);
+        synchronized (hashes) {
+            if (invalidations.get() == mark) {
+                hashes.put(clazz, hash);
+            }
+        }
+        return toHex(hash);
+    }
+
+    /**
+     * Called from the transformation hook, whenever the body of the class may have changed.
+     */
+    void invalidate(Class<?> clazz) {
+        invalidations.incrementAndGet();
+        hashes.remove(clazz);
+    }
+
+    /**
+     * Drops all digests, including those being computed now, as nothing invalidates them any more.
+     */
+    void clear() {
+        synchronized (hashes) {
+            invalidations.incrementAndGet();
+            hashes.clear();
+        }
+    }
+
+    int size() {
+        return hashes.size();
+    }
+
+    private static byte[] digest(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM has to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,239 @@
+package org.jrd.agent;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Journal of loaded and unloaded classes, so clients can ask only for changes since their last listing.
+ * <p>
+ * Every change increases the epoch. Client gets a token with the epoch of its listing, and passes it back.
+ * The token also identifies this journal, so token of a previous agent instance is never taken for valid one.
+ * <p>
+ * Loads are found by comparing currently loaded classes with the tracked ones whenever a client asks,
+ * so the journal needs no class load hook and costs the target VM nothing between requests.
+ * Unloads are noticed by weak references to all listed and loaded classes being cleared.
+ * Tracking starts with the first full listing, until then the journal costs nothing.
+ * <p>
+ * Client is told about unload only of class it was told about before, so it never removes other class of the same name.
+ * Class which was loaded and is gone already when its load is described is reported neither loaded, nor unloaded.
+ * Unloads carry location and class loader of the class, as they were when it was loaded, so the client can tell
+ * which of the same named classes is gone.
+ */
+final class ClassListJournal {
+
+    /**
+     * Oldest changes are forgotten, clients asking for changes since then get full listing.
+     */
+    private static final int MAX_EVENTS = 100000;
+    private static final String TOKEN_DELIMITER = ".";
+
+    private final String id = UUID.randomUUID().toString();
+    private final ReferenceQueue<Class<?>> unloadQueue = new ReferenceQueue<>();
+    private final Map<String, List<TrackedClass>> tracked = new HashMap<>();
+    private final Deque<Event> events = new ArrayDeque<>();
+    private long epoch;
+    private long oldestEpoch;
+    private volatile boolean tracking;
+
+    private static final class TrackedClass extends WeakReference<Class<?>> {
+        private final String name;
+        private final String location;
+        private final String classLoader;
+
+        private TrackedClass(Class<?> clazz, ClassDescriber identities, ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            this.name = clazz.getName();
+            this.location = identities.getLocation(clazz);
+            this.classLoader = identities.getClassLoader(clazz);
+        }
+    }
+
+    private static final class Event {
+        private final long epoch;
+        private final TrackedClass tracked;
+        private final boolean load;
+
+        private Event(long epoch, TrackedClass tracked, boolean load) {
+            this.epoch = epoch;
+            this.tracked = tracked;
+            this.load = load;
+        }
+    }
+
+    /**
+     * Starts tracking, if not yet started, and notes classes loaded since the previous listing of anybody.
+     *
+     * @param loadedClasses all currently loaded classes
+     * @return token for the full listing
+     */
+    synchronized String track(Class<?>[] loadedClasses) {
+        drainUnloaded();
+        // before the first listing, there is nobody to report the loads to
+        sync(loadedClasses, tracking);
+        tracking = true;
+        // the listing does not have classes which are gone and not yet noticed, so they must be unloaded before its token
+        List<TrackedClass> gone = new ArrayList<>();
+        for (List<TrackedClass> sameName : tracked.values()) {
+            for (TrackedClass known : sameName) {
+                if (known.get() == null) {
+                    gone.add(known);
+                }
+            }
+        }
+        for (TrackedClass known : gone) {
+            unloaded(known);
+        }
+        return id + TOKEN_DELIMITER + epoch;
+    }
+
+    /**
+     * Classes are described outside of the lock, as that may call class loaders.
+     *
+     * @param token token of the previous listing
+     * @param loadedClasses all currently loaded classes
+     * @param describer how to describe loaded and unloaded classes
+     * @return first the new token, then lines "+described class" and "-described unloaded class", in order they were noticed;
+     * or null, if the token is unknown or too old, and full listing is needed
+     */
+    List<String> since(String token, Class<?>[] loadedClasses, ClassDescriber describer) {
+        List<Event> newer = new ArrayList<>();
+        // loaded classes are held until described, so none of those reported loaded is gone before it is described
+        Map<TrackedClass, Class<?>> loads = new IdentityHashMap<>();
+        Set<TrackedClass> unloads = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<String> changes = new ArrayList<>();
+        synchronized (this) {
+            long from = parseEpoch(token);
+            if (!tracking || from < oldestEpoch || from > epoch) {
+                return null;
+            }
+            drainUnloaded();
+            sync(loadedClasses, true);
+            for (Event event : events) {
+                if (event.epoch > from) {
+                    newer.add(event);
+                }
+            }
+            holdLoads(newer, loads, unloads);
+            changes.add(id + TOKEN_DELIMITER + epoch);
+        }
+        for (Event event : newer) {
+            TrackedClass changed = event.tracked;
+            if (loads.containsKey(changed) && unloads.contains(changed)) {
+                // the client never heard of it
+                continue;
+            }
+            if (event.load) {
+                changes.add("+" + describer.describe(loads.get(changed)));
+            } else {
+                changes.add("-" + describer.describe(changed.name, changed.location, changed.classLoader));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Sorts the events to loads and unloads. Class which is gone already, but whose unload was not noticed yet,
+     * is unloaded now, so the load and the unload are both in the events and neither of them is reported.
+     *
+     * @param loads output map of loaded classes, null for those which are gone
+     * @param unloads output set of unloaded classes
+     */
+    private void holdLoads(List<Event> newer, Map<TrackedClass, Class<?>> loads, Set<TrackedClass> unloads) {
+        for (Event event : newer) {
+            if (event.load) {
+                loads.put(event.tracked, event.tracked.get());
+            } else {
+                unloads.add(event.tracked);
+            }
+        }
+        for (Map.Entry<TrackedClass, Class<?>> load : loads.entrySet()) {
+            if (load.getValue() == null && unloads.add(load.getKey())) {
+                unloaded(load.getKey());
+            }
+        }
+    }
+
+    private long parseEpoch(String token) {
+        int delimiter = token.lastIndexOf(TOKEN_DELIMITER);
+        if (delimiter < 0 || !id.equals(token.substring(0, delimiter))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(token.substring(delimiter + 1));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Registers classes not tracked yet, each as a load event if requested.
+     */
+    private void sync(Class<?>[] loadedClasses, boolean asEvents) {
+        ClassDescriber identities = new ClassDescriber(true, false);
+        for (Class<?> clazz : loadedClasses) {
+            TrackedClass nw = register(clazz, identities);
+            if (nw != null && asEvents) {
+                epoch++;
+                addEvent(new Event(epoch, nw, true));
+            }
+        }
+    }
+
+    /**
+     * @return the newly tracked class, or null if it was tracked already
+     */
+    private TrackedClass register(Class<?> clazz, ClassDescriber identities) {
+        List<TrackedClass> sameName = tracked.computeIfAbsent(clazz.getName(), k -> new ArrayList<>(1));
+        for (TrackedClass known : sameName) {
+            if (known.get() == clazz) {
+                return null;
+            }
+        }
+        TrackedClass nw = new TrackedClass(clazz, identities, unloadQueue);
+        sameName.add(nw);
+        return nw;
+    }
+
+    /**
+     * Every unloaded class is reported, even if other class of the same name remains loaded,
+     * as every load of it was reported too and the client keeps one item per loaded class.
+     */
+    private void drainUnloaded() {
+        for (Reference<? extends Class<?>> ref = unloadQueue.poll(); ref != null; ref = unloadQueue.poll()) {
+            unloaded((TrackedClass) ref);
+        }
+    }
+
+    /**
+     * Stops tracking the class and notes its unload, unless it was noted already.
+     */
+    private void unloaded(TrackedClass gone) {
+        List<TrackedClass> sameName = tracked.get(gone.name);
+        if (sameName == null || !sameName.remove(gone)) {
+            return;
+        }
+        if (sameName.isEmpty()) {
+            tracked.remove(gone.name);
+        }
+        epoch++;
+        addEvent(new Event(epoch, gone, false));
+    }
+
+    private void addEvent(Event event) {
+        events.addLast(event);
+        if (events.size() > MAX_EVENTS) {
+            oldestEpoch = events.removeFirst().epoch;
+        }
+    }
+}
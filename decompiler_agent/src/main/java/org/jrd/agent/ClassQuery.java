@@ -0,0 +1,181 @@
+package org.jrd.agent;
+
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Filter and page of one class listing, so huge VMs do not need to send all their classes to be filtered by the client.
+ * <p>
+ * It is parsed from whitespace separated options, all of them optional:
+ * <ul>
+ *     <li>regex=pattern, which the whole class name must match</li>
+ *     <li>package=prefix, classes of the package and its subpackages</li>
+ *     <li>loader=substring, of the class loader's toString, "null" for bootstrap classes</li>
+ *     <li>exclude=kind,..., where kinds are array, lambda, hidden and synthetic</li>
+ *     <li>offset=n and limit=n, of the page of matching classes sorted by {@link #ORDER}, negative limit for all of them</li>
+ *     <li>info=true to describe location and class loader, and dict to describe them by ids of dictionary</li>
+ * </ul>
+ * Matching is not thread safe, as class loaders are matched only once per listing.
+ */
+final class ClassQuery {
+
+    enum Excluded {
+        ARRAY,
+        LAMBDA,
+        HIDDEN,
+        SYNTHETIC
+    }
+
+    private static final String LAMBDA_MARK = "$$Lambda";
+
+    /**
+     * By name, but arrays, lambdas and hidden classes last, as clients order them, so pages follow each other there too.
+     */
+    static final Comparator<Class<?>> ORDER = Comparator.comparingInt(ClassQuery::rank).thenComparing(Class::getName);
+
+    private Pattern nameFilter;
+    private String packagePrefix;
+    private String loaderSubstring;
+    private final Set<Excluded> excluded = EnumSet.noneOf(Excluded.class);
+    private int offset;
+    private int limit = -1;
+    private boolean details;
+    private boolean dictionary;
+    private final Map<ClassLoader, Boolean> matchingLoaders = new IdentityHashMap<>();
+
+    private ClassQuery() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if some option is unknown or its value is invalid
+     */
+    static ClassQuery parse(String line) {
+        ClassQuery query = new ClassQuery();
+        if (line == null || line.trim().isEmpty()) {
+            return query;
+        }
+        for (String option : line.trim().split("\\s+")) {
+            if (ClassDescriber.DICTIONARY_MODE.equals(option)) {
+                query.dictionary = true;
+                continue;
+            }
+            int delimiter = option.indexOf('=');
+            if (delimiter < 0) {
+                throw new IllegalArgumentException("Class query option " + option + " is not key=value.");
+            }
+            query.set(option.substring(0, delimiter), option.substring(delimiter + 1));
+        }
+        return query;
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case "regex":
+                nameFilter = Pattern.compile(value);
+                break;
+            case "package":
+                packagePrefix = value.endsWith(".") ? value : value + ".";
+                break;
+            case "loader":
+                loaderSubstring = value;
+                break;
+            case "exclude":
+                for (String kind : value.split(",")) {
+                    try {
+                        excluded.add(Excluded.valueOf(kind.toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException ex) {
+                        throw new IllegalArgumentException("Unknown excluded kind " + kind + ", use array, lambda, hidden or synthetic.");
+                    }
+                }
+                break;
+            case "offset":
+                offset = Math.max(0, Integer.parseInt(value));
+                break;
+            case "limit":
+                limit = Integer.parseInt(value);
+                break;
+            case "info":
+                details = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown class query option " + key + ".");
+        }
+    }
+
+    boolean matches(Class<?> clazz) {
+        String name = clazz.getName();
+        if (packagePrefix != null && !name.startsWith(packagePrefix)) {
+            return false;
+        }
+        if (isExcluded(clazz, name)) {
+            return false;
+        }
+        if (nameFilter != null && !nameFilter.matcher(name).matches()) {
+            return false;
+        }
+        return loaderSubstring == null ||
+                matchingLoaders.computeIfAbsent(clazz.getClassLoader(), l -> String.valueOf(l).contains(loaderSubstring));
+    }
+
+    private boolean isExcluded(Class<?> clazz, String name) {
+        for (Excluded kind : excluded) {
+            if (isOfKind(clazz, name, kind)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("ReturnCount") // returns in switch cases
+    private static boolean isOfKind(Class<?> clazz, String name, Excluded kind) {
+        switch (kind) {
+            case ARRAY:
+                return clazz.isArray();
+            case LAMBDA:
+                return name.contains(LAMBDA_MARK);
+            case HIDDEN:
+                return isHidden(name);
+            case SYNTHETIC:
+                return clazz.isSynthetic();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Hidden and VM anonymous classes, eg. lambda forms, have their address after slash in their names.
+     */
+    private static boolean isHidden(String name) {
+        return name.indexOf('/') >= 0;
+    }
+
+    private static int rank(Class<?> clazz) {
+        if (clazz.isArray()) {
+            return 3;
+        }
+        if (clazz.getName().contains(LAMBDA_MARK)) {
+            return 2;
+        }
+        return isHidden(clazz.getName()) ? 1 : 0;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return how many matching classes to list after the offset, negative for all of them
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    ClassDescriber createDescriber() {
+        return new ClassDescriber(details, dictionary);
+    }
+}
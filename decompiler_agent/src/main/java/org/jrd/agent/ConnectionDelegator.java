@@ -10,14 +10,17 @@ public final class ConnectionDelegator extends Thread {
     private static ConnectionDelegator connectionDelegator;
     public static final int DEFAULT_PORT = 5395;
     public static final String DEFAULT_ADDRESS = "localhost";
+    private static final String TOO_MANY_CONNECTIONS = "Agent is serving too many connections, try again later.";
 
     private ServerSocket theServerSocket;
     private InstrumentationProvider provider;
+    private final RequestExecutor executor;
     private static boolean running;
 
-    private ConnectionDelegator(InstrumentationProvider provider, ServerSocket serverSocket) {
+    private ConnectionDelegator(InstrumentationProvider provider, ServerSocket serverSocket, int maxConcurrency) {
         this.provider = provider;
         this.theServerSocket = serverSocket;
+        this.executor = new RequestExecutor(maxConcurrency);
         setDaemon(true);
     }
 
@@ -29,10 +32,11 @@ public final class ConnectionDelegator extends Thread {
      * @param port on which open socket
      * @param provider this is where instrumentation and transformer objects are
      * stored
+     * @param maxConcurrency how many commands working with classes may run at once
      *
      * @return boolean true if ran correctly, else false
      */
-    public static synchronized boolean initialize(String hostname, Integer port, InstrumentationProvider provider) {
+    public static synchronized boolean initialize(String hostname, Integer port, InstrumentationProvider provider, int maxConcurrency) {
         ServerSocket initServerSocket = null;
         try {
             if (port == null) {
@@ -48,19 +52,28 @@ public final class ConnectionDelegator extends Thread {
             return false;
         }
 
-        connectionDelegator = new ConnectionDelegator(provider, initServerSocket);
+        connectionDelegator = new ConnectionDelegator(provider, initServerSocket, maxConcurrency);
         connectionDelegator.start();
         return true;
     }
 
     /**
      * Waits for new connection.
-     * When client connects starts new worker thread and delegates connection to it
+     * When client connects, delegates connection to new worker served by the executor.
+     * If there are too many connections already, the client is told so and disconnected, or just disconnected
+     * when even such refusals pile up.
      */
     @Override
     public void run() {
         setRunning(true);
+        try {
+            acceptConnections();
+        } finally {
+            executor.shutdown();
+        }
+    }
 
+    private void acceptConnections() {
         while (running) {
             if (theServerSocket.isClosed()) {
                 return;
@@ -74,7 +87,11 @@ public final class ConnectionDelegator extends Thread {
                 }
                 return;
             }
-            new Thread(new AgentActionWorker(clientSocket, provider)).start();
+            final Socket connection = clientSocket;
+            if (!executor.serve(new AgentActionWorker(connection, provider, executor)) &&
+                    !executor.refuse(() -> AgentActionWorker.reject(connection, TOO_MANY_CONNECTIONS))) {
+                AgentActionWorker.drop(connection);
+            }
         }
 
         if (!theServerSocket.isClosed()) {
@@ -0,0 +1,213 @@
+package org.jrd.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional inverted index from constant pool UTF8 entries (strings, class, method and field names, descriptors...)
+ * to names of classes containing them, so repeated searches do not need to obtain every class body again.
+ * <p>
+ * It is off until enabled, then it is built by the first search and kept current from the observer hook of {@link Transformer},
+ * which reports newly loaded and redefined classes, and is registered only while the index is enabled.
+ * When its estimated size exceeds the limit, it drops itself.
+ * Unloaded classes are not removed, searches report only classes which are still loaded.
+ */
+class ConstantPoolIndex {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    // rough sizes of String with its array, of map entry with set, and of set entry
+    private static final int CONSTANT_OVERHEAD = 40 + 48 + 32;
+    private static final int REFERENCE_OVERHEAD = 32 + 8;
+    private static final long MB = 1024 * 1024;
+
+    private final Map<String, Set<String>> classesByConstant = new HashMap<>();
+    private final Map<String, String[]> constantsByClass = new HashMap<>();
+    private long estimatedBytes;
+    private long limitBytes = 64 * MB;
+    private volatile boolean enabled;
+    private volatile boolean built;
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    synchronized void setLimitMb(int limitMb) {
+        limitBytes = limitMb * MB;
+    }
+
+    synchronized void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Marks the index as complete, after the bodies of all loaded classes were added.
+     */
+    synchronized void markBuilt() {
+        built = enabled;
+    }
+
+    synchronized void drop() {
+        enabled = false;
+        built = false;
+        classesByConstant.clear();
+        constantsByClass.clear();
+        estimatedBytes = 0;
+    }
+
+    synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    synchronized String status() {
+        if (!enabled) {
+            return "disabled";
+        }
+        return (built ? "built" : "enabled, not yet built") + ", classes: " + constantsByClass.size() + ", constants: " +
+                classesByConstant.size() + ", memory: ~" + (estimatedBytes / MB) + " of " + (limitBytes / MB) + " MB";
+    }
+
+    /**
+     * Replaces the constants of the class by those in given body. Does nothing if the index is not enabled.
+     */
+    void update(String className, byte[] body) {
+        if (!enabled) {
+            return;
+        }
+        String[] constants;
+        try {
+            constants = readUtf8Constants(body);
+        } catch (IOException | RuntimeException ex) {
+            AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "Constant pool of " + className + " not indexed: " + ex);
+            return;
+        }
+        synchronized (this) {
+            if (!enabled) {
+                return;
+            }
+            remove(className);
+            constantsByClass.put(className, constants);
+            estimatedBytes = estimatedBytes + CONSTANT_OVERHEAD + REFERENCE_OVERHEAD * constants.length;
+            for (String constant : constants) {
+                Set<String> classes = classesByConstant.get(constant);
+                if (classes == null) {
+                    classes = new HashSet<>(2);
+                    classesByConstant.put(constant, classes);
+                    estimatedBytes = estimatedBytes + CONSTANT_OVERHEAD + 2L * constant.length();
+                }
+                classes.add(className);
+            }
+            if (estimatedBytes > limitBytes) {
+                AgentLogger.getLogger()
+                        .log(AgentLogger.Level.WARN, "Constant pool index exceeded " + (limitBytes / MB) + " MB, dropping it.");
+                drop();
+            }
+        }
+    }
+
+    private void remove(String className) {
+        String[] old = constantsByClass.remove(className);
+        if (old == null) {
+            return;
+        }
+        estimatedBytes = estimatedBytes - CONSTANT_OVERHEAD - REFERENCE_OVERHEAD * old.length;
+        for (String constant : old) {
+            Set<String> classes = classesByConstant.get(constant);
+            if (classes != null) {
+                classes.remove(className);
+                if (classes.isEmpty()) {
+                    classesByConstant.remove(constant);
+                    estimatedBytes = estimatedBytes - CONSTANT_OVERHEAD - 2L * constant.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return names of classes having a constant containing the substring
+     */
+    synchronized Set<String> search(String substring) {
+        Set<String> found = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : classesByConstant.entrySet()) {
+            if (entry.getKey().contains(substring)) {
+                found.addAll(entry.getValue());
+            }
+        }
+        return found;
+    }
+
+    @SuppressWarnings("CyclomaticComplexity") // one case per constant kind
+    static String[] readUtf8Constants(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        in.readInt(); // magic
+        in.readUnsignedShort(); // minor
+        in.readUnsignedShort(); // major
+        int count = in.readUnsignedShort();
+        List<String> constants = new ArrayList<>(count / 2);
+        int i = 1;
+        while (i < count) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    constants.add(in.readUTF()); // class files use the very same modified UTF-8
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.skipBytes(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    i++; // takes two slots
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+            i++;
+        }
+        return constants.toArray(new String[0]);
+    }
+}
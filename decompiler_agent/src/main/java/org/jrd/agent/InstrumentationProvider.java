@@ -6,11 +6,26 @@ import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -25,46 +40,133 @@ public class InstrumentationProvider {
 
     private final Transformer transformer;
     private final Instrumentation instrumentation;
-    private static final String INFO_DELIMITER = "|";
+    private final LoadedClassIndex classIndex;
+    private final ConstantPoolIndex constantPoolIndex = new ConstantPoolIndex();
+    private final RetransformLimiter limiter = new RetransformLimiter();
+    private final ClassListJournal classListJournal = new ClassListJournal();
+    private final ClassEventStream classEvents = new ClassEventStream();
+    private final ClassHashes classHashes = new ClassHashes();
+    private int activeHashings;
+    private static final int SEARCH_BATCH = 64;
+    private static final long SEARCH_THREAD_KEEP_ALIVE_S = 30;
+    private static final long EVENTS_HEARTBEAT_MS = 10000;
+    private static final long EVENTS_BATCH_MS = 100;
+    static final String EVENTS_HEARTBEAT = "HEARTBEAT";
+    private int searchThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+    private ExecutorService searchPool;
 
     InstrumentationProvider(Instrumentation inst, Transformer transformer) {
         this.transformer = transformer;
         this.instrumentation = inst;
+        this.classIndex = new LoadedClassIndex(inst);
+        transformer.setClassIndex(classIndex);
+        transformer.setConstantPoolIndex(constantPoolIndex);
+        transformer.setClassEventStream(classEvents);
+        transformer.setClassHashes(classHashes);
+        AgentMetrics.getMetrics().registerGauge("overrides.count", () -> transformer.getOverriddenFqns().size());
+        AgentMetrics.getMetrics().registerGauge("overrides.bytes", transformer::getOverridesSize);
+        AgentMetrics.getMetrics().registerGauge("cpIndex.bytes", constantPoolIndex::getEstimatedBytes);
+        AgentMetrics.getMetrics().registerGauge("retransformLimit.classesPerSecond", limiter::getMaxClassesPerSecond);
+        AgentMetrics.getMetrics().registerGauge("retransformLimit.msPerSecond", limiter::getMaxMillisPerSecond);
+        AgentMetrics.getMetrics().registerGauge("retransformLimit.inFlight", limiter::getMaxInFlight);
+        AgentMetrics.getMetrics().registerGauge("retransformLimit.throttledCalls", limiter::getThrottledCalls);
+        AgentMetrics.getMetrics().registerGauge("retransformLimit.throttledMs", limiter::getThrottledMillis);
+        AgentMetrics.getMetrics().registerGauge("events.subscriptions", classEvents::getSubscriptionsCount);
+        AgentMetrics.getMetrics().registerGauge("events.dropped", classEvents::getDroppedCount);
+        AgentMetrics.getMetrics().registerGauge("hashes.cached", classHashes::size);
+        AgentMetrics.getMetrics().registerGauge("transformers.registered", transformer::getRegisteredHooks);
+    }
+
+    /**
+     * All retransformations go through here, so their cost is measured and kept within the limiter's budget.
+     * Classes are retransformed in batches as large as the budget allows, so one call may cause more VM operations.
+     */
+    private void retransform(Class... classes) throws UnmodifiableClassException {
+        int batchSize = limiter.getBatchSize();
+        for (int from = 0; from < classes.length; from = from + batchSize) {
+            retransformBatch(Arrays.copyOfRange(classes, from, Math.min(classes.length, from + batchSize)));
+        }
+    }
+
+    /**
+     * Retransforms the classes by single call regardless of the limiter's batch size, for classes which must change together.
+     * The limiter admits such batch once nothing else is being retransformed.
+     */
+    private void retransformBatch(Class... batch) throws UnmodifiableClassException {
+        try {
+            limiter.acquire(batch.length);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for retransformation budget.", ex);
+        }
+        long start = System.nanoTime();
+        try {
+            instrumentation.retransformClasses(batch);
+        } finally {
+            long took = System.nanoTime() - start;
+            limiter.release(batch.length, took);
+            AgentMetrics.getMetrics().retransformed(batch.length, took);
+        }
+    }
 
+    RetransformLimiter getRetransformLimiter() {
+        return limiter;
     }
 
     public void setClassBody(String cname, byte[] nwBody) throws UnmodifiableClassException {
         Class clazz = findClass(cname);
-        transformer.allowToSaveBytecode();
+        transformer.setOverride(clazz.getName(), nwBody);
         try {
-            transformer.setOverride(clazz.getName(), nwBody);
-            try {
-                instrumentation.retransformClasses(clazz);
-            } catch (Throwable ex) {
-                transformer.removeOverride(clazz.getName());
-                throw ex;
+            retransform(clazz);
+        } catch (Throwable ex) {
+            transformer.removeOverride(clazz.getName());
+            throw ex;
+        }
+    }
+
+    /**
+     * Overrides all the classes by single retransformation, so the VM never runs some of them changed and others not.
+     * The JVM retransforms either all of them or none, so if it refuses any, all overrides are restored as they were.
+     *
+     * @param newBodies new bodies by class names
+     */
+    public void setClassBodies(Map<String, byte[]> newBodies) throws UnmodifiableClassException {
+        // all classes are found before anything changes
+        Map<Class, byte[]> bodies = new LinkedHashMap<>(newBodies.size());
+        for (Map.Entry<String, byte[]> newBody : newBodies.entrySet()) {
+            bodies.put(findClass(newBody.getKey()), newBody.getValue());
+        }
+        Map<String, byte[]> previous = new HashMap<>();
+        for (Map.Entry<Class, byte[]> body : bodies.entrySet()) {
+            previous.put(body.getKey().getName(), transformer.getOverride(body.getKey().getName()));
+            transformer.setOverride(body.getKey().getName(), body.getValue());
+        }
+        try {
+            retransformBatch(bodies.keySet().toArray(new Class[0]));
+        } catch (Throwable ex) {
+            for (Map.Entry<String, byte[]> override : previous.entrySet()) {
+                if (override.getValue() == null) {
+                    transformer.removeOverride(override.getKey());
+                } else {
+                    transformer.setOverride(override.getKey(), override.getValue());
+                }
             }
-        } finally {
-            transformer.denyToSaveBytecode();
-            transformer.resetLastValidResult();
+            throw ex;
         }
     }
 
     byte[] getClassBody(Class clazz) throws UnmodifiableClassException {
-        byte[] result;
-        transformer.allowToSaveBytecode();
+        Transformer.Capture capture = transformer.beginCapture(Collections.singletonList(clazz));
         try {
             try {
-                instrumentation.retransformClasses(clazz);
+                retransform(clazz);
             } catch (Throwable ex) {
                 transformer.removeOverride(clazz.getName());
             }
-            result = transformer.getResult(clazz.getName());
+            return capture.getBody(clazz);
         } finally {
-            transformer.denyToSaveBytecode();
-            transformer.resetLastValidResult();
+            transformer.endCapture();
         }
-        return result;
     }
 
     /**
@@ -80,74 +182,533 @@ public class InstrumentationProvider {
 
     }
 
-    private Class findClass(String className) {
-        Class[] classes = instrumentation.getAllLoadedClasses();
+    /**
+     * Obtains bodies of many classes by single retransformation, so all of them cost only one VM operation.
+     * Only if the JVM refuses the whole batch, classes are retransformed one by one, to find out which failed.
+     *
+     * @param classNames names of classes to get
+     * @param errors output map, where the description of problem is put for every class whose body was not obtained
+     * @return bodies of classes, in order of classNames
+     */
+    public Map<String, byte[]> findClassBodies(List<String> classNames, Map<String, String> errors) {
+        List<Class> classes = new ArrayList<>(classNames.size());
+        for (String className : classNames) {
+            Class clazz = classIndex.find(className);
+            if (clazz == null) {
+                errors.put(className, "Class " + className + " not found in loaded classes.");
+            } else if (!instrumentation.isModifiableClass(clazz)) {
+                errors.put(className, "Class " + className + " can not be retransformed.");
+            } else {
+                classes.add(clazz);
+            }
+        }
+        return getClassBodies(classes, errors);
+    }
+
+    private Map<String, byte[]> getClassBodies(List<Class> classes, Map<String, String> errors) {
+        Map<String, byte[]> bodies = new LinkedHashMap<>(classes.size());
+        Transformer.Capture capture = transformer.beginCapture(classes);
+        try {
+            try {
+                retransform(classes.toArray(new Class[0]));
+            } catch (Throwable ex) {
+                retransformOneByOne(classes, errors);
+            }
+            for (Class clazz : classes) {
+                byte[] body = capture.getBody(clazz);
+                if (body != null) {
+                    bodies.put(clazz.getName(), body);
+                } else if (!errors.containsKey(clazz.getName())) {
+                    errors.put(clazz.getName(), "Body of " + clazz.getName() + " was not captured.");
+                }
+            }
+        } finally {
+            transformer.endCapture();
+        }
+        return bodies;
+    }
+
+    private void retransformOneByOne(List<Class> classes, Map<String, String> errors) {
         for (Class clazz : classes) {
-            if (clazz.getName().equals(className)) {
-                return clazz;
+            try {
+                retransform(clazz);
+            } catch (Throwable ex) {
+                transformer.removeOverride(clazz.getName());
+                errors.put(clazz.getName(), ex.toString());
             }
         }
-        throw new RuntimeException("Class " + className + " not found in loaded classes.");
+    }
+
+    private Class findClass(String className) {
+        Class clazz = classIndex.find(className);
+        if (clazz == null) {
+            throw new RuntimeException("Class " + className + " not found in loaded classes.");
+        }
+        return clazz;
     }
 
     /**
      * Inserts names of classes into queue.
-     * Stops execution when it receives abort signal.
+     * Stops execution when it receives abort signal, or when the thread is interrupted.
      *
      * @param queue output queue
      * @param abort abort signal
      * @throws InterruptedException interrupted exception
      */
-    public void getClasses(BlockingQueue<String> queue, Boolean abort, boolean doGetInfo, Optional<ClassFilter> filter)
+    public void getClasses(BlockingQueue<String> queue, Boolean abort, ClassDescriber describer, Optional<ClassFilter> filter)
             throws InterruptedException {
         Class[] loadedClasses = instrumentation.getAllLoadedClasses();
+        classIndex.refresh(loadedClasses);
+        if (filter.isPresent() && filter.get().needsBody() && isConstantPoolIndexEnabled()) {
+            searchIndexedClasses(queue, abort, describer, filter.get(), loadedClasses);
+            return;
+        }
+        if (filter.isPresent() && filter.get().needsBody()) {
+            searchClasses(queue, abort, describer, filter.get(), loadedClasses);
+            return;
+        }
         for (Class loadedClass : loadedClasses) {
-            String className = loadedClass.getName();
-            boolean found = false;
-            if (filter.isPresent()) {
-                found = filter.get().match(this, loadedClass);
-            } else {
-                found = true;
-            }
-            if (found) {
-                if (doGetInfo) {
-                    String location;
-                    try {
-                        location = loadedClass.getProtectionDomain().getCodeSource().getLocation().getPath();
-                    } catch (Exception ex) {
-                        location = "unknown";
-                    }
+            if (!filter.isPresent() || filter.get().matchesName(loadedClass)) {
+                describer.put(queue, loadedClass);
+            }
+            if (abort || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Listing of classes aborted.");
+            }
+        }
+    }
+
+    /**
+     * Inserts "PAGE total" into the queue, where total is the number of classes matching the query,
+     * followed by the page of them, sorted so the pages of subsequent listings follow each other.
+     * Classes loaded or unloaded between the listings of pages may shift them.
+     */
+    void getClassesPage(BlockingQueue<String> queue, Boolean abort, ClassQuery query) throws InterruptedException {
+        Class[] loadedClasses = instrumentation.getAllLoadedClasses();
+        classIndex.refresh(loadedClasses);
+        List<Class<?>> matching = new ArrayList<>();
+        for (Class loadedClass : loadedClasses) {
+            if (query.matches(loadedClass)) {
+                matching.add(loadedClass);
+            }
+        }
+        matching.sort(ClassQuery.ORDER);
+        int from = Math.min(query.getOffset(), matching.size());
+        int to = query.getLimit() < 0 ? matching.size() : (int) Math.min(matching.size(), (long) from + query.getLimit());
+        queue.put("PAGE " + matching.size());
+        ClassDescriber describer = query.createDescriber();
+        for (Class<?> pageClass : matching.subList(from, to)) {
+            describer.put(queue, pageClass);
+            if (abort || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Listing of classes aborted.");
+            }
+        }
+    }
+
+    /**
+     * Inserts changes of loaded classes since the listing identified by the token into the queue.
+     * First item is "FULL token" followed by all loaded classes, if the token is unknown or too old.
+     * Otherwise it is "DELTA token" followed by "+class" for each loaded and "-class" for each unloaded class.
+     * Dictionary items of the describer follow the first item.
+     *
+     * @param token token of client's previous listing, or anything else to get full listing
+     */
+    public void getClassesSince(BlockingQueue<String> queue, Boolean abort, ClassDescriber describer, String token)
+            throws InterruptedException {
+        Class[] loadedClasses = instrumentation.getAllLoadedClasses();
+        classIndex.refresh(loadedClasses);
+        List<String> changes = classListJournal.since(token, loadedClasses, describer);
+        if (changes != null) {
+            queue.put("DELTA " + changes.get(0));
+            describer.flush(queue);
+            for (String change : changes.subList(1, changes.size())) {
+                queue.put(change);
+            }
+            return;
+        }
+        queue.put("FULL " + classListJournal.track(loadedClasses));
+        for (Class loadedClass : loadedClasses) {
+            describer.put(queue, loadedClass);
+            if (abort || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Listing of classes aborted.");
+            }
+        }
+    }
 
-                    String classLoader;
-                    try {
-                        classLoader = loadedClass.getClassLoader().toString();
-                    } catch (Exception ex) {
-                        classLoader = "unknown";
+    /**
+     * Bodies of classes with matching names are obtained in batches, each by single retransformation,
+     * and searched on the search pool while the next batch is being obtained.
+     * Search tasks only match bodies, matching classes are inserted into the queue by this thread,
+     * so the shared pool never waits for a slow or gone client. All the tasks are cancelled when the search ends.
+     */
+    private void searchClasses(
+            BlockingQueue<String> queue, Boolean abort, ClassDescriber describer, ClassFilter filter, Class[] loadedClasses
+    ) throws InterruptedException {
+        List<Class> candidates = new ArrayList<>();
+        for (Class loadedClass : loadedClasses) {
+            if (filter.matchesName(loadedClass) && instrumentation.isModifiableClass(loadedClass)) {
+                candidates.add(loadedClass);
+            }
+        }
+        ExecutorService pool = getSearchPool();
+        List<Future<Boolean>> submitted = new ArrayList<>(candidates.size());
+        Map<Class, Future<Boolean>> previousBatch = Collections.emptyMap();
+        try {
+            for (int from = 0; from < candidates.size(); from = from + SEARCH_BATCH) {
+                List<Class> batch = candidates.subList(from, Math.min(from + SEARCH_BATCH, candidates.size()));
+                Map<String, byte[]> bodies = getClassBodies(batch, new HashMap<>());
+                Map<Class, Future<Boolean>> currentBatch = new LinkedHashMap<>();
+                for (Class clazz : batch) {
+                    byte[] body = bodies.get(clazz.getName());
+                    if (body != null) {
+                        Future<Boolean> task = pool.submit(() -> filter.matchesBody(body));
+                        submitted.add(task);
+                        currentBatch.put(clazz, task);
                     }
+                }
+                putMatching(queue, describer, previousBatch);
+                previousBatch = currentBatch;
+                if (abort || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Search of classes aborted.");
+                }
+            }
+            putMatching(queue, describer, previousBatch);
+        } finally {
+            for (Future<Boolean> task : submitted) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private static void putMatching(BlockingQueue<String> queue, ClassDescriber describer, Map<Class, Future<Boolean>> tasks)
+            throws InterruptedException {
+        for (Map.Entry<Class, Future<Boolean>> task : tasks.entrySet()) {
+            try {
+                if (task.getValue().get()) {
+                    describer.put(queue, task.getKey());
+                }
+            } catch (ExecutionException ex) {
+                AgentLogger.getLogger().log(ex.getCause());
+            }
+        }
+    }
 
-                    queue.put(className + INFO_DELIMITER + location + INFO_DELIMITER + classLoader);
+    /**
+     * Inserts "name hash" for each class into the queue, or "name ERROR reason" if its body could not be obtained.
+     * Hash is hex of SHA-256 of the body as {@link #findClassBodies} returns it, so it can be compared with a build artifact.
+     * Only classes without cached hash are retransformed, in batches, each by single retransformation.
+     *
+     * @param classNames names of classes to hash, or null to hash all modifiable classes matching the filter
+     */
+    void getClassHashes(BlockingQueue<String> queue, Boolean abort, List<String> classNames, Pattern nameFilter)
+            throws InterruptedException {
+        List<Class> classes = selectClasses(queue, classNames, nameFilter, true);
+        setHashing(true);
+        try {
+            for (int from = 0; from < classes.size(); from = from + SEARCH_BATCH) {
+                hashClasses(queue, classes.subList(from, Math.min(from + SEARCH_BATCH, classes.size())));
+                if (abort || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Hashing of classes aborted.");
+                }
+            }
+        } finally {
+            setHashing(false);
+        }
+    }
+
+    /**
+     * Only the observer hook invalidates cached digests, so it is registered while any hashing runs.
+     * When the last one ends and nothing else observes, the hook is removed and the cache is cleared with it,
+     * so an idle agent keeps no hook for hashes.
+     */
+    private void setHashing(boolean hashing) {
+        synchronized (classHashes) {
+            activeHashings = activeHashings + (hashing ? 1 : -1);
+            transformer.setObserving(Transformer.Observer.HASHES, activeHashings > 0);
+        }
+    }
+
+    /**
+     * Inserts "name major minor" for each class into the queue, or "name ERROR reason" if its body could not be obtained.
+     * Bodies are obtained in batches, each by single retransformation, and only their headers are sent.
+     *
+     * @param classNames names of classes whose class file versions to get, or null for all modifiable classes matching the filter
+     */
+    void getClassVersions(BlockingQueue<String> queue, Boolean abort, List<String> classNames, Pattern nameFilter)
+            throws InterruptedException {
+        List<Class> classes = selectClasses(queue, classNames, nameFilter, true);
+        for (int from = 0; from < classes.size(); from = from + SEARCH_BATCH) {
+            List<Class> batch = classes.subList(from, Math.min(from + SEARCH_BATCH, classes.size()));
+            Map<String, String> errors = new HashMap<>();
+            Map<String, byte[]> bodies = getClassBodies(batch, errors);
+            for (Class clazz : batch) {
+                byte[] body = bodies.get(clazz.getName());
+                if (body == null || body.length < 8) {
+                    queue.put(clazz.getName() + " ERROR " + errors.getOrDefault(clazz.getName(), "Class file has no header."));
                 } else {
-                    queue.put(className);
+                    // u4 magic, u2 minor_version, u2 major_version
+                    int minor = ((body[4] & 0xff) << 8) | (body[5] & 0xff);
+                    int major = ((body[6] & 0xff) << 8) | (body[7] & 0xff);
+                    queue.put(clazz.getName() + " " + major + " " + minor);
                 }
             }
-            if (abort) {
+            if (abort || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Reading of class versions aborted.");
+            }
+        }
+    }
+
+    /**
+     * Inserts "name signature" for each non-private constructor and method of each class into the queue,
+     * or "name ERROR reason" if the class is not loaded or its members can not be resolved.
+     * Signatures are read by reflection, no class is retransformed.
+     *
+     * @param classNames names of classes whose members to get, or null for all loaded classes matching the filter
+     */
+    void getClassMethods(BlockingQueue<String> queue, Boolean abort, List<String> classNames, Pattern nameFilter)
+            throws InterruptedException {
+        for (Class clazz : selectClasses(queue, classNames, nameFilter, false)) {
+            List<String> signatures;
+            try {
+                signatures = MemberSignatures.of(clazz);
+            } catch (RuntimeException | LinkageError ex) {
+                queue.put(clazz.getName() + " ERROR " + ex);
+                continue;
+            }
+            for (String signature : signatures) {
+                queue.put(clazz.getName() + " " + signature);
+            }
+            if (abort || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Reading of class methods aborted.");
+            }
+        }
+    }
+
+    /**
+     * @param classNames names of classes to select, those not found or not modifiable are reported to the queue as errors
+     * @param nameFilter used only if there are no class names, to select all classes matching it
+     * @param modifiableOnly whether the classes will be retransformed, otherwise even classes which can not be are selected
+     */
+    private List<Class> selectClasses(BlockingQueue<String> queue, List<String> classNames, Pattern nameFilter, boolean modifiableOnly)
+            throws InterruptedException {
+        List<Class> classes = new ArrayList<>();
+        if (classNames != null) {
+            for (String className : classNames) {
+                Class clazz = classIndex.find(className);
+                if (clazz == null) {
+                    queue.put(className + " ERROR not found in loaded classes.");
+                } else if (modifiableOnly && !instrumentation.isModifiableClass(clazz)) {
+                    queue.put(className + " ERROR can not be retransformed.");
+                } else {
+                    classes.add(clazz);
+                }
+            }
+        } else {
+            Class[] loadedClasses = instrumentation.getAllLoadedClasses();
+            classIndex.refresh(loadedClasses);
+            for (Class loadedClass : loadedClasses) {
+                boolean selectable = !modifiableOnly || instrumentation.isModifiableClass(loadedClass);
+                if (selectable && nameFilter.matcher(loadedClass.getName()).matches()) {
+                    classes.add(loadedClass);
+                }
+            }
+        }
+        return classes;
+    }
+
+    private void hashClasses(BlockingQueue<String> queue, List<Class> batch) throws InterruptedException {
+        List<Class> missing = new ArrayList<>();
+        for (Class clazz : batch) {
+            String hash = classHashes.get(clazz);
+            if (hash == null) {
+                missing.add(clazz);
+            } else {
+                queue.put(clazz.getName() + " " + hash);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        long mark = classHashes.mark();
+        Map<String, String> errors = new HashMap<>();
+        Map<String, byte[]> bodies = getClassBodies(missing, errors);
+        for (Class clazz : missing) {
+            byte[] body = bodies.get(clazz.getName());
+            if (body == null) {
+                queue.put(clazz.getName() + " ERROR " + errors.get(clazz.getName()));
+            } else {
+                queue.put(clazz.getName() + " " + classHashes.put(clazz, body, mark));
+            }
+        }
+    }
+
+    /**
+     * Looks the substring up in constant pool index, building it first if needed.
+     * Unlike {@link #searchClasses}, it finds only classes with the substring in single constant pool entry.
+     */
+    private void searchIndexedClasses(
+            BlockingQueue<String> queue, Boolean abort, ClassDescriber describer, ClassFilter filter, Class[] loadedClasses
+    ) throws InterruptedException {
+        if (!constantPoolIndex.isBuilt()) {
+            buildConstantPoolIndex(abort, loadedClasses);
+        }
+        Set<String> found = constantPoolIndex.search(filter.getBodySubstring());
+        for (Class loadedClass : loadedClasses) {
+            if (found.contains(loadedClass.getName()) && filter.matchesName(loadedClass)) {
+                describer.put(queue, loadedClass);
+            }
+        }
+    }
+
+    private void buildConstantPoolIndex(Boolean abort, Class[] loadedClasses) throws InterruptedException {
+        List<Class> modifiable = new ArrayList<>();
+        for (Class loadedClass : loadedClasses) {
+            if (instrumentation.isModifiableClass(loadedClass)) {
+                modifiable.add(loadedClass);
+            }
+        }
+        for (int from = 0; from < modifiable.size(); from = from + SEARCH_BATCH) {
+            // transformer adds every retransformed class to the index
+            getClassBodies(modifiable.subList(from, Math.min(from + SEARCH_BATCH, modifiable.size())), new HashMap<>());
+            if (abort || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Building of constant pool index aborted.");
+            }
+        }
+        constantPoolIndex.markBuilt();
+    }
+
+    /**
+     * @param operation enable, drop or status
+     * @return status of the index after the operation
+     */
+    String constantPoolIndex(String operation) {
+        switch (operation) {
+            case "enable":
+                transformer.setObserving(Transformer.Observer.CONSTANT_POOL_INDEX, true);
+                constantPoolIndex.enable();
+                break;
+            case "drop":
+                constantPoolIndex.drop();
+                transformer.setObserving(Transformer.Observer.CONSTANT_POOL_INDEX, false);
                 break;
+            case "status":
+                isConstantPoolIndexEnabled();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown constant pool index operation " + operation + ", use enable, drop or status.");
+        }
+        return constantPoolIndex.status();
+    }
+
+    /**
+     * The index drops itself from the observer hook when it grows too large, so the hook is released here afterwards.
+     */
+    private boolean isConstantPoolIndexEnabled() {
+        boolean enabled = constantPoolIndex.isEnabled();
+        if (!enabled) {
+            transformer.setObserving(Transformer.Observer.CONSTANT_POOL_INDEX, false);
+        }
+        return enabled;
+    }
+
+    /**
+     * @param limitMb estimated memory, after which the constant pool index drops itself
+     */
+    void setConstantPoolIndexLimitMb(int limitMb) {
+        constantPoolIndex.setLimitMb(limitMb);
+    }
+
+    private synchronized ExecutorService getSearchPool() {
+        if (searchPool == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    searchThreads, searchThreads, SEARCH_THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "JRD search");
+                        t.setDaemon(true);
+                        return t;
+                    }
+            );
+            pool.allowCoreThreadTimeOut(true);
+            searchPool = pool;
+        }
+        return searchPool;
+    }
+
+    /**
+     * @param threads how many threads may search class bodies in parallel, eg. how many CPUs the agent may take
+     */
+    synchronized void setSearchThreads(int threads) {
+        searchThreads = Math.max(1, threads);
+        shutdownSearchPool();
+    }
+
+    private synchronized void shutdownSearchPool() {
+        if (searchPool != null) {
+            searchPool.shutdown();
+            searchPool = null;
+        }
+    }
+
+    /**
+     * @param kinds kinds of events to receive, all if empty
+     * @param capacity how many events may wait for the client, before the oldest is dropped
+     * @throws IllegalStateException if there are already too many subscriptions
+     */
+    ClassEventStream.Subscription subscribe(Set<ClassEventStream.Kind> kinds, int capacity) {
+        synchronized (classEvents) {
+            ClassEventStream.Subscription subscription = classEvents.subscribe(kinds, capacity);
+            transformer.setObserving(Transformer.Observer.EVENTS, true);
+            return subscription;
+        }
+    }
+
+    /**
+     * Cancels the subscription, the observer hook is removed with the last one. Cancelling it again does nothing.
+     */
+    void unsubscribe(ClassEventStream.Subscription subscription) {
+        synchronized (classEvents) {
+            subscription.cancel();
+            transformer.setObserving(Transformer.Observer.EVENTS, classEvents.getSubscriptionsCount() > 0);
+        }
+    }
+
+    /**
+     * Puts batches of events of the subscription into the queue, until the time runs out or the thread is interrupted,
+     * then cancels the subscription. Events coming shortly after each other are sent together, as bursts of loads are common.
+     *
+     * @param seconds how long to send events
+     */
+    void sendEvents(BlockingQueue<String> queue, ClassEventStream.Subscription subscription, int seconds)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                long wait = Math.min(EVENTS_HEARTBEAT_MS, deadline - System.currentTimeMillis());
+                if (!subscription.await(wait)) {
+                    if (wait == EVENTS_HEARTBEAT_MS) {
+                        // something must be written from time to time, to find out the client is gone
+                        queue.put(EVENTS_HEARTBEAT);
+                    }
+                    continue;
+                }
+                Thread.sleep(EVENTS_BATCH_MS);
+                for (String event : subscription.drain()) {
+                    queue.put(event);
+                }
             }
+        } finally {
+            unsubscribe(subscription);
         }
-        queue.put("---END---");
     }
 
     public void getOverrides(BlockingQueue<String> queue) throws InterruptedException {
         for (String override : transformer.getOverriddenFqns()) {
             queue.put(override);
         }
-        queue.put("---END---");
     }
 
     public int cleanOverrides(String pattern) {
         List<String> removed = transformer.cleanOverrides(Pattern.compile(pattern));
         try {
-            instrumentation.retransformClasses(removed.stream().map(this::findClass).toArray(Class[]::new));
+            retransform(removed.stream().map(this::findClass).toArray(Class[]::new));
         } catch (RuntimeException | UnmodifiableClassException e) {
             AgentLogger.getLogger().log(e);
         }
@@ -157,11 +718,12 @@ public class InstrumentationProvider {
 
     public void detach() {
         cleanOverrides(".*"); //optional?
-        instrumentation.removeTransformer(transformer);
+        shutdownSearchPool();
+        transformer.removeAll();
         Main.setFirstTime(true);
         int loader = Integer.parseInt(System.getProperty(Main.JRD_AGENT_LOADED, "0")) - 1;
         System.setProperty(Main.JRD_AGENT_LOADED, String.valueOf(loader));
-        AgentLogger.getLogger().log("done");
+        AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "done");
     }
 
     /**
@@ -185,40 +747,104 @@ public class InstrumentationProvider {
         Class.forName(className);
     }
 
-    public void addJar(String jarOrigName, byte[] decoded) throws IOException {
-        File tmp = File.createTempFile("jrdagent", ".jar");
-        Files.write(tmp.toPath(), decoded);
-        tmp.deleteOnExit();
-        AgentLogger.getLogger().log("Jrd agent added client's " + jarOrigName + " as " + tmp.getAbsolutePath());
+    /**
+     * Adds the jar to the bootstrap class path (name prefixed by BOOT/) or to the system one, and initializes its classes.
+     *
+     * @param jar the jar, already stored in a temporary file
+     * @param init which classes to initialize: ALL (the default, if null), optionally followed by number of threads to do it
+     *             in parallel (bounded by the search threads), NONE, or ONLY followed by space separated class names
+     */
+    public void addJar(String jarOrigName, File jar, String init) throws IOException, InterruptedException {
+        String[] words = init == null || init.trim().isEmpty() ? new String[]{"ALL"} : init.trim().split("\\s+");
+        int threads = 1;
+        switch (words[0]) {
+            case "ALL":
+                threads = words.length > 1 ? Integer.parseInt(words[1]) : 1;
+                break;
+            case "NONE":
+            case "ONLY":
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown init of added jar " + init + ", use ALL [threads], NONE or ONLY <class names>."
+                );
+        }
+        AgentLogger.getLogger().log("Jrd agent added client's " + jarOrigName + " as " + jar.getAbsolutePath());
+        // the same jar file is listed here and kept open by the class path it is appended to
+        JarFile jf = new JarFile(jar);
+        List<String> classes = new ArrayList<>();
+        int skipped = 0;
+        for (Enumeration<JarEntry> list = jf.entries(); list.hasMoreElements();) {
+            ZipEntry entry = list.nextElement();
+            if (entry.getName().endsWith(".class") && !entry.getName().endsWith("/module-info.class") &&
+                    !"module-info.class".equals(entry.getName())) {
+                classes.add(entry.getName().replace('/', '.').replaceAll("\\.class$", ""));
+            } else {
+                skipped++;
+            }
+        }
         if (jarOrigName.startsWith("BOOT/")) {
-            instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(tmp));
+            instrumentation.appendToBootstrapClassLoaderSearch(jf);
         } else {
-            instrumentation.appendToSystemClassLoaderSearch(new JarFile(tmp));
+            instrumentation.appendToSystemClassLoaderSearch(jf);
         }
-        JarFile jf = new JarFile(tmp);
-        int loaded = 0;
-        int skipped = 0;
-        int failed = 0;
+        List<String> toInit;
+        if ("NONE".equals(words[0])) {
+            toInit = Collections.emptyList();
+        } else if ("ONLY".equals(words[0])) {
+            toInit = Arrays.asList(words).subList(1, words.length);
+        } else {
+            toInit = classes;
+        }
+        int failed = initClasses(toInit, threads);
+        AgentLogger.getLogger().log(
+                "total classes: " + classes.size() + ", initialized: " + (toInit.size() - failed) + ", skipped: " + skipped +
+                        ", failed to initialize: " + failed
+        );
+    }
+
+    /**
+     * Class initialization runs static initializers of the target application,
+     * so it is parallel only if asked for, and never on more threads than the search may take.
+     *
+     * @return how many classes failed to initialize
+     */
+    private int initClasses(List<String> classes, int threads) throws InterruptedException {
+        AtomicInteger failed = new AtomicInteger();
+        int bound;
+        synchronized (this) {
+            bound = searchThreads;
+        }
+        int parallelism = Math.min(classes.size(), Math.min(threads, bound));
+        if (parallelism <= 1) {
+            for (String clazz : classes) {
+                initClass(clazz, failed);
+            }
+            return failed.get();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "JRD init");
+            t.setDaemon(true);
+            return t;
+        });
         try {
-            for (Enumeration list = jf.entries(); list.hasMoreElements();) {
-                ZipEntry entry = (ZipEntry) list.nextElement();
-                if (entry.getName().endsWith(".class") && !entry.getName().endsWith("/module-info.class") &&
-                        !"module-info.class".equals(entry.getName())) {
-                    String clazz = entry.getName().replace('/', '.').replaceAll("\\.class$", "");
-                    try {
-                        Class.forName(clazz); //throws error
-                        loaded++;
-                    } catch (Throwable ex) {
-                        AgentLogger.getLogger().log("Failed to load: " + clazz + " - " + ex.getMessage());
-                        failed++;
-                    }
-                } else {
-                    skipped++;
-                }
+            for (String clazz : classes) {
+                pool.execute(() -> initClass(clazz, failed));
             }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         } finally {
-            jf.close();
+            pool.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    private static void initClass(String clazz, AtomicInteger failed) {
+        try {
+            Class.forName(clazz); //throws error
+        } catch (Throwable ex) {
+            AgentLogger.getLogger().log(AgentLogger.Level.WARN, "Failed to load: " + clazz + " - " + ex.getMessage());
+            failed.incrementAndGet();
         }
-        AgentLogger.getLogger().log("total classes loaded: " + loaded + "; skipped: " + skipped + "; failed to load:" + failed);
     }
 }
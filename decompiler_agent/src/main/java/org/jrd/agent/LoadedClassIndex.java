@@ -0,0 +1,160 @@
+package org.jrd.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of loaded classes by their names, so lookup of single class does not need to walk all loaded classes.
+ * Classes are only weakly referenced, so the index does not prevent their unloading.
+ * <p>
+ * The index is filled from complete lists of loaded classes which listings obtain anyway, and by classes found on misses.
+ * Classes loaded later are only noted by name and class loader from {@link Transformer}, and are resolved on first lookup.
+ * That happens only while its observer hook is registered for other reasons, the index does not keep it registered.
+ * Anything else, eg. classes loaded while the hook was not registered, or hidden classes which never pass through transformers,
+ * is found by walking {@link Instrumentation#getAllLoadedClasses()} once for the missed name, as every lookup used to.
+ * Names not found by such walk are remembered for a moment, so repeated lookups of classes which are not loaded
+ * do not walk all loaded classes again and again.
+ */
+class LoadedClassIndex {
+
+    /**
+     * When more classes were loaded and never looked up, they are forgotten and found by walking all classes if looked up.
+     */
+    private static final int MAX_RECENTLY_LOADED = 10000;
+    /**
+     * When more names were missed, they are forgotten and the next lookup of any of them walks all classes again.
+     */
+    private static final int MAX_MISSED = 1000;
+    /**
+     * How long a name stays missed. Loads are not noted while the observer hook is not registered,
+     * so a class loaded meanwhile may be reported as not loaded for this long.
+     */
+    private static final long MISSED_NANOS = 1_000_000_000L;
+    private static final WeakReference<ClassLoader> BOOTSTRAP_LOADER = new WeakReference<>(null);
+
+    private final Instrumentation instrumentation;
+    private final Map<String, WeakReference<ClassLoader>> recentlyLoaded = new ConcurrentHashMap<>();
+    private final Map<String, Long> missed = new ConcurrentHashMap<>();
+    private volatile Map<String, List<WeakReference<Class<?>>>> classes = new ConcurrentHashMap<>();
+
+    LoadedClassIndex(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Called from the class load hook, so must be cheap.
+     *
+     * @param name dot separated name of class being loaded
+     * @param loader its defining loader, null for bootstrap
+     */
+    void loaded(String name, ClassLoader loader) {
+        if (recentlyLoaded.size() >= MAX_RECENTLY_LOADED) {
+            recentlyLoaded.clear();
+        }
+        recentlyLoaded.put(name, loader == null ? BOOTSTRAP_LOADER : new WeakReference<>(loader));
+        missed.remove(name);
+    }
+
+    /**
+     * @param name fully qualified name of the class
+     * @return loaded class of given name, or null if there is none.
+     * If more classloaders loaded class of such name, any of them is returned.
+     */
+    Class<?> find(String name) {
+        Map<String, List<WeakReference<Class<?>>>> current = classes;
+        Class<?> found = resolveRecentlyLoaded(current, name);
+        if (found == null) {
+            found = lookup(current, name);
+        }
+        if (found == null && !isMissed(name)) {
+            found = scan(current, name);
+        }
+        return found;
+    }
+
+    /**
+     * Replaces the index by the given complete list of loaded classes, eg. when it was obtained anyway.
+     */
+    void refresh(Class<?>[] loadedClasses) {
+        Map<String, List<WeakReference<Class<?>>>> nw = new ConcurrentHashMap<>(loadedClasses.length * 2);
+        for (Class<?> clazz : loadedClasses) {
+            add(nw, clazz);
+        }
+        classes = nw;
+        missed.clear();
+    }
+
+    private boolean isMissed(String name) {
+        Long since = missed.get(name);
+        if (since == null) {
+            return false;
+        }
+        if (System.nanoTime() - since < MISSED_NANOS) {
+            return true;
+        }
+        missed.remove(name, since);
+        return false;
+    }
+
+    private Class<?> scan(Map<String, List<WeakReference<Class<?>>>> current, String name) {
+        long start = System.nanoTime();
+        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            if (clazz.getName().equals(name)) {
+                add(current, clazz);
+                return clazz;
+            }
+        }
+        if (missed.size() >= MAX_MISSED) {
+            missed.clear();
+        }
+        missed.put(name, start);
+        return null;
+    }
+
+    private Class<?> resolveRecentlyLoaded(Map<String, List<WeakReference<Class<?>>>> current, String name) {
+        WeakReference<ClassLoader> loaderRef = recentlyLoaded.remove(name);
+        if (loaderRef == null) {
+            return null;
+        }
+        ClassLoader loader = loaderRef.get();
+        if (loader == null && loaderRef != BOOTSTRAP_LOADER) {
+            return null;
+        }
+        try {
+            // the class is already defined by this loader, so this neither loads nor initializes anything
+            Class<?> clazz = Class.forName(name, false, loader);
+            add(current, clazz);
+            return clazz;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    private static Class<?> lookup(Map<String, List<WeakReference<Class<?>>>> current, String name) {
+        List<WeakReference<Class<?>>> candidates = current.get(name);
+        if (candidates == null) {
+            return null;
+        }
+        synchronized (candidates) {
+            for (WeakReference<Class<?>> candidate : candidates) {
+                Class<?> clazz = candidate.get();
+                if (clazz != null) {
+                    return clazz;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void add(Map<String, List<WeakReference<Class<?>>>> target, Class<?> clazz) {
+        List<WeakReference<Class<?>>> sameName = target.computeIfAbsent(clazz.getName(), k -> new ArrayList<>(1));
+        synchronized (sameName) {
+            sameName.removeIf(ref -> ref.get() == null || ref.get() == clazz);
+            sameName.add(new WeakReference<>(clazz));
+        }
+    }
+}
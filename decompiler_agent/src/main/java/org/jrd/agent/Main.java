@@ -1,5 +1,6 @@
 package org.jrd.agent;
 
+import org.jrd.agent.api.Metrics;
 import org.jrd.agent.api.UnsafeVariables;
 import org.jrd.agent.api.Variables;
 
@@ -18,8 +19,16 @@ public final class Main {
 
     private static final String ADDRESS_STRING = "address:";
     private static final String PORT_STRING = "port:";
+    private static final String SEARCH_THREADS_STRING = "searchThreads:";
+    private static final String CP_INDEX_LIMIT_STRING = "cpIndexLimitMB:";
+    private static final String MAX_CONCURRENCY_STRING = "maxConcurrency:";
+    private static final String RETRANSFORM_RATE_STRING = "maxRetransformsPerSecond:";
+    private static final String RETRANSFORM_TIME_STRING = "maxRetransformMsPerSecond:";
+    private static final String RETRANSFORM_IN_FLIGHT_STRING = "maxRetransformsInFlight:";
+    private static final String LOG_TO_STDERR_STRING = "logToStderr:";
     private static String hostname;
     private static Integer port;
+    private static int maxConcurrency = RequestExecutor.DEFAULT_MAX_CONCURRENCY;
     private static boolean firstTime = true;
 
     static String getHostname() {
@@ -34,8 +43,10 @@ public final class Main {
     }
 
     /**
-     * Premain method is executed when the agent is loaded. It sets the port and
-     * host name from agentArgs and starts the listener thread.
+     * Premain method is executed when the agent is loaded. It sets the port,
+     * host name, number of concurrently served commands, budget of class retransformations, number of threads
+     * searching class bodies, memory limit of constant pool index and level of logging to System.err (ERROR, WARN, INFO, DEBUG
+     * or OFF) from agentArgs and starts the listener thread.
      *
      * @param agentArgs arguments with parameters for listener
      * @param inst      instance of instrumentation of given VM
@@ -52,8 +63,9 @@ public final class Main {
         System.setProperty(JRD_AGENT_LOADED, String.valueOf(Integer.parseInt(System.getProperty(JRD_AGENT_LOADED, "0")) + 1));
         Variables.init();
         UnsafeVariables.init();
-        Transformer transformer = new Transformer();
-        inst.addTransformer(transformer, true);
+        Metrics.init();
+        // hooks of the transformer are registered only while they are needed
+        Transformer transformer = new Transformer(inst);
         InstrumentationProvider p = AccessController.doPrivileged(new PrivilegedAction<InstrumentationProvider>() {
             @Override
             public InstrumentationProvider run() {
@@ -78,10 +90,35 @@ public final class Main {
                     } catch (Exception e) {
                         AgentLogger.getLogger().log(new RuntimeException("The port value is invalid: " + arg + " . Exception: ", e));
                     }
+                } else {
+                    setTuningOption(arg, p);
                 }
             }
         }
-        ConnectionDelegator.initialize(hostname, port, p);
+        ConnectionDelegator.initialize(hostname, port, p, maxConcurrency);
+    }
+
+    private static void setTuningOption(String arg, InstrumentationProvider p) {
+        try {
+            if (arg.startsWith(SEARCH_THREADS_STRING)) {
+                p.setSearchThreads(Integer.parseInt(arg.substring(SEARCH_THREADS_STRING.length())));
+            } else if (arg.startsWith(MAX_CONCURRENCY_STRING)) {
+                maxConcurrency = Integer.parseInt(arg.substring(MAX_CONCURRENCY_STRING.length()));
+            } else if (arg.startsWith(RETRANSFORM_RATE_STRING)) {
+                p.getRetransformLimiter().setMaxClassesPerSecond(Integer.parseInt(arg.substring(RETRANSFORM_RATE_STRING.length())));
+            } else if (arg.startsWith(RETRANSFORM_TIME_STRING)) {
+                p.getRetransformLimiter().setMaxMillisPerSecond(Integer.parseInt(arg.substring(RETRANSFORM_TIME_STRING.length())));
+            } else if (arg.startsWith(RETRANSFORM_IN_FLIGHT_STRING)) {
+                p.getRetransformLimiter().setMaxInFlight(Integer.parseInt(arg.substring(RETRANSFORM_IN_FLIGHT_STRING.length())));
+            } else if (arg.startsWith(CP_INDEX_LIMIT_STRING)) {
+                p.setConstantPoolIndexLimitMb(Integer.parseInt(arg.substring(CP_INDEX_LIMIT_STRING.length())));
+            } else if (arg.startsWith(LOG_TO_STDERR_STRING)) {
+                String level = arg.substring(LOG_TO_STDERR_STRING.length());
+                AgentLogger.getLogger().setStderrLevel("OFF".equals(level) ? null : AgentLogger.Level.valueOf(level));
+            }
+        } catch (IllegalArgumentException e) {
+            AgentLogger.getLogger().log(new RuntimeException("The value is invalid: " + arg, e));
+        }
     }
 
     /**
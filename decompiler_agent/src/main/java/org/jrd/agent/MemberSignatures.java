@@ -0,0 +1,120 @@
+package org.jrd.agent;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signatures of constructors and methods of a loaded class, read from its metadata by reflection,
+ * so clients completing code do not need to obtain and disassemble its body.
+ * <p>
+ * They are formatted as javap prints them without -p and without the trailing semicolon:
+ * private and synthetic members are left out, and types are generic where the class file says so.
+ */
+final class MemberSignatures {
+
+    private MemberSignatures() {
+    }
+
+    /**
+     * Reflection may load classes used in the signatures, but never initializes anything.
+     *
+     * @throws LinkageError if some class used by the members can not be loaded
+     */
+    static List<String> of(Class<?> clazz) {
+        List<String> signatures = new ArrayList<>();
+        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            if (isListed(constructor)) {
+                signatures.add(describe(constructor));
+            }
+        }
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (isListed(method)) {
+                signatures.add(describe(method));
+            }
+        }
+        return signatures;
+    }
+
+    private static boolean isListed(Executable member) {
+        return !member.isSynthetic() && !Modifier.isPrivate(member.getModifiers());
+    }
+
+    private static String describe(Executable member) {
+        try {
+            return describe(member, true);
+        } catch (RuntimeException | LinkageError ex) {
+            // malformed or unresolvable generic signature, the erased one is always there
+            return describe(member, false);
+        }
+    }
+
+    private static String describe(Executable member, boolean generic) {
+        StringBuilder sb = new StringBuilder();
+        boolean isMethod = member instanceof Method;
+        int modifiers = member.getModifiers() & (isMethod ? Modifier.methodModifiers() : Modifier.constructorModifiers());
+        append(sb, Modifier.toString(modifiers));
+        if (isMethod && ((Method) member).isDefault()) {
+            append(sb, "default");
+        }
+        if (generic && member.getTypeParameters().length > 0) {
+            append(sb, describeTypeParameters(member.getTypeParameters()));
+        }
+        if (isMethod) {
+            Method method = (Method) member;
+            append(sb, generic ? method.getGenericReturnType().getTypeName() : method.getReturnType().getTypeName());
+            append(sb, method.getName());
+        } else {
+            append(sb, member.getDeclaringClass().getName());
+        }
+        appendParameters(sb, member, generic);
+        Type[] exceptions = generic ? member.getGenericExceptionTypes() : member.getExceptionTypes();
+        for (int i = 0; i < exceptions.length; i++) {
+            sb.append(i == 0 ? " throws " : ", ").append(exceptions[i].getTypeName());
+        }
+        return sb.toString();
+    }
+
+    private static void appendParameters(StringBuilder sb, Executable member, boolean generic) {
+        Type[] parameters = generic ? member.getGenericParameterTypes() : member.getParameterTypes();
+        sb.append('(');
+        for (int i = 0; i < parameters.length; i++) {
+            String parameter = parameters[i].getTypeName();
+            if (member.isVarArgs() && i == parameters.length - 1 && parameter.endsWith("[]")) {
+                parameter = parameter.substring(0, parameter.length() - 2) + "...";
+            }
+            sb.append(i == 0 ? "" : ", ").append(parameter);
+        }
+        sb.append(')');
+    }
+
+    private static String describeTypeParameters(TypeVariable<?>[] typeParameters) {
+        StringBuilder sb = new StringBuilder("<");
+        for (int i = 0; i < typeParameters.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(typeParameters[i].getName());
+            Type[] bounds = typeParameters[i].getBounds();
+            if (bounds.length == 1 && bounds[0] == Object.class) {
+                continue;
+            }
+            for (int j = 0; j < bounds.length; j++) {
+                sb.append(j == 0 ? " extends " : " & ").append(bounds[j].getTypeName());
+            }
+        }
+        return sb.append('>').toString();
+    }
+
+    private static void append(StringBuilder sb, String word) {
+        if (word.isEmpty()) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(' ');
+        }
+        sb.append(word);
+    }
+}
@@ -2,6 +2,5 @@ package org.jrd.agent;
 
 public enum ReceivedType {
     OVERWRITE_CLASS,
-    ADD_CLASS,
-    ADD_JAR
+    ADD_CLASS
 }
@@ -0,0 +1,133 @@
+package org.jrd.agent;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds threads the agent takes in the target VM, and keeps control commands responsive.
+ * <p>
+ * Each connection is served by a thread of a bounded pool. Control commands are executed directly by it,
+ * so they never wait behind anything. All other commands walk or retransform classes and are executed
+ * by the work lane of limited concurrency and queue; when it is full, the command is rejected instead of waiting.
+ * Connections over the limit are refused by a thread of their own, so a burst of them never stalls accepting.
+ */
+final class RequestExecutor {
+
+    static final int DEFAULT_MAX_CONCURRENCY = 2;
+    private static final int MAX_CONNECTIONS = 32;
+    private static final long THREAD_KEEP_ALIVE_S = 30;
+    /**
+     * CLASS_EVENTS only waits for events for its whole window, it would block the work lane.
+     */
+    private static final Set<String> FAST_COMMANDS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("HELLO", "VERSION", "HALT", "OVERRIDES", "CP_INDEX", "METRICS", "CLASS_EVENTS", "COMPRESS", "LOGS"))
+    );
+
+    interface Command {
+        void execute() throws IOException;
+    }
+
+    private final ThreadPoolExecutor connections;
+    private final ThreadPoolExecutor work;
+    private final ThreadPoolExecutor refusals;
+
+    /**
+     * @param maxConcurrency how many slow commands may run at once, the same number of them may wait in queue
+     */
+    RequestExecutor(int maxConcurrency) {
+        int concurrency = Math.max(1, maxConcurrency);
+        this.connections = new ThreadPoolExecutor(
+                0, MAX_CONNECTIONS, THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new SynchronousQueue<>(), daemonThreads("JRD connection")
+        );
+        this.work = new ThreadPoolExecutor(
+                concurrency, concurrency, THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new ArrayBlockingQueue<>(concurrency),
+                daemonThreads("JRD worker")
+        );
+        this.work.allowCoreThreadTimeOut(true);
+        this.refusals = new ThreadPoolExecutor(
+                1, 1, THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_CONNECTIONS), daemonThreads("JRD refusal")
+        );
+        this.refusals.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + " " + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * @return false if there are already too many connections being served
+     */
+    boolean serve(AgentActionWorker worker) {
+        try {
+            connections.execute(worker);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Refusal reads the command of the client first, so it is sent by the refusal thread, never by the accepting one.
+     *
+     * @return false if there are already too many refusals waiting, the connection should be just closed
+     */
+    boolean refuse(Runnable refusal) {
+        try {
+            refusals.execute(refusal);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Executes the command in its lane and waits for it.
+     *
+     * @throws RejectedExecutionException if the work lane is full, the command was not executed at all
+     */
+    void execute(String name, Command command) throws IOException {
+        if (FAST_COMMANDS.contains(name)) {
+            command.execute();
+            return;
+        }
+        Future<?> task = work.submit(() -> {
+            command.execute();
+            return null;
+        });
+        try {
+            task.get();
+        } catch (InterruptedException ex) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while executing " + name, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Failed to execute " + name, ex.getCause());
+        }
+    }
+
+    void shutdown() {
+        connections.shutdown();
+        work.shutdown();
+        refusals.shutdown();
+    }
+}
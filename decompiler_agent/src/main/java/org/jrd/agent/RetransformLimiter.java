@@ -0,0 +1,117 @@
+package org.jrd.agent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Budget of class retransformations, so obtaining many class bodies can not stall the target VM.
+ * Every retransformation runs all registered transformers (including other agents) and needs a safepoint.
+ * <p>
+ * The budget is given by classes retransformed per second, time spent retransforming per second,
+ * and classes being retransformed at once. Zero means unlimited, which is the default for all of them.
+ * Retransformations exceeding the budget wait for the next one-second window, or for others to finish.
+ */
+final class RetransformLimiter {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private int maxClassesPerSecond;
+    private long maxNanosPerSecond;
+    private int maxInFlight;
+
+    private long windowStart = System.nanoTime();
+    private int windowClasses;
+    private long windowNanos;
+    private int inFlight;
+
+    private final LongAdder throttledCalls = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    synchronized void setMaxClassesPerSecond(int classes) {
+        maxClassesPerSecond = Math.max(0, classes);
+    }
+
+    synchronized void setMaxMillisPerSecond(int millis) {
+        maxNanosPerSecond = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    synchronized void setMaxInFlight(int classes) {
+        maxInFlight = Math.max(0, classes);
+    }
+
+    synchronized int getMaxClassesPerSecond() {
+        return maxClassesPerSecond;
+    }
+
+    synchronized long getMaxMillisPerSecond() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanosPerSecond);
+    }
+
+    synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    long getThrottledCalls() {
+        return throttledCalls.sum();
+    }
+
+    long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    /**
+     * @return how many classes may be retransformed by one call, larger batches have to be split
+     */
+    synchronized int getBatchSize() {
+        int size = Integer.MAX_VALUE;
+        if (maxInFlight > 0) {
+            size = maxInFlight;
+        }
+        if (maxClassesPerSecond > 0) {
+            size = Math.min(size, maxClassesPerSecond);
+        }
+        return size;
+    }
+
+    /**
+     * Waits until retransformation of given number of classes fits into the budget, and takes it from the budget.
+     */
+    synchronized void acquire(int classes) throws InterruptedException {
+        long waitingSince = System.nanoTime();
+        boolean throttled = false;
+        while (!fits(classes)) {
+            throttled = true;
+            long untilNextWindow = windowStart + WINDOW_NANOS - System.nanoTime();
+            wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(untilNextWindow)));
+        }
+        if (throttled) {
+            throttledCalls.increment();
+            throttledNanos.add(System.nanoTime() - waitingSince);
+        }
+        inFlight = inFlight + classes;
+        windowClasses = windowClasses + classes;
+    }
+
+    /**
+     * Returns the classes to the budget of concurrent retransformations, and accounts the time they took.
+     */
+    synchronized void release(int classes, long nanos) {
+        inFlight = inFlight - classes;
+        windowNanos = windowNanos + nanos;
+        notifyAll();
+    }
+
+    private boolean fits(int classes) {
+        long now = System.nanoTime();
+        if (now - windowStart >= WINDOW_NANOS) {
+            windowStart = now;
+            windowClasses = 0;
+            windowNanos = 0;
+        }
+        // an empty window or idle VM takes anything, otherwise batches larger than the limits would wait forever
+        boolean inFlightFits = maxInFlight == 0 || inFlight == 0 || inFlight + classes <= maxInFlight;
+        boolean rateFits = maxClassesPerSecond == 0 || windowClasses == 0 || windowClasses + classes <= maxClassesPerSecond;
+        boolean timeFits = maxNanosPerSecond == 0 || windowNanos < maxNanosPerSecond;
+        return inFlightFits && rateFits && timeFits;
+    }
+}
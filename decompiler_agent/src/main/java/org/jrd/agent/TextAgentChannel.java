@@ -0,0 +1,152 @@
+package org.jrd.agent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The original, line oriented protocol. Binary data are sent as Base64 lines.
+ * End of reply is marked only by closing of the socket.
+ */
+class TextAgentChannel implements AgentChannel {
+
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private final BufferedReader in;
+    private final BufferedWriter out;
+    private String firstLine;
+
+    TextAgentChannel(InputStream is, OutputStream os, String firstLine) {
+        this.in = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        this.firstLine = firstLine;
+    }
+
+    @Override
+    public String readCommand() throws IOException {
+        if (firstLine != null) {
+            String line = firstLine;
+            firstLine = null;
+            return line;
+        }
+        return in.readLine();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    @Override
+    public byte[] readBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (readBytesTo(bytes) < 0) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The Base64 line is decoded as it is read, so neither it nor the decoded bytes are ever whole in memory.
+     */
+    @Override
+    public long readBytesTo(OutputStream target) throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            return -1;
+        }
+        in.reset();
+        long copied = 0;
+        byte[] buffer = new byte[COPY_BUFFER];
+        try (InputStream decoded = Base64.getDecoder().wrap(new LineInputStream())) {
+            for (int read = decoded.read(buffer); read >= 0; read = decoded.read(buffer)) {
+                target.write(buffer, 0, read);
+                copied = copied + read;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Rest of current line, Base64 is plain ASCII. Ends by any of the line terminators {@link BufferedReader#readLine()} knows.
+     */
+    private final class LineInputStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int c = in.read();
+            if (c == '\r') {
+                in.mark(1);
+                if (in.read() != '\n') {
+                    in.reset();
+                }
+            }
+            if (c < 0 || c == '\r' || c == '\n') {
+                ended = true;
+                return -1;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = 0;
+            while (read < len) {
+                int c = read();
+                if (c < 0) {
+                    return read == 0 ? -1 : read;
+                }
+                b[off + read] = (byte) c;
+                read++;
+            }
+            return read;
+        }
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException {
+        out.write(line);
+        out.newLine();
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeLine(Base64.getEncoder().encodeToString(bytes));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void endResponse() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public boolean isSession() {
+        return false;
+    }
+
+    @Override
+    public boolean compress(int threshold) {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        //nothing to release
+    }
+}
@@ -2,86 +2,331 @@ package org.jrd.agent;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
+import java.lang.instrument.Instrumentation;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
  * This class represent our transformer for retrieving bytecode.
+ * <p>
+ * It is not a single permanently registered transformer, as that would be called on every class load and retransformation
+ * of the target VM even when nobody uses the agent. Instead it registers separate hooks, each only while it is needed:
+ * the capture hook during capture of bodies, the override hook while any override is set, and the observer hook
+ * while somebody needs to know about loaded and redefined classes (see {@link Observer}).
+ * An attached but idle agent has no hook registered at all.
+ * <p>
+ * Hooks do not depend on order in which they are called, each computes the resulting body as the override if any,
+ * or the body it was given.
  *
  * @author pmikova
  */
-public class Transformer implements ClassFileTransformer {
-
-    private boolean allowToSaveBytecode = false;
-    private Map<String, byte[]> results = new HashMap<>();
-    private Map<String, byte[]> overrides = new HashMap<>();
-
-    @Override
-    public byte[] transform(ClassLoader loader, String className, Class<?> clazz, ProtectionDomain domain, byte[] classfileBuffer)
-            throws IllegalClassFormatException {
-        if (allowToSaveBytecode) {
-            byte[] b = null;
-            //some parts of instrumentation works on p/k/g/class some on p.l.g.class, lets unify that
-            String nameWithoutSlashes = clazz.getName().replace("/", ".");
-            synchronized (this) {
-                b = overrides.get(nameWithoutSlashes);
+public class Transformer {
+
+    /**
+     * Reasons to register the observer hook.
+     */
+    enum Observer {
+        EVENTS,
+        CONSTANT_POOL_INDEX,
+        HASHES
+    }
+
+    private final Instrumentation instrumentation;
+    private final ClassFileTransformer captureHook = new CaptureHook();
+    private final ClassFileTransformer overrideHook = new OverrideHook();
+    private final ClassFileTransformer observerHook = new ObserverHook();
+    private final Map<String, byte[]> overrides = new ConcurrentHashMap<>();
+    private final ThreadLocal<Capture> captures = new ThreadLocal<>();
+    private final Set<Observer> observers = EnumSet.noneOf(Observer.class);
+    private int activeCaptures;
+    private boolean overriding;
+    private volatile LoadedClassIndex classIndex;
+    private volatile ConstantPoolIndex constantPoolIndex;
+    private volatile ClassEventStream classEventStream;
+    private volatile ClassHashes classHashes;
+
+    /**
+     * Bodies of classes captured for one request.
+     * Retransformation calls transformers on the thread which requested it, so the capture is bound to that thread
+     * and only classes it asked for are captured. Classes retransformed or loaded by anybody else meanwhile are not.
+     */
+    static final class Capture {
+        private final Set<Class<?>> requested = new HashSet<>();
+        private final Map<Class<?>, byte[]> bodies = new HashMap<>();
+
+        private Capture(Collection<Class> classes) {
+            for (Class clazz : classes) {
+                requested.add(clazz);
             }
-            if (b != null) {
-                results.put(nameWithoutSlashes, b);
-                return b;
-            } else {
-                results.put(nameWithoutSlashes, classfileBuffer);
+        }
+
+        /**
+         * @return false if the class was not requested, and so its retransformation is not this capture's
+         */
+        private boolean isRequested(Class<?> clazz) {
+            return requested.contains(clazz);
+        }
+
+        /**
+         * @return body of the class as the retransformation saw it, or null if it was not retransformed
+         */
+        byte[] getBody(Class<?> clazz) {
+            return bodies.get(clazz);
+        }
+    }
+
+    /**
+     * Registered only while some thread captures bodies.
+     */
+    private final class CaptureHook implements ClassFileTransformer {
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> clazz, ProtectionDomain domain, byte[] classfileBuffer)
+                throws IllegalClassFormatException {
+            Capture capture = captures.get();
+            if (clazz != null && capture != null && capture.isRequested(clazz)) {
+                capture.bodies.put(clazz, getBody(clazz, classfileBuffer));
             }
+            return null;
         }
-        return null;
     }
 
     /**
-     * Returns bytecode of transformed class.
-     *
-     * @param name name of class we want to get
-     * @return bytes of given class
+     * Registered only while any override is set, it does nothing but look the override up.
      */
-    public byte[] getResult(String name) {
-        return results.get(name);
+    private final class OverrideHook implements ClassFileTransformer {
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> clazz, ProtectionDomain domain, byte[] classfileBuffer)
+                throws IllegalClassFormatException {
+            if (clazz == null) {
+                return null;
+            }
+            return overrides.get(getName(clazz));
+        }
     }
 
-    public void setOverride(String name, byte[] body) {
-        overrides.put(name, body);
+    /**
+     * Registered only while any {@link Observer} needs it.
+     */
+    private final class ObserverHook implements ClassFileTransformer {
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> clazz, ProtectionDomain domain, byte[] classfileBuffer)
+                throws IllegalClassFormatException {
+            if (clazz == null) {
+                if (className != null) {
+                    classLoaded(className.replace('/', '.'), loader, classfileBuffer);
+                }
+                return null;
+            }
+            Capture capture = captures.get();
+            if (capture == null || !capture.isRequested(clazz)) {
+                // mere reading of the body by a capture changes nothing
+                publish(ClassEventStream.Kind.REDEFINED, getName(clazz));
+                ClassHashes hashes = classHashes;
+                if (hashes != null) {
+                    hashes.invalidate(clazz);
+                }
+            }
+            // retransformed or redefined by us or anybody else, with override or restored after removal of override
+            indexConstants(getName(clazz), getBody(clazz, classfileBuffer));
+            return null;
+        }
     }
 
-    public List<String> getOverriddenFqns() {
-        return Collections.unmodifiableList(new ArrayList<>(overrides.keySet()));
+    Transformer(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    private static String getName(Class<?> clazz) {
+        //some parts of instrumentation works on p/k/g/class some on p.l.g.class, lets unify that
+        return clazz.getName().replace("/", ".");
+    }
+
+    private byte[] getBody(Class<?> clazz, byte[] classfileBuffer) {
+        byte[] override = overrides.get(getName(clazz));
+        return override == null ? classfileBuffer : override;
+    }
+
+    private void classLoaded(String name, ClassLoader loader, byte[] body) {
+        LoadedClassIndex index = classIndex;
+        if (index != null) {
+            index.loaded(name, loader);
+        }
+        publish(ClassEventStream.Kind.LOADED, name);
+        indexConstants(name, body);
+    }
+
+    private void publish(ClassEventStream.Kind kind, String name) {
+        ClassEventStream events = classEventStream;
+        if (events != null) {
+            events.publish(kind, name);
+        }
+    }
+
+    private void indexConstants(String name, byte[] body) {
+        ConstantPoolIndex index = constantPoolIndex;
+        if (index != null) {
+            index.update(name, body);
+        }
+    }
+
+    /**
+     * Starts capturing bodies of given classes on current thread, until {@link #endCapture()}.
+     * Classes are captured during their retransformation by current thread.
+     */
+    Capture beginCapture(Collection<Class> classes) {
+        Capture capture = new Capture(classes);
+        synchronized (this) {
+            if (activeCaptures == 0) {
+                instrumentation.addTransformer(captureHook, true);
+            }
+            activeCaptures++;
+        }
+        captures.set(capture);
+        return capture;
+    }
+
+    void endCapture() {
+        captures.remove();
+        synchronized (this) {
+            activeCaptures--;
+            if (activeCaptures == 0) {
+                instrumentation.removeTransformer(captureHook);
+            }
+        }
+    }
+
+    /**
+     * Registers the observer hook if this is its first reason, or removes it if this was its last reason.
+     * Loads and redefinitions which happen while it is not registered are never reported,
+     * so cached digests of class bodies are dropped together with the hook.
+     */
+    synchronized void setObserving(Observer observer, boolean observing) {
+        boolean wasObserving = !observers.isEmpty();
+        if (observing) {
+            observers.add(observer);
+        } else {
+            observers.remove(observer);
+        }
+        if (!wasObserving && !observers.isEmpty()) {
+            instrumentation.addTransformer(observerHook, true);
+        } else if (wasObserving && observers.isEmpty()) {
+            instrumentation.removeTransformer(observerHook);
+            clearHashes();
+        }
+    }
+
+    private void clearHashes() {
+        ClassHashes hashes = classHashes;
+        if (hashes != null) {
+            hashes.clear();
+        }
+    }
+
+    private synchronized void updateOverrideHook() {
+        boolean needed = !overrides.isEmpty();
+        if (needed && !overriding) {
+            instrumentation.addTransformer(overrideHook, true);
+        } else if (!needed && overriding) {
+            instrumentation.removeTransformer(overrideHook);
+        }
+        overriding = needed;
+    }
+
+    /**
+     * @return how many hooks are registered now, 0 when the agent is idle
+     */
+    synchronized int getRegisteredHooks() {
+        return (activeCaptures > 0 ? 1 : 0) + (overriding ? 1 : 0) + (observers.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Removes all hooks, whatever still needs them. Overrides should be removed before.
+     */
+    synchronized void removeAll() {
+        instrumentation.removeTransformer(captureHook);
+        instrumentation.removeTransformer(overrideHook);
+        instrumentation.removeTransformer(observerHook);
+        activeCaptures = 0;
+        overriding = false;
+        observers.clear();
+        clearHashes();
     }
 
     /**
-     * Resets the map with results to empty map
+     * @param classIndex index to be notified about newly loaded classes, while the observer hook is registered
      */
-    public void resetLastValidResult() {
-        results = new HashMap<>();
+    void setClassIndex(LoadedClassIndex classIndex) {
+        this.classIndex = classIndex;
     }
 
     /**
-     * This method allows saving of bytecode
+     * @param constantPoolIndex index to be updated with every loaded, redefined or overridden class
      */
-    public void allowToSaveBytecode() {
-        allowToSaveBytecode = true;
+    void setConstantPoolIndex(ConstantPoolIndex constantPoolIndex) {
+        this.constantPoolIndex = constantPoolIndex;
     }
 
     /**
-     * This method denies the bytecode to be saved during transformation.
+     * @param classEventStream stream to which loads, redefinitions and changes of overrides are published
      */
-    public void denyToSaveBytecode() {
-        allowToSaveBytecode = false;
+    void setClassEventStream(ClassEventStream classEventStream) {
+        this.classEventStream = classEventStream;
     }
 
-    synchronized void removeOverride(String clazz) {
-        overrides.remove(clazz);
+    /**
+     * @param classHashes cache of digests to be invalidated whenever a class is retransformed or redefined,
+     * and cleared when the observer hook is removed
+     */
+    void setClassHashes(ClassHashes classHashes) {
+        this.classHashes = classHashes;
+    }
+
+    /**
+     * The override is applied whenever the class is retransformed, until it is removed.
+     */
+    public void setOverride(String name, byte[] body) {
+        overrides.put(name, body);
+        updateOverrideHook();
+        publish(ClassEventStream.Kind.OVERRIDE_SET, name);
+    }
+
+    /**
+     * @return current override of the class, or null if it has none
+     */
+    byte[] getOverride(String name) {
+        return overrides.get(name);
+    }
+
+    public List<String> getOverriddenFqns() {
+        return Collections.unmodifiableList(new ArrayList<>(overrides.keySet()));
+    }
+
+    /**
+     * @return total size of override bodies held by the agent
+     */
+    long getOverridesSize() {
+        long size = 0;
+        for (byte[] body : overrides.values()) {
+            size = size + body.length;
+        }
+        return size;
+    }
+
+    void removeOverride(String clazz) {
+        if (overrides.remove(clazz) != null) {
+            updateOverrideHook();
+            publish(ClassEventStream.Kind.OVERRIDE_REMOVED, clazz);
+        }
     }
 
     public synchronized List<String> cleanOverrides(Pattern cleanPattern) {
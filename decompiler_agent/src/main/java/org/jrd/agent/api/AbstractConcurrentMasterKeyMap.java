@@ -0,0 +1,108 @@
+package org.jrd.agent.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Master key map safe for concurrent use without any lock, so injected code on hot paths does not contend on it.
+ * Every operation is a single atomic operation of the concurrent maps, and reads never create sub maps.
+ * Null values are allowed, they are masked, as concurrent maps do not take nulls.
+ */
+abstract class AbstractConcurrentMasterKeyMap<T> extends AbstractMasterKeyMap<T> {
+
+    private static final Object NULL_VALUE = new Object() {
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    /**
+     * @return the key under which the variables of given owner are stored
+     */
+    protected T resolveKey(T key) {
+        return key;
+    }
+
+    @Override
+    protected Map<String, Object> getSubMap(T mainKey) {
+        T key = resolveKey(mainKey);
+        Map<String, Object> subMap = values.get(key);
+        if (subMap != null) {
+            // computeIfAbsent locks the bin even if the key is present (JDK 8)
+            return subMap;
+        }
+        return values.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @return variables of the owner, or null if it never had any
+     */
+    private Map<String, Object> findSubMap(T mainKey) {
+        return values.get(resolveKey(mainKey));
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL_VALUE ? null : value;
+    }
+
+    @Override
+    public Object set(T key, String name, Object value) {
+        getSubMap(key).put(name, mask(value));
+        return value;
+    }
+
+    @Override
+    public Object setNoReplace(T key, String name, Object value) throws Variables.FakeVariableAlreadyDeclaredException {
+        if (getSubMap(key).putIfAbsent(name, mask(value)) != null) {
+            throw new Variables.FakeVariableAlreadyDeclaredException();
+        }
+        return value;
+    }
+
+    @Override
+    public Object get(T key, String name) throws Variables.NoSuchFakeVariableException {
+        Map<String, Object> subMap = findSubMap(key);
+        Object value = subMap == null ? null : subMap.get(name);
+        if (value == null) {
+            throw new Variables.NoSuchFakeVariableException();
+        }
+        return unmask(value);
+    }
+
+    @Override
+    public Object getOrCreate(T key, String name, Object defaultValue) {
+        Object existing = getSubMap(key).putIfAbsent(name, mask(defaultValue));
+        return existing == null ? defaultValue : unmask(existing);
+    }
+
+    @Override
+    public Object create(T key, String name, Object defaultValue) throws Variables.FakeVariableAlreadyDeclaredException {
+        if (getSubMap(key).putIfAbsent(name, mask(defaultValue)) != null) {
+            throw new Variables.FakeVariableAlreadyDeclaredException();
+        }
+        return null;
+    }
+
+    @Override
+    public Object remove(T key, String name) throws Variables.NoSuchFakeVariableException {
+        Map<String, Object> subMap = findSubMap(key);
+        Object value = subMap == null ? null : subMap.remove(name);
+        if (value == null) {
+            throw new Variables.NoSuchFakeVariableException();
+        }
+        return unmask(value);
+    }
+
+    @Override
+    public void removeAll(T key) {
+        Map<String, Object> subMap = findSubMap(key);
+        if (subMap != null) {
+            subMap.clear();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.jrd.agent.api;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Concurrent map comparing keys by identity and holding them weakly, so owners of variables can still be collected.
+ * Entries of collected keys are expunged on writes. Null key is allowed and held strongly.
+ * <p>
+ * Value must not reference its own key, or the key is never collected (as with {@link java.util.WeakHashMap}).
+ */
+final class ConcurrentWeakIdentityMap<K, V> extends AbstractMap<K, V> {
+
+    private static final Object NULL_KEY = new Object();
+
+    private final Map<Object, V> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    private static final class IdentityKey extends WeakReference<Object> {
+        private final int hash;
+
+        private IdentityKey(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Collected key is equal only to itself, so its entry can still be removed.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            Object key = get();
+            if (key == null) {
+                return false;
+            }
+            if (o instanceof Lookup) {
+                return ((Lookup) o).key == key;
+            }
+            return o instanceof IdentityKey && ((IdentityKey) o).get() == key;
+        }
+    }
+
+    /**
+     * Key of reads, so they do not allocate weak references.
+     */
+    private static final class Lookup {
+        private final Object key;
+
+        private Lookup(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).get() == key;
+        }
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @Override
+    public V get(Object key) {
+        return map.get(new Lookup(mask(key)));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(new Lookup(mask(key)));
+    }
+
+    @Override
+    public V put(K key, V value) {
+        expunge();
+        return map.put(new IdentityKey(mask(key), collected), value);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        expunge();
+        return map.computeIfAbsent(new IdentityKey(mask(key), collected), k -> mappingFunction.apply(key));
+    }
+
+    @Override
+    public V remove(Object key) {
+        return map.remove(new Lookup(mask(key)));
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return snapshot of entries whose keys were not collected yet
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Map.Entry<K, V>> entrySet() {
+        List<Map.Entry<K, V>> entries = new ArrayList<>(map.size());
+        for (Map.Entry<Object, V> entry : map.entrySet()) {
+            Object key = ((IdentityKey) entry.getKey()).get();
+            if (key != null) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key == NULL_KEY ? null : (K) key, entry.getValue()));
+            }
+        }
+        // not a hash set, equal but distinct keys are different entries here
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return entries.iterator();
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    private void expunge() {
+        for (Reference<?> key = collected.poll(); key != null; key = collected.poll()) {
+            map.remove(key);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.jrd.agent.api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms for patched code, eg.:
+ * <pre>
+ * org.jrd.agent.api.Metrics.counter("my.calls").increment();
+ * long start = System.nanoTime();
+ * ...
+ * org.jrd.agent.api.Metrics.histogram("my.duration").recordSince(start);
+ * </pre>
+ * Unlike {@link Variables}, values are primitive and striped, so recording from many threads neither boxes nor contends.
+ * Metrics are created on first use of their name, and reported by the METRICS command of the agent, prefixed by "api.".
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * We have to have all internal classes initialized so any later classes can use them without a manual init.
+     */
+    public static void init() {
+        Counter.init();
+        Gauge.init();
+        Histogram.init();
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = COUNTERS.get(name);
+        return counter != null ? counter : COUNTERS.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Gauge gauge(String name) {
+        Gauge gauge = GAUGES.get(name);
+        return gauge != null ? gauge : GAUGES.computeIfAbsent(name, k -> new Gauge());
+    }
+
+    public static Histogram histogram(String name) {
+        Histogram histogram = HISTOGRAMS.get(name);
+        return histogram != null ? histogram : HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * Forgets all metrics. Patched code still holding some keeps recording to them, but they are no longer reported.
+     */
+    public static void removeAll() {
+        COUNTERS.clear();
+        GAUGES.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /**
+     * @return one line per metric, "kind.name value", sorted by name
+     */
+    public static String dumpAll() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Counter> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            sb.append("counter.").append(counter.getKey()).append(' ').append(counter.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> gauge : new TreeMap<>(GAUGES).entrySet()) {
+            sb.append("gauge.").append(gauge.getKey()).append(' ').append(gauge.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            sb.append("histogram.").append(histogram.getKey()).append(' ').append(histogram.getValue().describe()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sum of increments, eg. number of calls.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {
+        }
+
+        public static void init() {
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        public void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Current value of something, eg. size of a queue or number of threads inside a method.
+     */
+    public static final class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        private Gauge() {
+        }
+
+        public static void init() {
+        }
+
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void decrement() {
+            value.decrementAndGet();
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Latencies in power of two buckets of microseconds, bucket i counts values up to 2^i us.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 32;
+        private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+        public Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public static void init() {
+        }
+
+        public void recordNanos(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            buckets[Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros))].increment();
+            count.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulate(micros);
+        }
+
+        /**
+         * @param startNanos {@link System#nanoTime()} at the start of the measured code
+         */
+        public void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Percentiles are upper bounds of buckets they fall into, so they are precise up to factor of two.
+         */
+        public String describe() {
+            long n = count.sum();
+            StringBuilder sb = new StringBuilder("count=").append(n);
+            if (n == 0) {
+                return sb.toString();
+            }
+            sb.append(" avgUs=").append(totalMicros.sum() / n).append(" maxUs=").append(maxMicros.get());
+            for (double percentile : PERCENTILES) {
+                long threshold = (long) Math.ceil(n * percentile);
+                long seen = 0;
+                int bucket = 0;
+                while (bucket < BUCKETS - 1 && seen + buckets[bucket].sum() < threshold) {
+                    seen = seen + buckets[bucket].sum();
+                    bucket++;
+                }
+                sb.append(" p").append(Math.round(percentile * 100)).append("Us<=").append(1L << bucket);
+            }
+            return sb.toString();
+        }
+    }
+}
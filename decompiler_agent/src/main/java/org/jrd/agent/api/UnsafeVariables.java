@@ -189,12 +189,12 @@ public class UnsafeVariables {
                 for (int x = 1; x < classes.size(); x++) {
                     String clazz = classes.get(x);
                     if (!clazz.startsWith("org.jrd.agent.api.")) {
-                        AgentLogger.getLogger().log("Found: " + clazz);
+                        AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "Found: " + clazz);
                         return classForName(clazz);
                     }
                 }
                 String clazz = classes.get(classes.size() - 1);
-                AgentLogger.getLogger().log("Notfound, fallback: " + clazz);
+                AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "Notfound, fallback: " + clazz);
                 return classForName(clazz);
             }
         };
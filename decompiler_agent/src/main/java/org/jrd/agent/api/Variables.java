@@ -2,12 +2,9 @@ package org.jrd.agent.api;
 
 import org.jrd.agent.AgentLogger;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.lang.ref.WeakReference;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Variables {
 
@@ -80,21 +77,19 @@ public class Variables {
 
     public static class Global {
 
-        private static final AbstractMasterKeyMap<String> GLOBALS = new AbstractMasterKeyMap<String>() {
+        private static final AbstractMasterKeyMap<String> GLOBALS = new AbstractConcurrentMasterKeyMap<String>() {
 
             //globals do not have any granularity, so there is just one key to rule them all
             private static final String THE_KEY = "GLOBALS";
 
             @Override
-            protected synchronized Map<String, Map<String, Object>> createMainMap() {
-                Map<String, Map<String, Object>> mapWithSingleMaster = Collections.synchronizedMap(new HashMap<>());
-                mapWithSingleMaster.put(THE_KEY, Collections.synchronizedMap(new HashMap<>()));
-                return mapWithSingleMaster;
+            protected Map<String, Map<String, Object>> createMainMap() {
+                return new ConcurrentHashMap<>();
             }
 
             @Override
-            protected synchronized Map<String, Object> getSubMap(String mainKey) {
-                return values.get(THE_KEY);
+            protected String resolveKey(String mainKey) {
+                return THE_KEY;
             }
         };
 
@@ -139,21 +134,14 @@ public class Variables {
         protected Local() {
         }
 
-        private static final AbstractMasterKeyMap<Object> LOCALS = new AbstractMasterKeyMap<Object>() {
+        /**
+         * Owners are compared by identity and held weakly, so having variables does not keep them alive.
+         */
+        private static final AbstractMasterKeyMap<Object> LOCALS = new AbstractConcurrentMasterKeyMap<Object>() {
 
             @Override
-            protected synchronized Map<Object, Map<String, Object>> createMainMap() {
-                return Collections.synchronizedMap(new HashMap<>());
-            }
-
-            @Override
-            protected synchronized Map<String, Object> getSubMap(Object owner) {
-                Map<String, Object> thisOnes = values.get(owner);
-                if (thisOnes == null) {
-                    thisOnes = Collections.synchronizedMap(new HashMap<>());
-                    values.put(owner, thisOnes);
-                }
-                return thisOnes;
+            protected Map<Object, Map<String, Object>> createMainMap() {
+                return new ConcurrentWeakIdentityMap<>();
             }
         };
 
@@ -206,52 +194,61 @@ public class Variables {
         protected Clazzs() {
         }
 
-        private static final AbstractMasterKeyMap<Class> CLAZZS = new AbstractMasterKeyMap<Class>() {
+        /**
+         * Classes are held weakly, so having variables does not prevent their unloading.
+         */
+        private static final AbstractMasterKeyMap<Class> CLAZZS = new AbstractConcurrentMasterKeyMap<Class>() {
 
             @Override
-            protected synchronized Map<Class, Map<String, Object>> createMainMap() {
-                return Collections.synchronizedMap(new HashMap<>());
+            protected Map<Class, Map<String, Object>> createMainMap() {
+                return new ConcurrentWeakIdentityMap<>();
             }
 
             @Override
-            protected synchronized Map<String, Object> getSubMap(Class owner) {
+            protected Class resolveKey(Class owner) {
                 if (owner == null) {
-                    owner = findCaller();
+                    return findCaller();
                 }
-                Map<String, Object> thisOnes = values.get(owner);
-                if (thisOnes == null) {
-                    thisOnes = Collections.synchronizedMap(new HashMap<>());
-                    values.put(owner, thisOnes);
-                }
-                return thisOnes;
+                return owner;
             }
 
             private Class findCaller() throws FakeVariableException {
-                List<String> classes =
-                        Arrays.stream(Thread.currentThread().getStackTrace()).map(a -> a.getClassName()).collect(Collectors.toList());
+                StackTraceElement[] stack = Thread.currentThread().getStackTrace();
                 //0 is alwways java.lang.Thread
-                for (int x = 1; x < classes.size(); x++) {
-                    String clazz = classes.get(x);
+                for (int x = 1; x < stack.length; x++) {
+                    String clazz = stack[x].getClassName();
                     if (!clazz.startsWith("org.jrd.agent.api.")) {
-                        AgentLogger.getLogger().log("Found: " + clazz);
                         return classForName(clazz);
                     }
                 }
-                String clazz = classes.get(classes.size() - 1);
-                AgentLogger.getLogger().log("Notfound, fallback: " + clazz);
+                String clazz = stack[stack.length - 1].getClassName();
+                AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "Notfound, fallback: " + clazz);
                 return classForName(clazz);
             }
         };
 
+        /**
+         * Resolved classes, so names are not looked up by class loader on every access. Held weakly, as the map itself.
+         */
+        private static final Map<String, WeakReference<Class>> RESOLVED = new ConcurrentHashMap<>();
+
         public static void init() {
         }
 
         private static Class classForName(String clazz) throws FakeVariableException {
+            WeakReference<Class> known = RESOLVED.get(clazz);
+            Class resolved = known == null ? null : known.get();
+            if (resolved != null) {
+                return resolved;
+            }
             try {
-                return Class.forName(clazz);
+                resolved = Class.forName(clazz);
             } catch (ClassNotFoundException ex) {
                 throw new FakeVariableException(ex);
             }
+            AgentLogger.getLogger().log(AgentLogger.Level.DEBUG, "Found: " + clazz);
+            RESOLVED.put(clazz, new WeakReference<>(resolved));
+            return resolved;
         }
 
         private static Class nullOrClass(String fqn) throws FakeVariableException {
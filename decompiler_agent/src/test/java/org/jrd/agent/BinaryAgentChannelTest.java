@@ -0,0 +1,186 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryAgentChannelTest {
+
+    private static final byte[] BODY = {(byte) 0xCA, (byte) 0xFE, 0, '\n', (byte) 0xBA, (byte) 0xBE};
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeFrame(DataOutputStream out, byte opcode, int requestId, byte[]... fields) throws IOException {
+        int length = 0;
+        for (byte[] field : fields) {
+            length = length + Integer.BYTES + field.length;
+        }
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeInt(length);
+        for (byte[] field : fields) {
+            out.writeInt(field.length);
+            out.write(field);
+        }
+    }
+
+    private static List<byte[]> readFrame(DataInputStream in, byte expectedOpcode, int expectedId) throws IOException {
+        assertEquals(expectedOpcode, in.readByte());
+        assertEquals(expectedId, in.readInt());
+        int remaining = in.readInt();
+        List<byte[]> fields = new ArrayList<>();
+        while (remaining > 0) {
+            byte[] field = new byte[in.readInt()];
+            in.readFully(field);
+            fields.add(field);
+            remaining = remaining - Integer.BYTES - field.length;
+        }
+        assertEquals(0, remaining);
+        return fields;
+    }
+
+    @Test
+    void testReadsArgumentsAsTheyAreAsked() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        writeFrame(out, BinaryAgentChannel.REQUEST, 1, utf8("OVERWRITE"), utf8("a.A"), BODY);
+        writeFrame(out, BinaryAgentChannel.CLOSE, 2);
+        BinaryAgentChannel channel = new BinaryAgentChannel(new ByteArrayInputStream(request.toByteArray()), new ByteArrayOutputStream());
+
+        assertEquals("OVERWRITE", channel.readCommand());
+        assertEquals("a.A", channel.readLine());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertEquals(BODY.length, channel.readBytesTo(body));
+        assertArrayEquals(BODY, body.toByteArray());
+        assertNull(channel.readBytes());
+        assertNull(channel.readCommand());
+    }
+
+    @Test
+    void testSkipsArgumentsNotAskedFor() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        writeFrame(out, BinaryAgentChannel.REQUEST, 1, utf8("BYTES"), utf8("a.A"), BODY);
+        writeFrame(out, BinaryAgentChannel.REQUEST, 2, utf8("VERSION"));
+        BinaryAgentChannel channel = new BinaryAgentChannel(new ByteArrayInputStream(request.toByteArray()), new ByteArrayOutputStream());
+
+        assertEquals("BYTES", channel.readCommand());
+        assertEquals("VERSION", channel.readCommand());
+        assertNull(channel.readLine());
+        assertNull(channel.readCommand());
+    }
+
+    @Test
+    void testRefusesCorruptedFrames() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        out.writeByte(BinaryAgentChannel.REQUEST);
+        out.writeInt(1);
+        out.writeInt(8);
+        out.writeInt(100);
+        BinaryAgentChannel corrupted = new BinaryAgentChannel(new ByteArrayInputStream(request.toByteArray()), new ByteArrayOutputStream());
+        assertThrows(IOException.class, corrupted::readCommand);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeFrame(new DataOutputStream(data), BinaryAgentChannel.DATA, 1, utf8("VERSION"));
+        BinaryAgentChannel unexpected = new BinaryAgentChannel(new ByteArrayInputStream(data.toByteArray()), new ByteArrayOutputStream());
+        assertThrows(IOException.class, unexpected::readCommand);
+    }
+
+    @Test
+    void testReplyIsDataFramesEndedByEndFrame() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        writeFrame(new DataOutputStream(request), BinaryAgentChannel.REQUEST, 9, utf8("BYTES"), utf8("a.A"));
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        BinaryAgentChannel channel = new BinaryAgentChannel(new ByteArrayInputStream(request.toByteArray()), reply);
+
+        channel.readCommand();
+        channel.writeLine("BYTES");
+        channel.flush();
+        channel.writeBytes(BODY);
+        channel.endResponse();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(reply.toByteArray()));
+        List<byte[]> first = readFrame(in, BinaryAgentChannel.DATA, 9);
+        assertEquals(1, first.size());
+        assertEquals("BYTES", new String(first.get(0), StandardCharsets.UTF_8));
+        List<byte[]> second = readFrame(in, BinaryAgentChannel.DATA, 9);
+        assertEquals(1, second.size());
+        assertArrayEquals(BODY, second.get(0));
+        assertEquals(0, readFrame(in, BinaryAgentChannel.END, 9).size());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void testCompressionStartsWithNextReply() throws IOException, DataFormatException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        writeFrame(out, BinaryAgentChannel.REQUEST, 1, utf8("COMPRESS"), utf8("0"));
+        writeFrame(out, BinaryAgentChannel.REQUEST, 2, utf8("BYTES"), utf8("a.A"));
+        writeFrame(out, BinaryAgentChannel.REQUEST, 3, utf8("BYTES"), utf8("a.A"));
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        BinaryAgentChannel channel = new BinaryAgentChannel(new ByteArrayInputStream(request.toByteArray()), reply);
+        for (int i = 0; i < 3; i++) {
+            channel.readCommand();
+            if (i == 0) {
+                channel.compress(0);
+            }
+            channel.writeLine("BYTES");
+            channel.writeBytes(BODY);
+            channel.endResponse();
+        }
+        channel.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(reply.toByteArray()));
+        assertEquals(2, readFrame(in, BinaryAgentChannel.DATA, 1).size());
+        readFrame(in, BinaryAgentChannel.END, 1);
+        // both compressed replies are one deflate stream
+        Inflater inflater = new Inflater();
+        for (int id = 2; id <= 3; id++) {
+            List<byte[]> fields = readFields(readDeflatedFrame(in, id, inflater));
+            assertEquals(2, fields.size());
+            assertEquals("BYTES", new String(fields.get(0), StandardCharsets.UTF_8));
+            assertArrayEquals(BODY, fields.get(1));
+            readFrame(in, BinaryAgentChannel.END, id);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    private static DataInputStream readDeflatedFrame(DataInputStream in, int expectedId, Inflater inflater)
+            throws IOException, DataFormatException {
+        assertEquals(BinaryAgentChannel.DEFLATED, in.readByte());
+        assertEquals(expectedId, in.readInt());
+        byte[] deflated = new byte[in.readInt() - Integer.BYTES];
+        byte[] original = new byte[in.readInt()];
+        in.readFully(deflated);
+        inflater.setInput(deflated);
+        assertEquals(original.length, inflater.inflate(original));
+        return new DataInputStream(new ByteArrayInputStream(original));
+    }
+
+    private static List<byte[]> readFields(DataInputStream in) throws IOException {
+        List<byte[]> fields = new ArrayList<>();
+        while (in.available() > 0) {
+            byte[] field = new byte[in.readInt()];
+            in.readFully(field);
+            fields.add(field);
+        }
+        return fields;
+    }
+}
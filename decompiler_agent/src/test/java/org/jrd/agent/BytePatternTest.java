@@ -0,0 +1,62 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BytePatternTest {
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testFindsPatternAnywhere() {
+        BytePattern pattern = new BytePattern(utf8("needle"));
+
+        assertTrue(pattern.isIn(utf8("needle")));
+        assertTrue(pattern.isIn(utf8("needle in haystack")));
+        assertTrue(pattern.isIn(utf8("haystack with needle")));
+        assertTrue(pattern.isIn(utf8("hay needle stack")));
+        assertTrue(pattern.isIn(utf8("neeneedleedle")));
+    }
+
+    @Test
+    void testDoesNotFindWhatIsNotThere() {
+        BytePattern pattern = new BytePattern(utf8("needle"));
+
+        assertFalse(pattern.isIn(utf8("")));
+        assertFalse(pattern.isIn(utf8("needl")));
+        assertFalse(pattern.isIn(utf8("haystack with needl")));
+        assertFalse(pattern.isIn(utf8("eedle haystack")));
+        assertFalse(pattern.isIn(utf8("Needle")));
+    }
+
+    @Test
+    void testNegativeBytes() {
+        BytePattern pattern = new BytePattern(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+
+        assertTrue(pattern.isIn(new byte[]{0, (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0}));
+        assertFalse(pattern.isIn(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, 0, (byte) 0xBE}));
+    }
+
+    @Test
+    void testEmptyPatternIsEverywhere() {
+        BytePattern pattern = new BytePattern(new byte[0]);
+
+        assertTrue(pattern.isIn(new byte[0]));
+        assertTrue(pattern.isIn(utf8("anything")));
+    }
+
+    @Test
+    void testPatternIsCopied() {
+        byte[] needle = utf8("needle");
+        BytePattern pattern = new BytePattern(needle);
+        needle[0] = 'x';
+
+        assertTrue(pattern.isIn(utf8("a needle")));
+    }
+}
@@ -0,0 +1,92 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassEventStreamTest {
+
+    @Test
+    void testRepeatedEventsAreCoalesced() {
+        ClassEventStream stream = new ClassEventStream();
+        final ClassEventStream.Subscription subscription = stream.subscribe(Collections.emptySet(), 10);
+
+        stream.publish(ClassEventStream.Kind.REDEFINED, "a.A");
+        stream.publish(ClassEventStream.Kind.LOADED, "b.B");
+        stream.publish(ClassEventStream.Kind.REDEFINED, "a.A");
+        stream.publish(ClassEventStream.Kind.OVERRIDE_SET, "a.A");
+
+        assertEquals(Arrays.asList("LOADED b.B", "REDEFINED a.A", "OVERRIDE_SET a.A"), subscription.drain());
+        assertTrue(subscription.drain().isEmpty());
+    }
+
+    @Test
+    void testOldestEventsAreDroppedAndCounted() {
+        ClassEventStream stream = new ClassEventStream();
+        ClassEventStream.Subscription subscription = stream.subscribe(Collections.emptySet(), 2);
+
+        stream.publish(ClassEventStream.Kind.LOADED, "a.A");
+        stream.publish(ClassEventStream.Kind.LOADED, "b.B");
+        stream.publish(ClassEventStream.Kind.LOADED, "c.C");
+        stream.publish(ClassEventStream.Kind.LOADED, "d.D");
+        // coalesced event takes no more space
+        stream.publish(ClassEventStream.Kind.LOADED, "c.C");
+
+        List<String> events = subscription.drain();
+        assertEquals(Arrays.asList(ClassEventStream.DROPPED + " 2", "LOADED d.D", "LOADED c.C"), events);
+        assertEquals(2, stream.getDroppedCount());
+        assertTrue(subscription.drain().isEmpty());
+    }
+
+    @Test
+    void testOnlySubscribedKindsAreReceived() {
+        ClassEventStream stream = new ClassEventStream();
+        ClassEventStream.Subscription overrides = stream.subscribe(
+                new HashSet<>(Arrays.asList(ClassEventStream.Kind.OVERRIDE_SET, ClassEventStream.Kind.OVERRIDE_REMOVED)), 10
+        );
+        ClassEventStream.Subscription all = stream.subscribe(EnumSet.noneOf(ClassEventStream.Kind.class), 10);
+
+        stream.publish(ClassEventStream.Kind.LOADED, "a.A");
+        stream.publish(ClassEventStream.Kind.OVERRIDE_SET, "a.A");
+
+        assertEquals(Collections.singletonList("OVERRIDE_SET a.A"), overrides.drain());
+        assertEquals(Arrays.asList("LOADED a.A", "OVERRIDE_SET a.A"), all.drain());
+    }
+
+    @Test
+    void testAwait() throws InterruptedException {
+        ClassEventStream stream = new ClassEventStream();
+        ClassEventStream.Subscription subscription = stream.subscribe(Collections.emptySet(), 10);
+
+        assertFalse(subscription.await(10));
+        Thread publisher = new Thread(() -> stream.publish(ClassEventStream.Kind.LOADED, "a.A"));
+        publisher.start();
+        assertTrue(subscription.await(5000));
+        publisher.join();
+    }
+
+    @Test
+    void testSubscriptionsAreLimitedAndCancelled() {
+        ClassEventStream stream = new ClassEventStream();
+        ClassEventStream.Subscription first = stream.subscribe(Collections.emptySet(), 10);
+        for (int i = 1; i < ClassEventStream.MAX_SUBSCRIPTIONS; i++) {
+            stream.subscribe(Collections.emptySet(), 10);
+        }
+
+        assertThrows(IllegalStateException.class, () -> stream.subscribe(Collections.emptySet(), 10));
+        first.cancel();
+        assertEquals(ClassEventStream.MAX_SUBSCRIPTIONS - 1, stream.getSubscriptionsCount());
+        stream.subscribe(Collections.emptySet(), 10);
+        stream.publish(ClassEventStream.Kind.LOADED, "a.A");
+        assertTrue(first.drain().isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ClassHashesTest {
+
+    static class Hashed {
+    }
+
+    private static String sha256(byte[] body) throws NoSuchAlgorithmException {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(body)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    void testDigestIsCachedUntilInvalidated() throws IOException, NoSuchAlgorithmException {
+        ClassHashes hashes = new ClassHashes();
+        byte[] body = TestClasses.bodyOf(Hashed.class);
+        assertNull(hashes.get(Hashed.class));
+
+        assertEquals(sha256(body), hashes.put(Hashed.class, body, hashes.mark()));
+        assertEquals(sha256(body), hashes.get(Hashed.class));
+        assertEquals(1, hashes.size());
+
+        hashes.invalidate(Hashed.class);
+        assertNull(hashes.get(Hashed.class));
+    }
+
+    @Test
+    void testDigestOfBodyObtainedBeforeInvalidationIsNotCached() throws IOException, NoSuchAlgorithmException {
+        ClassHashes hashes = new ClassHashes();
+        byte[] body = TestClasses.bodyOf(Hashed.class);
+        long mark = hashes.mark();
+        hashes.invalidate(String.class);
+
+        assertEquals(sha256(body), hashes.put(Hashed.class, body, mark));
+        assertNull(hashes.get(Hashed.class));
+
+        long cleared = hashes.mark();
+        hashes.clear();
+        hashes.put(Hashed.class, body, cleared);
+        assertEquals(0, hashes.size());
+    }
+
+    private static List<String> hash(InstrumentationProvider provider) throws InterruptedException {
+        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        provider.getClassHashes(queue, false, null, Pattern.compile(".*Hashed"));
+        List<String> lines = new ArrayList<>();
+        queue.drainTo(lines);
+        return lines;
+    }
+
+    @Test
+    void testIdleAgentKeepsNoHookAfterHashing() throws Exception {
+        FakeInstrumentation fake = FakeInstrumentation.of(String.class, Hashed.class);
+        Transformer transformer = new Transformer(fake.asInstrumentation());
+        InstrumentationProvider provider = new InstrumentationProvider(fake.asInstrumentation(), transformer);
+
+        List<String> lines = hash(provider);
+
+        assertEquals(Collections.singletonList(Hashed.class.getName() + " " + sha256(TestClasses.bodyOf(Hashed.class))), lines);
+        assertEquals(0, transformer.getRegisteredHooks());
+        assertEquals(0, fake.getTransformersCount());
+        // nothing would invalidate the digest, so it must not be reused
+        hash(provider);
+        assertEquals(2, fake.getRetransformations());
+    }
+
+    @Test
+    void testDigestIsReusedWhileObserverHookIsRegistered() throws Exception {
+        FakeInstrumentation fake = FakeInstrumentation.of(Hashed.class);
+        Transformer transformer = new Transformer(fake.asInstrumentation());
+        InstrumentationProvider provider = new InstrumentationProvider(fake.asInstrumentation(), transformer);
+        transformer.setObserving(Transformer.Observer.EVENTS, true);
+
+        List<String> first = hash(provider);
+        assertEquals(first, hash(provider));
+        assertEquals(1, fake.getRetransformations());
+
+        transformer.setObserving(Transformer.Observer.EVENTS, false);
+        assertEquals(0, transformer.getRegisteredHooks());
+        assertEquals(first, hash(provider));
+        assertEquals(2, fake.getRetransformations());
+    }
+}
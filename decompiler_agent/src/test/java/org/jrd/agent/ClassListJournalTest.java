@@ -0,0 +1,180 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ClassListJournalTest {
+
+    private static final ClassDescriber DESCRIBER = new ClassDescriber(false, false);
+
+    /**
+     * Target of {@link IsolatingLoader}, so the test may load and unload its own copies.
+     */
+    static class Isolated {
+    }
+
+    /**
+     * Defines its own copy of {@link Isolated}, whose name is the same for every loader.
+     */
+    private static final class IsolatingLoader extends ClassLoader {
+        private IsolatingLoader() {
+            super(ClassListJournalTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!Isolated.class.getName().equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+            try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    body.write(buffer, 0, read);
+                }
+                return defineClass(name, body.toByteArray(), 0, body.size());
+            } catch (IOException ex) {
+                throw new ClassNotFoundException(name, ex);
+            }
+        }
+    }
+
+    private static Class<?>[] classes(Class<?>... classes) {
+        return classes;
+    }
+
+    @Test
+    void testSinceReportsNewlyLoadedClasses() {
+        ClassListJournal journal = new ClassListJournal();
+        String token = journal.track(classes(String.class, Integer.class));
+
+        List<String> changes = journal.since(token, classes(String.class, Integer.class, Long.class), DESCRIBER);
+
+        assertEquals(Arrays.asList(changes.get(0), "+java.lang.Long"), changes);
+        assertEquals(Collections.singletonList(changes.get(0)), journal.since(changes.get(0), classes(Long.class), DESCRIBER));
+    }
+
+    @Test
+    void testTokenOfOtherJournalIsRefused() {
+        ClassListJournal journal = new ClassListJournal();
+        String token = new ClassListJournal().track(classes(String.class));
+        journal.track(classes(String.class));
+
+        assertNull(journal.since(token, classes(String.class), DESCRIBER));
+        assertNull(journal.since("garbage", classes(String.class), DESCRIBER));
+        assertNull(journal.since(token.substring(0, token.lastIndexOf('.')) + ".1000", classes(String.class), DESCRIBER));
+    }
+
+    @Test
+    void testNothingIsTrackedBeforeFirstListing() {
+        ClassListJournal journal = new ClassListJournal();
+        String token = new ClassListJournal().track(classes(String.class));
+
+        assertNull(journal.since(token, classes(String.class), DESCRIBER));
+    }
+
+    @Test
+    void testEveryUnloadOfSameNamedClassesIsReported() throws Exception {
+        ClassListJournal journal = new ClassListJournal();
+        String token = journal.track(classes(String.class));
+        Class<?> first = new IsolatingLoader().loadClass(Isolated.class.getName());
+        Class<?> second = new IsolatingLoader().loadClass(Isolated.class.getName());
+        List<String> loads = journal.since(token, classes(String.class, first, second), DESCRIBER);
+        assertEquals(Arrays.asList("+" + Isolated.class.getName(), "+" + Isolated.class.getName()), loads.subList(1, loads.size()));
+
+        first = null;
+        second = null;
+        List<String> unloads = Collections.emptyList();
+        for (int i = 0; i < 100 && unloads.size() < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+            unloads = journal.since(loads.get(0), classes(String.class), DESCRIBER);
+            assertNotNull(unloads);
+        }
+        assertEquals(Arrays.asList("-" + Isolated.class.getName(), "-" + Isolated.class.getName()), unloads.subList(1, unloads.size()));
+        assertEquals(1, journal.since(unloads.get(0), classes(String.class), DESCRIBER).size());
+    }
+
+    @Test
+    void testUnloadsCarryClassLoaderOfClass() throws Exception {
+        ClassListJournal journal = new ClassListJournal();
+        String token = journal.track(classes(String.class));
+        Class<?> first = new IsolatingLoader().loadClass(Isolated.class.getName());
+        Class<?> second = new IsolatingLoader().loadClass(Isolated.class.getName());
+        List<String> loads = journal.since(token, classes(String.class, first, second), new ClassDescriber(true, false));
+        assertEquals(3, loads.size());
+        assertNotEquals(loads.get(1), loads.get(2));
+
+        first = null;
+        second = null;
+        List<String> unloads = Collections.emptyList();
+        for (int i = 0; i < 100 && unloads.size() < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+            // the describer holds class loaders it described
+            unloads = journal.since(loads.get(0), classes(String.class), new ClassDescriber(true, false));
+        }
+        Set<String> expected = new HashSet<>();
+        for (String load : loads.subList(1, loads.size())) {
+            expected.add("-" + load.substring(1));
+        }
+        assertEquals(expected, new HashSet<>(unloads.subList(1, unloads.size())));
+    }
+
+    @Test
+    void testClassGoneBeforeItsLoadIsReportedIsNeverReported() throws Exception {
+        ClassListJournal journal = new ClassListJournal();
+        String token = journal.track(classes(String.class));
+        Class<?> isolated = new IsolatingLoader().loadClass(Isolated.class.getName());
+        // other client notices the load
+        final String otherToken = journal.since(token, classes(String.class, isolated), DESCRIBER).get(0);
+        WeakReference<Class<?>> collected = new WeakReference<>(isolated);
+
+        isolated = null;
+        for (int i = 0; i < 100 && collected.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(collected.get());
+        List<String> changes = journal.since(token, classes(String.class), DESCRIBER);
+        assertEquals(Collections.singletonList(changes.get(0)), changes);
+        List<String> otherChanges = journal.since(otherToken, classes(String.class), DESCRIBER);
+        assertEquals(Collections.singletonList("-" + Isolated.class.getName()), otherChanges.subList(1, otherChanges.size()));
+    }
+
+    @Test
+    void testFullListingNeverGetsUnloadOfClassItDidNotHave() throws Exception {
+        ClassListJournal journal = new ClassListJournal();
+        String token = journal.track(classes(String.class));
+        Class<?> isolated = new IsolatingLoader().loadClass(Isolated.class.getName());
+        journal.since(token, classes(String.class, isolated), DESCRIBER);
+        WeakReference<Class<?>> collected = new WeakReference<>(isolated);
+
+        isolated = null;
+        for (int i = 0; i < 100 && collected.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        String fullToken = journal.track(classes(String.class));
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        List<String> changes = journal.since(fullToken, classes(String.class), DESCRIBER);
+        assertEquals(Collections.singletonList(changes.get(0)), changes);
+    }
+}
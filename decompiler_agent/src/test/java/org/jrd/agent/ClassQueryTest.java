@@ -0,0 +1,90 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassQueryTest {
+
+    private final Runnable lambda = () -> {
+    };
+
+    @Test
+    void testEmptyQueryMatchesEverything() {
+        ClassQuery query = ClassQuery.parse("  ");
+
+        assertTrue(query.matches(String.class));
+        assertTrue(query.matches(String[].class));
+        assertTrue(query.matches(lambda.getClass()));
+        assertEquals(0, query.getOffset());
+        assertEquals(-1, query.getLimit());
+    }
+
+    @Test
+    void testPackageAndRegex() {
+        ClassQuery query = ClassQuery.parse("package=java.util regex=.*List");
+
+        assertTrue(query.matches(ArrayList.class));
+        assertTrue(query.matches(List.class));
+        assertTrue(query.matches(java.util.concurrent.CopyOnWriteArrayList.class));
+        assertFalse(query.matches(String.class));
+        assertFalse(query.matches(Arrays.class));
+        // package is not mere prefix of the name
+        assertFalse(ClassQuery.parse("package=java.util.con").matches(java.util.concurrent.CopyOnWriteArrayList.class));
+    }
+
+    @Test
+    void testLoader() {
+        assertTrue(ClassQuery.parse("loader=null").matches(String.class));
+        assertFalse(ClassQuery.parse("loader=null").matches(ClassQueryTest.class));
+        String loader = String.valueOf(ClassQueryTest.class.getClassLoader());
+        assertTrue(ClassQuery.parse("loader=" + loader.split("\\s+")[0]).matches(ClassQueryTest.class));
+    }
+
+    @Test
+    void testExclude() {
+        Class<?> lambdaClass = lambda.getClass();
+
+        assertFalse(ClassQuery.parse("exclude=array").matches(String[].class));
+        assertTrue(ClassQuery.parse("exclude=array").matches(String.class));
+        assertFalse(ClassQuery.parse("exclude=lambda").matches(lambdaClass));
+        assertFalse(ClassQuery.parse("exclude=hidden").matches(lambdaClass));
+        assertFalse(ClassQuery.parse("exclude=synthetic").matches(lambdaClass));
+        assertTrue(ClassQuery.parse("exclude=LAMBDA,Array").matches(ClassQueryTest.class));
+    }
+
+    @Test
+    void testPage() {
+        ClassQuery query = ClassQuery.parse("offset=20 limit=10 info=true dict");
+
+        assertEquals(20, query.getOffset());
+        assertEquals(10, query.getLimit());
+        assertEquals(0, ClassQuery.parse("offset=-5").getOffset());
+    }
+
+    @Test
+    void testInvalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> ClassQuery.parse("unknown=1"));
+        assertThrows(IllegalArgumentException.class, () -> ClassQuery.parse("limit"));
+        assertThrows(IllegalArgumentException.class, () -> ClassQuery.parse("limit=ten"));
+        assertThrows(IllegalArgumentException.class, () -> ClassQuery.parse("exclude=array,interfaces"));
+        assertThrows(IllegalArgumentException.class, () -> ClassQuery.parse("regex=[unclosed"));
+    }
+
+    @Test
+    void testOrderPutsArraysAndLambdasLast() {
+        Class<?> lambdaClass = lambda.getClass();
+        List<Class<?>> classes = new ArrayList<>(Arrays.asList(String[].class, lambdaClass, String.class, ArrayList.class));
+        Collections.sort(classes, ClassQuery.ORDER);
+
+        assertEquals(Arrays.asList(String.class, ArrayList.class, lambdaClass, String[].class), classes);
+    }
+}
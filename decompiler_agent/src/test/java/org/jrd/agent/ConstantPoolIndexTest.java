@@ -0,0 +1,98 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConstantPoolIndexTest {
+
+    /**
+     * Long and double constants take two slots of the constant pool.
+     */
+    static class WithWideConstants {
+        private final long wide = 1234567890123L;
+        private final double wider = 3.14159;
+        private final String marker = "marker after wide constants";
+
+        @Override
+        public String toString() {
+            return marker + wide + wider;
+        }
+    }
+
+    static class Other {
+        @Override
+        public String toString() {
+            return "other marker";
+        }
+    }
+
+    @Test
+    void testReadUtf8Constants() throws IOException {
+        List<String> constants = Arrays.asList(ConstantPoolIndex.readUtf8Constants(TestClasses.bodyOf(WithWideConstants.class)));
+
+        assertTrue(constants.contains("marker after wide constants"));
+        assertTrue(constants.contains(WithWideConstants.class.getName().replace('.', '/')));
+        assertTrue(constants.contains("toString"));
+        assertTrue(constants.contains("()Ljava/lang/String;"));
+    }
+
+    @Test
+    void testReadUtf8ConstantsOfCorruptedBody() throws IOException {
+        byte[] body = TestClasses.bodyOf(Other.class);
+        // first constant gets unknown tag
+        body[10] = (byte) 99;
+
+        assertThrows(IOException.class, () -> ConstantPoolIndex.readUtf8Constants(body));
+        assertThrows(IOException.class, () -> ConstantPoolIndex.readUtf8Constants(Arrays.copyOf(body, 20)));
+    }
+
+    @Test
+    void testSearchAndUpdate() throws IOException {
+        ConstantPoolIndex index = new ConstantPoolIndex();
+        index.enable();
+        index.update("a.A", TestClasses.bodyOf(WithWideConstants.class));
+        index.update("b.B", TestClasses.bodyOf(Other.class));
+
+        assertEquals(Collections.singleton("a.A"), index.search("after wide"));
+        assertEquals(Collections.singleton("b.B"), index.search("other marker"));
+        assertEquals(2, index.search("toString").size());
+
+        // redefined class keeps no constants of its previous body
+        index.update("a.A", TestClasses.bodyOf(Other.class));
+        assertTrue(index.search("after wide").isEmpty());
+        assertEquals(2, index.search("other marker").size());
+    }
+
+    @Test
+    void testDisabledIndexIgnoresUpdates() throws IOException {
+        ConstantPoolIndex index = new ConstantPoolIndex();
+        index.update("a.A", TestClasses.bodyOf(Other.class));
+
+        assertFalse(index.isEnabled());
+        assertTrue(index.search("other marker").isEmpty());
+        assertEquals(0, index.getEstimatedBytes());
+    }
+
+    @Test
+    void testIndexOverLimitDropsItself() throws IOException {
+        ConstantPoolIndex index = new ConstantPoolIndex();
+        index.setLimitMb(0);
+        index.enable();
+        index.update("a.A", TestClasses.bodyOf(Other.class));
+        index.markBuilt();
+
+        assertFalse(index.isEnabled());
+        assertFalse(index.isBuilt());
+        assertTrue(index.search("other marker").isEmpty());
+        assertEquals(0, index.getEstimatedBytes());
+    }
+}
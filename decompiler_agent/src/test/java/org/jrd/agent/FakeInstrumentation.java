@@ -0,0 +1,96 @@
+package org.jrd.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Instrumentation of given classes, whose retransformation calls registered transformers with bodies of the test classes,
+ * so the agent can be tested without attaching to a VM.
+ */
+final class FakeInstrumentation implements InvocationHandler {
+
+    private final Class<?>[] loadedClasses;
+    private final List<ClassFileTransformer> transformers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger retransformations = new AtomicInteger();
+    private final AtomicInteger enumerations = new AtomicInteger();
+
+    private FakeInstrumentation(Class<?>... loadedClasses) {
+        this.loadedClasses = loadedClasses.clone();
+    }
+
+    static FakeInstrumentation of(Class<?>... loadedClasses) {
+        return new FakeInstrumentation(loadedClasses);
+    }
+
+    Instrumentation asInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(
+                FakeInstrumentation.class.getClassLoader(), new Class<?>[]{Instrumentation.class}, this
+        );
+    }
+
+    int getTransformersCount() {
+        return transformers.size();
+    }
+
+    /**
+     * @return how many classes were retransformed so far
+     */
+    int getRetransformations() {
+        return retransformations.get();
+    }
+
+    /**
+     * @return how many times all loaded classes were obtained so far
+     */
+    int getEnumerations() {
+        return enumerations.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "addTransformer":
+                transformers.add((ClassFileTransformer) args[0]);
+                return null;
+            case "removeTransformer":
+                return transformers.remove((ClassFileTransformer) args[0]);
+            case "getAllLoadedClasses":
+                enumerations.incrementAndGet();
+                return loadedClasses.clone();
+            case "isModifiableClass":
+            case "isRetransformClassesSupported":
+            case "isRedefineClassesSupported":
+                return true;
+            case "retransformClasses":
+                retransform((Class<?>[]) args[0]);
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private void retransform(Class<?>... classes) throws IOException, IllegalClassFormatException {
+        for (Class<?> clazz : classes) {
+            retransformations.incrementAndGet();
+            byte[] body = TestClasses.bodyOf(clazz);
+            for (ClassFileTransformer transformer : transformers) {
+                byte[] transformed = transformer.transform(clazz.getClassLoader(), clazz.getName().replace('.', '/'), clazz, null, body);
+                if (transformed != null) {
+                    body = transformed;
+                }
+            }
+        }
+    }
+}
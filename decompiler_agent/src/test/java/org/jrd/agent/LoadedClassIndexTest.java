@@ -0,0 +1,73 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LoadedClassIndexTest {
+
+    private static final String NOT_LOADED = "org.jrd.agent.NotLoaded";
+
+    static class Loaded {
+    }
+
+    static class LoadedLater {
+    }
+
+    @Test
+    void testFoundClassIsIndexed() {
+        FakeInstrumentation fake = FakeInstrumentation.of(String.class, Loaded.class);
+        LoadedClassIndex index = new LoadedClassIndex(fake.asInstrumentation());
+
+        assertSame(Loaded.class, index.find(Loaded.class.getName()));
+        assertEquals(1, fake.getEnumerations());
+        assertSame(Loaded.class, index.find(Loaded.class.getName()));
+        assertEquals(1, fake.getEnumerations());
+    }
+
+    @Test
+    void testRefreshedClassesAreFoundWithoutWalkingAllClasses() {
+        FakeInstrumentation fake = FakeInstrumentation.of();
+        LoadedClassIndex index = new LoadedClassIndex(fake.asInstrumentation());
+        index.refresh(new Class<?>[]{String.class, Loaded.class});
+
+        assertSame(String.class, index.find(String.class.getName()));
+        assertSame(Loaded.class, index.find(Loaded.class.getName()));
+        assertEquals(0, fake.getEnumerations());
+    }
+
+    @Test
+    void testRepeatedMissWalksAllClassesOnce() {
+        FakeInstrumentation fake = FakeInstrumentation.of(String.class, Loaded.class);
+        LoadedClassIndex index = new LoadedClassIndex(fake.asInstrumentation());
+
+        assertNull(index.find(NOT_LOADED));
+        assertNull(index.find(NOT_LOADED));
+        assertNull(index.find(NOT_LOADED));
+        assertEquals(1, fake.getEnumerations());
+    }
+
+    @Test
+    void testMissedClassIsFoundOnceNotedAsLoaded() {
+        FakeInstrumentation fake = FakeInstrumentation.of(String.class);
+        LoadedClassIndex index = new LoadedClassIndex(fake.asInstrumentation());
+
+        assertNull(index.find(LoadedLater.class.getName()));
+        index.loaded(LoadedLater.class.getName(), LoadedLater.class.getClassLoader());
+        assertSame(LoadedLater.class, index.find(LoadedLater.class.getName()));
+        assertEquals(1, fake.getEnumerations());
+    }
+
+    @Test
+    void testRefreshForgetsMisses() {
+        FakeInstrumentation fake = FakeInstrumentation.of(String.class);
+        LoadedClassIndex index = new LoadedClassIndex(fake.asInstrumentation());
+
+        assertNull(index.find(LoadedLater.class.getName()));
+        index.refresh(new Class<?>[]{String.class, LoadedLater.class});
+        assertSame(LoadedLater.class, index.find(LoadedLater.class.getName()));
+        assertEquals(1, fake.getEnumerations());
+    }
+}
@@ -0,0 +1,85 @@
+package org.jrd.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetransformLimiterTest {
+
+    @Test
+    void testUnlimitedByDefault() throws InterruptedException {
+        RetransformLimiter limiter = new RetransformLimiter();
+        assertEquals(Integer.MAX_VALUE, limiter.getBatchSize());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(1000);
+        }
+        assertEquals(0, limiter.getThrottledCalls());
+    }
+
+    @Test
+    void testBatchSize() {
+        RetransformLimiter limiter = new RetransformLimiter();
+        limiter.setMaxInFlight(10);
+        assertEquals(10, limiter.getBatchSize());
+        limiter.setMaxClassesPerSecond(5);
+        assertEquals(5, limiter.getBatchSize());
+        limiter.setMaxInFlight(-1);
+        assertEquals(0, limiter.getMaxInFlight());
+        assertEquals(5, limiter.getBatchSize());
+    }
+
+    @Test
+    void testOversizedBatchIsNotStarved() throws InterruptedException {
+        RetransformLimiter limiter = new RetransformLimiter();
+        limiter.setMaxInFlight(2);
+        limiter.setMaxClassesPerSecond(2);
+
+        limiter.acquire(50);
+        limiter.release(50, 0);
+        assertEquals(0, limiter.getThrottledCalls());
+    }
+
+    @Test
+    void testInFlightWaitsForRelease() throws InterruptedException {
+        RetransformLimiter limiter = new RetransformLimiter();
+        limiter.setMaxInFlight(1);
+        limiter.acquire(1);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            try {
+                limiter.acquire(1);
+                acquired.countDown();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        other.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(1, 0);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        other.join();
+        assertEquals(1, limiter.getThrottledCalls());
+    }
+
+    @Test
+    void testRateWaitsForNextWindow() throws InterruptedException {
+        RetransformLimiter limiter = new RetransformLimiter();
+        limiter.setMaxClassesPerSecond(2);
+        limiter.acquire(2);
+        limiter.release(2, 0);
+
+        long start = System.nanoTime();
+        limiter.acquire(1);
+        long waited = System.nanoTime() - start;
+
+        assertEquals(1, limiter.getThrottledCalls());
+        assertTrue(waited > 0 && waited <= TimeUnit.SECONDS.toNanos(2));
+    }
+}
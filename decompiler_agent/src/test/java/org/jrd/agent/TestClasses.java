@@ -0,0 +1,25 @@
+package org.jrd.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bodies of test classes, as the agent would obtain them.
+ */
+final class TestClasses {
+
+    private TestClasses() {
+    }
+
+    static byte[] bodyOf(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.jrd.backend.communication;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps idle binary sessions to agents, keyed by host:port, so following requests do not need new connection.
+ * Sessions idle longer than {@link #IDLE_TIMEOUT_MS} are closed when found, as the agent is closing them itself
+ * a bit later. Returned sessions are only checked for their state, see {@link Communicate#isReusable()}.
+ * Sessions idle longer than {@link #PROBE_AFTER_IDLE_MS} are polled before being lent again, see {@link Communicate#isOpen()},
+ * while sessions used just now are lent without it, so quick successive requests do not wait for the poll.
+ */
+final class AgentSessionPool {
+
+    static final long IDLE_TIMEOUT_MS = 30000;
+    static final long PROBE_AFTER_IDLE_MS = 1000;
+    static final int MAX_IDLE_PER_AGENT = 4;
+
+    private final Map<String, Deque<IdleSession>> idle = new HashMap<>();
+
+    private static final class IdleSession {
+        private final Communicate comm;
+        private final long since;
+
+        private IdleSession(Communicate comm) {
+            this.comm = comm;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return healthy idle session to given agent, or null if there is none
+     */
+    Communicate take(String key) {
+        while (true) {
+            IdleSession candidate;
+            synchronized (this) {
+                Deque<IdleSession> sessions = idle.get(key);
+                if (sessions == null || sessions.isEmpty()) {
+                    return null;
+                }
+                candidate = sessions.pollFirst();
+            }
+            long idleMs = System.currentTimeMillis() - candidate.since;
+            if (idleMs < IDLE_TIMEOUT_MS && (idleMs < PROBE_AFTER_IDLE_MS ? candidate.comm.isReusable() : candidate.comm.isOpen())) {
+                return candidate.comm;
+            }
+            candidate.comm.close();
+        }
+    }
+
+    /**
+     * Returns the session back for reuse. Broken sessions, or sessions over the limit, are closed.
+     */
+    void release(String key, Communicate comm) {
+        if (comm.isReusable()) {
+            synchronized (this) {
+                Deque<IdleSession> sessions = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+                if (sessions.size() < MAX_IDLE_PER_AGENT) {
+                    sessions.addFirst(new IdleSession(comm));
+                    return;
+                }
+            }
+        }
+        comm.close();
+    }
+
+    /**
+     * Closes all idle sessions to given agent, eg. because it is going down.
+     */
+    void closeAll(String key) {
+        Deque<IdleSession> sessions;
+        synchronized (this) {
+            sessions = idle.remove(key);
+        }
+        if (sessions != null) {
+            for (IdleSession session : sessions) {
+                session.comm.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.jrd.backend.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Client side of the framed binary protocol, mirror of agent's BinaryAgentChannel.
+ * <p>
+ * Frame is: opcode (1 byte), request id (int), payload length (int), payload.
+ * Payload is sequence of fields, each is its length (int) followed by bytes.
+ * Textual fields are UTF-8, class bodies and jars are raw bytes.
+ * <p>
+ * One connection carries many requests, until the client sends {@link #CLOSE} frame.
+ * <p>
+ * If compression was negotiated, agent may send data as {@link #DEFLATED} frames. Their payload is the length
+ * of the original payload followed by the original payload deflated, all of them in one deflate stream of the session.
+ */
+final class BinaryFrames {
+
+    static final String HANDSHAKE = "BINARY";
+    static final byte REQUEST = 1;
+    static final byte DATA = 2;
+    static final byte END = 3;
+    static final byte CLOSE = 4;
+    static final byte DEFLATED = 5;
+
+    private BinaryFrames() {
+    }
+
+    static void writeFrame(DataOutputStream out, byte opcode, int requestId, List<byte[]> fields) throws IOException {
+        int length = 0;
+        for (byte[] field : fields) {
+            length = length + Integer.BYTES + field.length;
+        }
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeInt(length);
+        for (byte[] field : fields) {
+            out.writeInt(field.length);
+            out.write(field);
+        }
+    }
+
+    /**
+     * Reads fields of one frame, whose header (opcode, id and length) was already read.
+     */
+    static void readFields(DataInputStream in, int length, List<byte[]> target) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int fieldLength = in.readInt();
+            if (fieldLength < 0 || fieldLength > remaining - Integer.BYTES) {
+                throw new IOException("Corrupted frame, field of " + fieldLength + " bytes in " + remaining + " remaining");
+            }
+            byte[] field = new byte[fieldLength];
+            in.readFully(field);
+            target.add(field);
+            remaining = remaining - Integer.BYTES - fieldLength;
+        }
+    }
+
+    /**
+     * Inflates payload of one {@link #DEFLATED} frame. The inflater is shared by all such frames of the session.
+     */
+    static byte[] inflate(Inflater inflater, byte[] deflated, int originalLength) throws IOException {
+        byte[] original = new byte[originalLength];
+        inflater.setInput(deflated);
+        int inflated = 0;
+        try {
+            while (inflated < originalLength) {
+                int n = inflater.inflate(original, inflated, originalLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated = inflated + n;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupted compressed frame", ex);
+        }
+        if (inflated != originalLength || inflater.getRemaining() > 0) {
+            throw new IOException("Corrupted compressed frame, inflated " + inflated + " of " + originalLength + " bytes");
+        }
+        return original;
+    }
+
+    /**
+     * Reads single line byte by byte, so no following binary data are consumed.
+     *
+     * @return the line, or null if stream ended before anything was read
+     */
+    static String readHandshakeLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+            b = in.read();
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
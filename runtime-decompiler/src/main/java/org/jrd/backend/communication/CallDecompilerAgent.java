@@ -1,8 +1,13 @@
 package org.jrd.backend.communication;
 
+import org.jrd.backend.core.AgentRequestAction;
 import org.jrd.backend.core.Logger;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * This class is handling opening of communication socket and request submitting.
@@ -12,6 +17,18 @@ public class CallDecompilerAgent implements DelegatingJrdAgent {
     public static final String DEFAULT_ADDRESS = "localhost";
     public static final int DEFAULT_PORT = 5395;
 
+    /**
+     * Remembers, per host:port, whether the agent there understood the binary protocol,
+     * so old agents are asked only once.
+     */
+    private static final Map<String, Boolean> BINARY_SUPPORT = new ConcurrentHashMap<>();
+    /**
+     * The same for compression, which is negotiated only if this property sets the threshold in bytes.
+     */
+    public static final String COMPRESSION_THRESHOLD_PROPERTY = "org.jrd.agent.compression.threshold";
+    private static final Map<String, Boolean> COMPRESSION_SUPPORT = new ConcurrentHashMap<>();
+    private static final AgentSessionPool SESSIONS = new AgentSessionPool();
+
     private final int port;
     private final String address;
     private final DelegatingHelper delegationCandidates = new DelegatingHelper();
@@ -35,14 +52,61 @@ public class CallDecompilerAgent implements DelegatingJrdAgent {
     }
 
     /**
-     * Opens a socket and sends the request to the agent via socket.
+     * One request and its reply over a session.
+     */
+    private interface Exchange<T> {
+        void send(Communicate comm) throws IOException;
+
+        T read(Communicate comm);
+    }
+
+    /**
+     * Sends the request to the agent. Agents understanding the binary protocol are reached through pooled sessions,
+     * so subsequent requests reuse one connection. Old agents get new socket for every request.
      * @param request either "CLASSES" or "BYTES \n className", other formats
      * are refused
      * @return agents response or null
      */
     @Override
     public String submitRequest(final String request) {
-        final Communicate comm = new Communicate(this.address, this.port);
+        String key = getKey();
+        if (request.startsWith(AgentRequestAction.RequestAction.HALT.toString())) {
+            SESSIONS.closeAll(key);
+            BINARY_SUPPORT.remove(key);
+            COMPRESSION_SUPPORT.remove(key);
+        }
+        return submitToSession(key, request, new Exchange<String>() {
+            @Override
+            public void send(Communicate comm) throws IOException {
+                comm.println(request);
+            }
+
+            @Override
+            public String read(Communicate comm) {
+                return comm.readResponse();
+            }
+        }, () -> submitRequest(new Communicate(this.address, this.port), request));
+    }
+
+    /**
+     * Binary sessions send the bodies as raw fields, old agents get them as Base64 lines.
+     */
+    @Override
+    public String submitRequest(final String header, final List<byte[]> bodies, final String trailer) {
+        return submitToSession(getKey(), header, new Exchange<String>() {
+            @Override
+            public void send(Communicate comm) throws IOException {
+                comm.println(header, bodies, trailer);
+            }
+
+            @Override
+            public String read(Communicate comm) {
+                return comm.readResponse();
+            }
+        }, () -> DelegatingJrdAgent.super.submitRequest(header, bodies, trailer));
+    }
+
+    private static String submitRequest(final Communicate comm, final String request) {
         try {
             comm.println(request);
             return comm.readResponse();
@@ -54,6 +118,96 @@ public class CallDecompilerAgent implements DelegatingJrdAgent {
         }
     }
 
+    /**
+     * Binary sessions read the bodies as raw fields, replies of old agents are decoded from Base64.
+     */
+    @Override
+    public ClassBodies submitBodiesRequest(final String request) {
+        String[] lines = request.split("\n", 2);
+        final String className = AgentRequestAction.RequestAction.BYTES.toString().equals(lines[0]) && lines.length > 1 ? lines[1] : null;
+        ClassBodies bodies = submitToSession(getKey(), request, new Exchange<ClassBodies>() {
+            @Override
+            public void send(Communicate comm) throws IOException {
+                comm.println(request);
+            }
+
+            @Override
+            public ClassBodies read(Communicate comm) {
+                return comm.readBodies(className);
+            }
+        }, () -> DelegatingJrdAgent.super.submitBodiesRequest(request));
+        return bodies == null ? ClassBodies.failed(null) : bodies;
+    }
+
+    private String getKey() {
+        return this.address + ":" + this.port;
+    }
+
+    /**
+     * @param textRequest used when the agent does not understand the binary protocol
+     * @return the reply, or null if the binary session failed before the request was sent
+     */
+    private <T> T submitToSession(String key, String request, Exchange<T> exchange, Supplier<T> textRequest) {
+        if (!Boolean.FALSE.equals(BINARY_SUPPORT.get(key))) {
+            Communicate pooled = SESSIONS.take(key);
+            if (pooled != null && send(pooled, exchange)) {
+                return readSessionResponse(pooled, exchange, request, key);
+            }
+            final Communicate comm = new Communicate(this.address, this.port);
+            try {
+                if (comm.negotiateBinary()) {
+                    BINARY_SUPPORT.put(key, Boolean.TRUE);
+                    negotiateCompression(comm, key);
+                    exchange.send(comm);
+                    return readSessionResponse(comm, exchange, request, key);
+                }
+                BINARY_SUPPORT.put(key, Boolean.FALSE);
+                comm.close();
+            } catch (IOException ex) {
+                Logger.getLogger().log(Logger.Level.DEBUG, ex);
+                comm.close();
+                return null;
+            }
+        }
+        return textRequest.get();
+    }
+
+    /**
+     * Only a request which could not be written to a pooled session is sent again by new session.
+     * Once written, the agent may have executed it even if its reply can not be read, and commands like OVERWRITE
+     * or ADD_JAR must not run twice, so failures of reading are reported as they are.
+     *
+     * @return false if the write failed, the session is closed and nothing was sent
+     */
+    private static boolean send(Communicate pooled, Exchange<?> exchange) {
+        try {
+            exchange.send(pooled);
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            pooled.close();
+            return false;
+        }
+    }
+
+    private static void negotiateCompression(Communicate comm, String key) throws IOException {
+        Integer threshold = Integer.getInteger(COMPRESSION_THRESHOLD_PROPERTY);
+        if (threshold == null || Boolean.FALSE.equals(COMPRESSION_SUPPORT.get(key))) {
+            return;
+        }
+        COMPRESSION_SUPPORT.put(key, comm.negotiateCompression(threshold));
+    }
+
+    private static <T> T readSessionResponse(final Communicate comm, final Exchange<T> exchange, final String request, final String key) {
+        T response = exchange.read(comm);
+        if (request.startsWith(AgentRequestAction.RequestAction.HALT.toString())) {
+            comm.close();
+        } else {
+            SESSIONS.release(key, comm);
+        }
+        return response;
+    }
+
     @Override
     public JrdAgent addDelegatingAgent(JrdAgent agent) {
         return delegationCandidates.addDelegatingAgent(agent);
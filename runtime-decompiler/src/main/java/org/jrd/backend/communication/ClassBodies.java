@@ -0,0 +1,94 @@
+package org.jrd.backend.communication;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reply to BYTES and BYTES_MULTI requests with bodies of classes as raw bytes, so binary sessions pass them
+ * from the socket to their users without encoding them to Base64 and back.
+ * <p>
+ * Either the whole request failed, or each class has its body or its error.
+ */
+public final class ClassBodies {
+
+    private final String error;
+    private final Map<String, byte[]> bodies = new LinkedHashMap<>();
+    private final Map<String, String> errors = new LinkedHashMap<>();
+
+    private ClassBodies(String error) {
+        this.error = error;
+    }
+
+    ClassBodies() {
+        this(null);
+    }
+
+    /**
+     * @param errorLine error reply of the agent, or null if it did not reply at all
+     */
+    static ClassBodies failed(String errorLine) {
+        return new ClassBodies(errorLine == null ? ErrorCandidate.toError("Agent returned null response.") : errorLine);
+    }
+
+    /**
+     * Parses reply of text protocol, as {@link JrdAgent#submitRequest(String)} returns it.
+     * BYTES reply is the Base64 body, BYTES_MULTI reply is a line of "name base64Body" or "name ERROR message" per class.
+     *
+     * @param className class of BYTES request, null for BYTES_MULTI
+     */
+    static ClassBodies fromText(String reply, String className) {
+        if (reply == null || new ErrorCandidate(reply).isError()) {
+            return failed(reply);
+        }
+        ClassBodies result = new ClassBodies();
+        if (className != null) {
+            result.putBody(className, Base64.getDecoder().decode(reply));
+            return result;
+        }
+        for (String nameAndBody : reply.split("\n")) {
+            String[] pair = nameAndBody.split(" ", 2);
+            if (pair.length < 2) {
+                continue;
+            }
+            ErrorCandidate errorCandidate = new ErrorCandidate(pair[1]);
+            if (errorCandidate.isError()) {
+                result.putError(pair[0], errorCandidate.getErrorMessage());
+            } else {
+                result.putBody(pair[0], Base64.getDecoder().decode(pair[1]));
+            }
+        }
+        return result;
+    }
+
+    void putBody(String className, byte[] body) {
+        bodies.put(className, body);
+    }
+
+    void putError(String className, String message) {
+        errors.put(className, message);
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    /**
+     * @return error line of the agent, if the whole request failed
+     */
+    public String getError() {
+        return error;
+    }
+
+    public Map<String, byte[]> getBodies() {
+        return Collections.unmodifiableMap(bodies);
+    }
+
+    /**
+     * @return messages of classes whose bodies were not obtained
+     */
+    public Map<String, String> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+}
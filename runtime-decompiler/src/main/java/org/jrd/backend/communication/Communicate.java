@@ -3,15 +3,28 @@ package org.jrd.backend.communication;
 import org.jrd.backend.core.AgentRequestAction;
 import org.jrd.backend.core.Logger;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.Inflater;
 
 /**
  * This class opens a socket and contain methods for read and write to socket
@@ -23,8 +36,15 @@ public class Communicate {
     public static final String NO_VALLUE_DONE_RESULT = "DONE";
 
     private Socket commSocket;
+    private InputStream commInputStream;
+    private OutputStream commOutputStream;
     private BufferedReader commInput;
     private BufferedWriter commOutput;
+    private DataInputStream binaryInput;
+    private DataOutputStream binaryOutput;
+    private int lastRequestId;
+    private boolean broken;
+    private Inflater inflater;
 
     /**
      * Constructor creates a socket on given port and saves the streams into
@@ -41,7 +61,7 @@ public class Communicate {
         }
         InputStream is;
         try {
-            is = this.commSocket.getInputStream();
+            is = new BufferedInputStream(this.commSocket.getInputStream());
         } catch (IOException e) {
             Logger.getLogger().log(Logger.Level.ALL, e);
             try {
@@ -65,27 +85,135 @@ public class Communicate {
             return;
         }
 
+        this.commInputStream = is;
+        this.commOutputStream = os;
         this.commInput = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
         this.commOutput = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
     }
 
     /**
-     * Closes a socket.
+     * Asks the agent to switch this connection to the framed binary protocol.
+     * Old agents do not know the handshake, reply with error and close the connection.
+     * In such case this object is useless, and new one must be used with the text protocol.
+     *
+     * @return true if the agent confirmed the binary protocol
+     * @throws IOException if the write or read fails
+     */
+    public boolean negotiateBinary() throws IOException {
+        commOutputStream.write((BinaryFrames.HANDSHAKE + "\n").getBytes(StandardCharsets.UTF_8));
+        commOutputStream.flush();
+        String reply = BinaryFrames.readHandshakeLine(commInputStream);
+        if (BinaryFrames.HANDSHAKE.equals(reply)) {
+            this.binaryInput = new DataInputStream(commInputStream);
+            this.binaryOutput = new DataOutputStream(new BufferedOutputStream(commOutputStream));
+            return true;
+        }
+        Logger.getLogger().log(Logger.Level.DEBUG, "Agent refused binary protocol: " + reply);
+        return false;
+    }
+
+    public boolean isBinary() {
+        return binaryOutput != null;
+    }
+
+    /**
+     * Asks the agent to compress its replies, which pays off on slow links, eg. SSH tunnels.
+     * Must follow {@link #negotiateBinary()}. Old agents reply with error, and the session continues uncompressed.
+     *
+     * @param threshold replies (or their parts) smaller than this many bytes are sent uncompressed
+     * @return true if the agent will compress its following replies
+     * @throws IOException if the write fails
+     */
+    public boolean negotiateCompression(int threshold) throws IOException {
+        println(AgentRequestAction.RequestAction.COMPRESS + "\n" + threshold);
+        String reply = readResponse();
+        if (reply.startsWith("DEFLATE")) {
+            this.inflater = new Inflater();
+            return true;
+        }
+        Logger.getLogger().log(Logger.Level.DEBUG, "Agent refused compression: " + reply);
+        return false;
+    }
+
+    /**
+     * Checks whether this connection can serve another request, without touching the socket,
+     * so it costs nothing when a session is returned to the pool after every request.
+     *
+     * @return true if the connection is binary, its last reply was read completely and nothing more arrived
+     */
+    boolean isReusable() {
+        if (!isBinary() || broken || commSocket == null || commSocket.isClosed()) {
+            return false;
+        }
+        try {
+            return commInputStream.available() == 0; // otherwise garbage after the last reply
+        } catch (IOException ex) {
+            Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Polls the socket for a millisecond, so the agent closing an idle session is detected without any round-trip.
+     *
+     * @return true if the connection {@link #isReusable()} and the agent did not close it
+     */
+    boolean isOpen() {
+        if (!isReusable()) {
+            return false;
+        }
+        try {
+            commSocket.setSoTimeout(1);
+            try {
+                commInputStream.read();
+                return false; // closed by agent, or unexpected data
+            } catch (SocketTimeoutException ex) {
+                return true; // nothing to read, but still open
+            } finally {
+                commSocket.setSoTimeout(0);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Closes a socket. Binary session is first politely closed by {@link BinaryFrames#CLOSE} frame.
      */
     public void close() {
+        if (this.commSocket == null) {
+            return;
+        }
+        if (isBinary() && !broken) {
+            try {
+                BinaryFrames.writeFrame(binaryOutput, BinaryFrames.CLOSE, lastRequestId, Collections.emptyList());
+                binaryOutput.flush();
+            } catch (IOException e) {
+                Logger.getLogger().log(Logger.Level.DEBUG, e);
+            }
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
         try {
             this.commSocket.close(); // also closes the in/out streams
         } catch (IOException e) {
             Logger.getLogger().log(Logger.Level.DEBUG, e);
         } finally {
             this.commSocket = null;
+            this.commInputStream = null;
+            this.commOutputStream = null;
             this.commInput = null;
             this.commOutput = null;
+            this.binaryInput = null;
+            this.binaryOutput = null;
         }
     }
 
-    private String trimReadLine() throws IOException {
-        String line = this.commInput.readLine();
+    private static String trimReadLine(ResponseReader reader) throws IOException {
+        String line = reader.readLine();
 
         if (line == null) {
             String message = "Agent returned null response.";
@@ -101,13 +229,26 @@ public class Communicate {
      * Method that reads agent's response.
      * @return "ERROR" in case of fail or corresponding bytes or class names
      */
-    @SuppressWarnings("ReturnCount") // returns in switch cases
     public String readResponse() {
+        ResponseReader reader = isBinary() ? new BinaryResponseReader() : new TextResponseReader();
+        try {
+            return readResponse(reader);
+        } finally {
+            try {
+                reader.finish();
+            } catch (IOException ex) {
+                Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            }
+        }
+    }
+
+    @SuppressWarnings("ReturnCount") // returns in switch cases
+    private static String readResponse(ResponseReader reader) {
         String initLine;
 
         // read header
         try {
-            initLine = trimReadLine();
+            initLine = trimReadLine(reader);
         } catch (IOException ex) {
             Logger.getLogger().log(Logger.Level.DEBUG, ex);
             return ErrorCandidate.toError(ex);
@@ -133,22 +274,45 @@ public class Communicate {
         }
         switch (AgentRequestAction.RequestAction.fromString(initLine)) {
             case VERSION:
+            case CP_INDEX:
+            case COMPRESS:
+                try {
+                    String value = trimReadLine(reader);
+                    Logger.getLogger().log(Logger.Level.DEBUG, "Agent returned " + initLine + ": " + value);
+                    return value;
+                } catch (IOException ex) {
+                    Logger.getLogger().log(Logger.Level.ALL, ex);
+                    return ErrorCandidate.toError(ex);
+                }
             case BYTES:
                 try {
-                    String bytes = trimReadLine();
+                    String bytes = reader.readBase64();
+                    if (bytes == null) {
+                        return trimReadLine(reader);
+                    }
                     Logger.getLogger().log(Logger.Level.DEBUG, "Agent returned bytes: " + bytes);
                     return bytes;
                 } catch (IOException ex) {
                     Logger.getLogger().log(Logger.Level.ALL, ex);
                     return ErrorCandidate.toError(ex);
                 }
+            case BYTES_MULTI:
+                return readMultipleBytes(reader);
             case SEARCH_CLASSES:
             case OVERRIDES:
+            case METRICS:
+            case LOGS:
+            case CLASS_HASHES:
+            case CLASS_VERSIONS:
+            case METHODS:
+            case CLASS_EVENTS:
+            case CLASSES_SINCE:
+            case CLASSES_PAGE:
             case CLASSES:
                 StringBuilder str = new StringBuilder();
                 while (true) {
                     try {
-                        String s = this.commInput.readLine();
+                        String s = reader.readLine();
                         if (s == null) {
                             break;
                         }
@@ -169,15 +333,300 @@ public class Communicate {
         }
     }
 
+    /**
+     * Reads agent's reply to BYTES or BYTES_MULTI request, with bodies kept as raw bytes.
+     *
+     * @param className class of BYTES request, whose reply does not name it, null for BYTES_MULTI
+     * @return bodies and errors of classes, or error of the whole request
+     */
+    ClassBodies readBodies(String className) {
+        ResponseReader reader = isBinary() ? new BinaryResponseReader() : new TextResponseReader();
+        try {
+            return readBodies(reader, className);
+        } catch (IOException ex) {
+            Logger.getLogger().log(Logger.Level.ALL, ex);
+            return ClassBodies.failed(ErrorCandidate.toError(ex));
+        } finally {
+            try {
+                reader.finish();
+            } catch (IOException ex) {
+                Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            }
+        }
+    }
+
+    private static ClassBodies readBodies(ResponseReader reader, String className) throws IOException {
+        String initLine = trimReadLine(reader);
+        ClassBodies result = new ClassBodies();
+        if (AgentRequestAction.RequestAction.BYTES.toString().equals(initLine) && className != null) {
+            byte[] body = reader.readBytes();
+            if (body == null) {
+                return ClassBodies.failed(trimReadLine(reader));
+            }
+            result.putBody(className, body);
+        } else if (AgentRequestAction.RequestAction.BYTES_MULTI.toString().equals(initLine)) {
+            String name;
+            while ((name = reader.readLine()) != null) {
+                String status = trimReadLine(reader);
+                if (AgentRequestAction.RequestAction.BYTES.toString().equals(status)) {
+                    result.putBody(name.trim(), reader.readBytes());
+                } else {
+                    result.putError(name.trim(), new ErrorCandidate(status).getErrorMessage());
+                }
+            }
+        } else {
+            Logger.getLogger().log(Logger.Level.ALL, new RuntimeException("Agent did not return bytes, but: " + initLine));
+            return ClassBodies.failed(new ErrorCandidate(initLine).isError() ? initLine : ErrorCandidate.toError(initLine));
+        }
+        Logger.getLogger().log(Logger.Level.DEBUG, "Agent returned bytes of " + result.getBodies().keySet());
+        return result;
+    }
+
+    /**
+     * Reads pairs of class name and its body (or error) until the end of reply.
+     *
+     * @return lines of "name base64Body" or "name ERROR message"
+     */
+    private static String readMultipleBytes(ResponseReader reader) {
+        StringBuilder str = new StringBuilder();
+        try {
+            while (true) {
+                String className = reader.readLine();
+                if (className == null) {
+                    break;
+                }
+                String status = trimReadLine(reader);
+                if (AgentRequestAction.RequestAction.BYTES.toString().equals(status)) {
+                    str.append(className.trim()).append(' ').append(reader.readBase64()).append('\n');
+                } else {
+                    str.append(className.trim()).append(' ').append(status).append('\n');
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger().log(Logger.Level.ALL, ex);
+            return ErrorCandidate.toError(ex);
+        }
+        Logger.getLogger().log(Logger.Level.DEBUG, "Agent returned bytes of multiple classes");
+        return str.toString();
+    }
+
     /**
      * Sends a line with request to agent.
      * @param line "CLASSES" or "BYTES className"
      * @throws IOException if the write operation fails
      */
     public void println(String line) throws IOException {
+        if (isBinary()) {
+            writeRequest(toFields(line));
+            return;
+        }
         this.commOutput.write(line);
         this.commOutput.newLine();
         this.commOutput.flush();
     }
 
+    /**
+     * Sends request whose bodies are raw bytes, so they are not encoded to Base64 and decoded back to be sent.
+     * Text protocol gets them as Base64 lines.
+     *
+     * @param header lines of the request before the bodies, eg. "OVERWRITE\nclassName"
+     * @param trailer line following the bodies, or null if there is none
+     * @throws IOException if the write operation fails
+     */
+    void println(String header, List<byte[]> bodies, String trailer) throws IOException {
+        if (!isBinary()) {
+            List<String> lines = new ArrayList<>(bodies.size() + 2);
+            lines.add(header);
+            for (byte[] body : bodies) {
+                lines.add(Base64.getEncoder().encodeToString(body));
+            }
+            if (trailer != null) {
+                lines.add(trailer);
+            }
+            println(String.join("\n", lines));
+            return;
+        }
+        String[] lines = header.split("\n");
+        List<byte[]> fields = new ArrayList<>(lines.length + bodies.size() + 1);
+        for (String line : lines) {
+            fields.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        fields.addAll(bodies);
+        if (trailer != null) {
+            fields.add(trailer.getBytes(StandardCharsets.UTF_8));
+        }
+        writeRequest(fields);
+    }
+
+    private void writeRequest(List<byte[]> fields) throws IOException {
+        lastRequestId++;
+        try {
+            BinaryFrames.writeFrame(binaryOutput, BinaryFrames.REQUEST, lastRequestId, fields);
+            binaryOutput.flush();
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Splits the text request to its lines. Class and jar bodies, sent as Base64 lines in text protocol,
+     * are sent as raw bytes. Single body follows the name, multiple bodies follow the line of names.
+     */
+    private static List<byte[]> toFields(String request) {
+        String[] lines = request.split("\n");
+        List<byte[]> fields = new ArrayList<>(lines.length);
+        boolean hasBody = isCommandWithBody(lines[0]);
+        boolean hasBodies = AgentRequestAction.RequestAction.OVERWRITE_MULTI.toString().equals(lines[0]);
+        for (int i = 0; i < lines.length; i++) {
+            boolean isBody = hasBodies ? i >= 2 : hasBody && i == 2;
+            if (isBody) {
+                fields.add(Base64.getDecoder().decode(lines[i]));
+            } else {
+                fields.add(lines[i].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isCommandWithBody(String command) {
+        return AgentRequestAction.RequestAction.OVERWRITE.toString().equals(command) ||
+                AgentRequestAction.RequestAction.ADD_CLASS.toString().equals(command) ||
+                AgentRequestAction.RequestAction.ADD_JAR.toString().equals(command);
+    }
+
+    /**
+     * Source of agent's reply, independent on protocol.
+     */
+    private interface ResponseReader {
+        /**
+         * @return next line or textual field, null if reply ended
+         */
+        String readLine() throws IOException;
+
+        /**
+         * @return next binary item encoded as Base64, null if reply ended
+         */
+        String readBase64() throws IOException;
+
+        /**
+         * @return next binary item, null if reply ended
+         */
+        byte[] readBytes() throws IOException;
+
+        /**
+         * Consumes rest of the reply.
+         */
+        void finish() throws IOException;
+    }
+
+    private class TextResponseReader implements ResponseReader {
+
+        @Override
+        public String readLine() throws IOException {
+            return commInput.readLine();
+        }
+
+        @Override
+        public String readBase64() throws IOException {
+            String line = commInput.readLine();
+            return line == null ? null : line.trim();
+        }
+
+        @Override
+        public byte[] readBytes() throws IOException {
+            String line = readBase64();
+            return line == null ? null : Base64.getDecoder().decode(line);
+        }
+
+        @Override
+        public void finish() {
+            //end of text reply is end of stream
+        }
+    }
+
+    private class BinaryResponseReader implements ResponseReader {
+
+        private final Deque<byte[]> fields = new ArrayDeque<>();
+        private boolean ended;
+
+        private byte[] nextField() throws IOException {
+            while (fields.isEmpty() && !ended) {
+                readFrame();
+            }
+            return fields.poll();
+        }
+
+        private void readFrame() throws IOException {
+            int opcode = binaryInput.read();
+            if (opcode < 0) {
+                ended = true;
+                broken = true;
+                return;
+            }
+            List<byte[]> frameFields = new ArrayList<>();
+            int requestId;
+            try {
+                requestId = binaryInput.readInt();
+                int length = binaryInput.readInt();
+                if (opcode == BinaryFrames.DEFLATED) {
+                    readDeflatedFields(length, frameFields);
+                } else {
+                    BinaryFrames.readFields(binaryInput, length, frameFields);
+                }
+            } catch (IOException ex) {
+                ended = true;
+                broken = true;
+                throw ex;
+            }
+            if (requestId != lastRequestId) {
+                Logger.getLogger().log(Logger.Level.DEBUG, "Skipping frame of request " + requestId + ", expected " + lastRequestId);
+                return;
+            }
+            if (opcode == BinaryFrames.END) {
+                ended = true;
+            }
+            fields.addAll(frameFields);
+        }
+
+        /**
+         * Frames of skipped requests are inflated too, as all compressed frames are one stream.
+         */
+        private void readDeflatedFields(int length, List<byte[]> target) throws IOException {
+            if (inflater == null || length < Integer.BYTES) {
+                throw new IOException("Unexpected compressed frame of " + length + " bytes");
+            }
+            int originalLength = binaryInput.readInt();
+            byte[] deflated = new byte[length - Integer.BYTES];
+            binaryInput.readFully(deflated);
+            byte[] original = BinaryFrames.inflate(inflater, deflated, originalLength);
+            BinaryFrames.readFields(new DataInputStream(new ByteArrayInputStream(original)), originalLength, target);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            byte[] field = nextField();
+            return field == null ? null : new String(field, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String readBase64() throws IOException {
+            byte[] field = nextField();
+            return field == null ? null : Base64.getEncoder().encodeToString(field);
+        }
+
+        @Override
+        public byte[] readBytes() throws IOException {
+            return nextField();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            while (!ended) {
+                readFrame();
+            }
+            fields.clear();
+        }
+    }
+
 }
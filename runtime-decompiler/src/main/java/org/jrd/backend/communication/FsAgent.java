@@ -23,6 +23,7 @@ import java.util.Base64;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -133,6 +134,8 @@ public final class FsAgent implements DelegatingJrdAgent {
                 case BYTES:
                     String classNameForBytes = q[1];
                     return sendByteCode(classNameForBytes);
+                case BYTES_MULTI:
+                    return sendByteCodes(Arrays.copyOfRange(q, 1, q.length));
                 case OVERWRITE:
                     String classNameForOverwrite = q[1];
                     if (!originals.containsKey(classNameForOverwrite)) {
@@ -142,10 +145,33 @@ public final class FsAgent implements DelegatingJrdAgent {
                     String futureBody = q[2];
                     uploadByteCode(classNameForOverwrite, futureBody);
                     return Communicate.NO_VALUE_OK_RESULT;
+                case OVERWRITE_MULTI:
+                    uploadByteCodes(q[1].trim().split("\\s+"), Arrays.copyOfRange(q, 2, q.length));
+                    return Communicate.NO_VALUE_OK_RESULT;
                 case ADD_CLASS:
                     throw new RuntimeException("add class is not implemented in FS vm, and never will - where to add it?");
                 case ADD_JAR:
                     throw new RuntimeException("Add jar is not implemented in FS vm, and never will - where to add it?");
+                case CLASSES_SINCE:
+                    throw new RuntimeException("Changes of classes are not tracked in FS vm, classes never change there.");
+                case CLASSES_PAGE:
+                    throw new RuntimeException("Pages of classes are not implemented in FS vm, its class path is listed directly.");
+                case METRICS:
+                    throw new RuntimeException("Metrics are not implemented in FS vm, it costs no running VM anything.");
+                case COMPRESS:
+                    throw new RuntimeException("Compression is not implemented in FS vm, nothing is transferred.");
+                case CLASS_EVENTS:
+                    throw new RuntimeException("Class events are not implemented in FS vm, classes never change there.");
+                case LOGS:
+                    throw new RuntimeException("Logs are not implemented in FS vm, there is no agent to log anything.");
+                case CLASS_VERSIONS:
+                    return readClassVersions(q);
+                case CLASS_HASHES:
+                    throw new RuntimeException("Class hashes are not implemented in FS vm, bytes of classes are read directly.");
+                case METHODS:
+                    throw new RuntimeException("Methods are not implemented in FS vm, its classes are disassembled directly.");
+                case CP_INDEX:
+                    throw new RuntimeException("Constant pool index is not implemented in FS vm, classes are searched directly.");
                 case INIT_CLASS:
                     Logger.getLogger().log(Logger.Level.DEBUG, "Init class have no meaning in FS 'vm'");
                     return Communicate.NO_VALLUE_DONE_RESULT;
@@ -168,6 +194,32 @@ public final class FsAgent implements DelegatingJrdAgent {
         }
     }
 
+    /**
+     * Writes all the classes, or, if any of them fails, restores those already written.
+     */
+    private void uploadByteCodes(String[] classes, String[] bodies) {
+        if (classes.length != bodies.length) {
+            throw new RuntimeException("Got " + bodies.length + " bodies for " + classes.length + " classes");
+        }
+        Map<String, String> written = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < classes.length; i++) {
+                String previous = sendByteCode(classes[i]);
+                if (!originals.containsKey(classes[i])) {
+                    Logger.getLogger().log("backuping original bytecode of " + classes[i]);
+                    originals.put(classes[i], previous);
+                }
+                uploadByteCode(classes[i], bodies[i]);
+                written.put(classes[i], previous);
+            }
+        } catch (RuntimeException ex) {
+            for (Map.Entry<String, String> restore : written.entrySet()) {
+                uploadByteCode(restore.getKey(), restore.getValue());
+            }
+            throw ex;
+        }
+    }
+
     private String sendByteCode(String clazz) {
         try {
             String s = new OperateOnCp<String>(cp, suffix).operateOnCp(clazz, new ReadingCpOperator());
@@ -177,6 +229,52 @@ public final class FsAgent implements DelegatingJrdAgent {
         }
     }
 
+    private String sendByteCodes(String[] classes) {
+        StringBuilder sb = new StringBuilder();
+        for (String clazz : classes) {
+            String body;
+            try {
+                body = sendByteCode(clazz);
+            } catch (RuntimeException ex) {
+                body = ErrorCandidate.toError(ex);
+            }
+            sb.append(clazz).append(' ').append(body).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param q command, NAMES or REGEX, and class names or pattern
+     * @return the same reply as agent gives, "name major minor" or "name ERROR reason" for every class
+     */
+    private String readClassVersions(String[] q) throws IOException {
+        List<String> classes;
+        if ("REGEX".equals(q[1])) {
+            Pattern filter = Pattern.compile(q[2]);
+            classes = Arrays.stream(readClasses(false).split(";")).filter(c -> filter.matcher(c).matches()).collect(Collectors.toList());
+        } else {
+            classes = Arrays.asList(q).subList(2, q.length);
+        }
+        List<String> versions = new ArrayList<>(classes.size() + 1);
+        versions.add(AgentRequestAction.RequestAction.CLASS_VERSIONS.toString());
+        for (String clazz : classes) {
+            try {
+                String body = sendByteCode(clazz);
+                if (body == null) {
+                    versions.add(clazz + " ERROR not found on class path.");
+                    continue;
+                }
+                byte[] header = Base64.getDecoder().decode(body);
+                int minor = ((header[4] & 0xff) << 8) | (header[5] & 0xff);
+                int major = ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+                versions.add(clazz + " " + major + " " + minor);
+            } catch (RuntimeException ex) {
+                versions.add(clazz + " ERROR " + ex.getMessage());
+            }
+        }
+        return String.join(";", versions);
+    }
+
     private String readClasses(final boolean details) throws IOException {
         List<String> classes = new ArrayList<>();
         new OperateOnCp<Void>(cp, suffix).operateOnCp(null, new ListingCpOperator(classes, details));
@@ -1,7 +1,44 @@
 package org.jrd.backend.communication;
 
+import org.jrd.backend.core.AgentRequestAction;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
 public interface JrdAgent {
 
     String submitRequest(String request);
 
+    /**
+     * Sends request carrying bodies of classes or jar as raw bytes, eg. OVERWRITE.
+     * By default, the bodies are encoded to Base64 lines following the header, as text request expects them.
+     *
+     * @param header lines of the request before the bodies, eg. "OVERWRITE\nclassName"
+     * @param trailer line following the bodies, or null if there is none
+     */
+    default String submitRequest(String header, List<byte[]> bodies, String trailer) {
+        List<String> lines = new ArrayList<>(bodies.size() + 2);
+        lines.add(header);
+        for (byte[] body : bodies) {
+            lines.add(Base64.getEncoder().encodeToString(body));
+        }
+        if (trailer != null) {
+            lines.add(trailer);
+        }
+        return submitRequest(String.join("\n", lines));
+    }
+
+    /**
+     * Sends BYTES or BYTES_MULTI request, and returns the bodies as raw bytes.
+     * By default, the Base64 text reply is decoded.
+     *
+     * @param request "BYTES\nclassName" or "BYTES_MULTI\nclassNames"
+     */
+    default ClassBodies submitBodiesRequest(String request) {
+        String[] lines = request.split("\n", 2);
+        boolean single = AgentRequestAction.RequestAction.BYTES.toString().equals(lines[0]);
+        return ClassBodies.fromText(submitRequest(request), single && lines.length > 1 ? lines[1] : null);
+    }
+
 }
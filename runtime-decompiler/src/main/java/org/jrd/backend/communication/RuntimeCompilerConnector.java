@@ -20,12 +20,12 @@ import org.jrd.frontend.frame.main.decompilerview.DecompilationController;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class RuntimeCompilerConnector {
 
@@ -49,38 +49,44 @@ public class RuntimeCompilerConnector {
 
         @Override
         public Collection<IdentifiedBytecode> getClass(ClassIdentifier... classIdentifiers) {
+            List<String> names = Arrays.stream(classIdentifiers).map(ClassIdentifier::getFullName).collect(Collectors.toList());
+            Map<String, byte[]> obtained = Lib.obtainClassesBodies(vmInfo, names, vmManager);
             List<IdentifiedBytecode> results = new ArrayList<>(classIdentifiers.length);
             for (ClassIdentifier clazz : classIdentifiers) {
-                VmDecompilerStatus result;
-                try {
-                    result = Lib.obtainClass(vmInfo, clazz.getFullName(), vmManager);
-                } catch (Exception ex) {
-                    Logger.getLogger().log(Logger.Level.DEBUG, ex);
-                    Logger.getLogger().log(Logger.Level.DEBUG, "Attempting to init the class and load again");
-                    try {
-                        Lib.initClass(vmInfo, vmManager, clazz.getFullName(), System.err);
-                    } catch (RuntimeException e) {
-                        Logger.getLogger().log(Logger.Level.DEBUG, "Init of class '" + clazz.getFullName() + "' failed, not obtaining.");
+                byte[] body = obtained.get(clazz.getFullName());
+                if (body == null) {
+                    VmDecompilerStatus result = obtainNotYetLoadedClass(clazz.getFullName());
+                    if (result == null) {
                         continue;
                     }
-                    //if we are using host classes, the class may still by on host
-                    if (Config.getConfig().doUseHostSystemClasses()) {
-                        try {
-                            result = Lib.obtainClass(vmInfo, clazz.getFullName(), vmManager);
-                        } catch (Exception consumedExceptionOnUseHostClasses) {
-                            Logger.getLogger().log(consumedExceptionOnUseHostClasses);
-                            continue;
-                        }
-                    } else {
-                        result = Lib.obtainClass(vmInfo, clazz.getFullName(), vmManager);
-                    }
+                    body = result.getLoadedClassBody();
                 }
-                byte[] ba = Base64.getDecoder().decode(result.getLoadedClassBytes());
-                results.add(new IdentifiedBytecode(new ClassIdentifier(clazz.getFullName()), ba));
+                results.add(new IdentifiedBytecode(new ClassIdentifier(clazz.getFullName()), body));
             }
             return results;
         }
 
+        private VmDecompilerStatus obtainNotYetLoadedClass(String fqn) {
+            Logger.getLogger().log(Logger.Level.DEBUG, "Attempting to init the class " + fqn + " and load again");
+            try {
+                Lib.initClass(vmInfo, vmManager, fqn, System.err);
+            } catch (RuntimeException e) {
+                Logger.getLogger().log(Logger.Level.DEBUG, "Init of class '" + fqn + "' failed, not obtaining.");
+                return null;
+            }
+            //if we are using host classes, the class may still by on host
+            if (Config.getConfig().doUseHostSystemClasses()) {
+                try {
+                    return Lib.obtainClass(vmInfo, fqn, vmManager);
+                } catch (Exception consumedExceptionOnUseHostClasses) {
+                    Logger.getLogger().log(consumedExceptionOnUseHostClasses);
+                    return null;
+                }
+            } else {
+                return Lib.obtainClass(vmInfo, fqn, vmManager);
+            }
+        }
+
         @Override
         public List<String> getClassPathListing() {
             AgentRequestAction request = DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.CLASSES);
@@ -59,26 +59,37 @@ public interface ClassesAndMethodsProvider {
     }
 
     static String[] bytesToMethods(CompletionSettings settings, byte[] b) {
+        JavapDisassemblerWrapper javap = new JavapDisassemblerWrapper("");
+        String code = javap.decompile(b, new String[0]);
+        String[] lines = code.split("\n");
+        List<String> signatures = new ArrayList<>(lines.length);
+        for (String s : lines) {
+            if (s.startsWith("  ") && s.contains("(") && s.contains(")")) {
+                signatures.add(s.trim());
+            }
+        }
+        return signaturesToMethods(settings, signatures);
+    }
+
+    /**
+     * @param signatures signatures of methods and constructors, as javap prints them
+     */
+    static String[] signaturesToMethods(CompletionSettings settings, List<String> signatures) {
         boolean fqns = true;
         boolean names = true;
         if (settings instanceof JrdCompletionSettings) {
             fqns = ((JrdCompletionSettings) settings).isMethodFullSignatures();
             names = ((JrdCompletionSettings) settings).isMethodNames();
         }
-        JavapDisassemblerWrapper javap = new JavapDisassemblerWrapper("");
-        String code = javap.decompile(b, new String[0]);
-        String[] lines = code.split("\n");
-        List<String> r = new ArrayList<>(lines.length);
+        List<String> r = new ArrayList<>(signatures.size());
         Set<String> shortened = new HashSet<>();
-        for (String s : lines) {
-            if (s.startsWith("  ") && s.contains("(") && s.contains(")")) {
-                String[] mtrim = s.replaceAll("\\(.*", "").split("\\s+");
-                if (names) {
-                    shortened.add(mtrim[mtrim.length - 1] + "(..)");
-                }
-                if (fqns) {
-                    r.add(s.trim());
-                }
+        for (String s : signatures) {
+            String[] mtrim = s.replaceAll("\\(.*", "").split("\\s+");
+            if (names) {
+                shortened.add(mtrim[mtrim.length - 1] + "(..)");
+            }
+            if (fqns) {
+                r.add(s);
             }
         }
         r.addAll(shortened);
@@ -36,10 +36,13 @@
 
 package org.jrd.backend.core;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.jrd.backend.communication.DelegatingJrdAgent;
 import org.jrd.backend.data.VmInfo;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -50,20 +53,33 @@ import java.util.TreeMap;
 public class AgentRequestAction {
 
     private final Map<String, String> parameters;
+    private List<byte[]> bodies;
 
     public enum RequestAction {
         HELLO(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         VERSION(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         CLASSES(DelegatingJrdAgent.CommandDelegationOptions.ALL),
         SEARCH_CLASSES(DelegatingJrdAgent.CommandDelegationOptions.ALL),
+        CLASSES_SINCE(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         BYTES(DelegatingJrdAgent.CommandDelegationOptions.FIRST_OK),
+        BYTES_MULTI(DelegatingJrdAgent.CommandDelegationOptions.FIRST_OK),
         HALT(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         OVERWRITE(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        OVERWRITE_MULTI(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         ADD_CLASS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         ADD_JAR(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         INIT_CLASS(DelegatingJrdAgent.CommandDelegationOptions.ALL),
         OVERRIDES(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         REMOVE_OVERRIDES(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        CP_INDEX(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        METRICS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        CLASS_EVENTS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        LOGS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        CLASS_HASHES(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        CLASS_VERSIONS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        METHODS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        COMPRESS(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
+        CLASSES_PAGE(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY),
         CLASSES_WITH_INFO(DelegatingJrdAgent.CommandDelegationOptions.MAIN_ONLY);
 
         private final DelegatingJrdAgent.CommandDelegationOptions delegation;
@@ -92,6 +108,10 @@ public class AgentRequestAction {
     public static final String CLASS_NAME_PARAM = "class--name-param";
 
     public static final String CLASS_TO_OVERWRITE_BODY = "body-to-overwrite";
+    /**
+     * Which classes of added jar the agent initializes, the line following the jar body.
+     */
+    public static final String JAR_INIT_PARAM = "jar-init";
 
     public static
             AgentRequestAction
@@ -101,6 +121,21 @@ public class AgentRequestAction {
         return req;
     }
 
+    /**
+     * Request carrying the bodies as raw bytes, so they are not encoded to Base64 to be passed to the agent.
+     * The bodies are not copied, whole jars may be passed so.
+     *
+     * @param name name of the class or jar, or space separated names of classes
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "whole jars are passed so, copies would multiply them")
+    public static
+            AgentRequestAction
+            create(VmInfo vmInfo, String hostname, int listenPort, RequestAction action, String name, List<byte[]> bodies) {
+        AgentRequestAction req = create(vmInfo, hostname, listenPort, action, name);
+        req.bodies = Collections.unmodifiableList(bodies);
+        return req;
+    }
+
     public static AgentRequestAction create(VmInfo vmInfo, String hostname, int listenPort, RequestAction action, String name) {
         AgentRequestAction req = create(vmInfo, hostname, listenPort, action);
         req.setParameter(CLASS_NAME_PARAM, name);
@@ -124,4 +159,12 @@ public class AgentRequestAction {
     public String getParameter(String name) {
         return parameters.get(name);
     }
+
+    /**
+     * @return raw bodies of the request, or null if it has none or carries them as Base64 {@link #CLASS_TO_OVERWRITE_BODY}
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP", justification = "whole jars are passed so, copies would multiply them")
+    public List<byte[]> getBodies() {
+        return bodies;
+    }
 }
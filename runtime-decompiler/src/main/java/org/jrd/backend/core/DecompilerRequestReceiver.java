@@ -2,6 +2,7 @@ package org.jrd.backend.core;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.jrd.backend.communication.CallDecompilerAgent;
+import org.jrd.backend.communication.ClassBodies;
 import org.jrd.backend.communication.ErrorCandidate;
 import org.jrd.backend.communication.FsAgent;
 import org.jrd.backend.communication.JrdAgent;
@@ -13,8 +14,13 @@ import org.jrd.backend.data.VmManager;
 import org.jrd.backend.decompiling.PluginManager;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -26,6 +32,7 @@ public class DecompilerRequestReceiver {
     private VmManager vmManager;
 
     public static final String OK_RESPONSE = "ok";
+    private static final String UNKNOWN_COMMAND = "unknown command";
 
     public DecompilerRequestReceiver(VmManager vmManager) {
         this.attachManager = new AgentAttachManager(vmManager);
@@ -64,9 +71,8 @@ public class DecompilerRequestReceiver {
             case ADD_CLASS:
             case ADD_JAR:
             case OVERWRITE:
-                String classNameForOverwrite = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
-                String classFutureBody = request.getParameter(AgentRequestAction.CLASS_TO_OVERWRITE_BODY);
-                response = getOverwriteAction(action, hostname, port, vmId, vmPid, classNameForOverwrite, classFutureBody);
+            case OVERWRITE_MULTI:
+                response = getOverwriteAction(action, hostname, port, vmId, vmPid, request);
                 break;
             case REMOVE_OVERRIDES:
                 String patern = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
@@ -79,14 +85,34 @@ public class DecompilerRequestReceiver {
             case VERSION:
                 response = getVersionAction(hostname, port, vmId, vmPid);
                 break;
+            case METRICS:
+                response = getRawReplyAction(hostname, port, vmId, vmPid, RequestAction.METRICS.toString());
+                break;
+            case CP_INDEX:
+            case CLASS_EVENTS:
+            case LOGS:
+            case CLASS_HASHES:
+            case CLASS_VERSIONS:
+            case METHODS:
+                String parameters = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
+                response = getRawReplyAction(hostname, port, vmId, vmPid, action + "\n" + parameters);
+                break;
             case BYTES:
-                String className = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
-                response = getByteCodeAction(hostname, port, vmId, vmPid, className);
+                response = getByteCodeAction(hostname, port, vmId, vmPid, request.getParameter(AgentRequestAction.CLASS_NAME_PARAM));
+                break;
+            case BYTES_MULTI:
+                response = getByteCodesAction(hostname, port, vmId, vmPid, request.getParameter(AgentRequestAction.CLASS_NAME_PARAM));
                 break;
             case OVERRIDES:
+                response = getListAction(hostname, port, vmId, vmPid, action);
+                break;
             case CLASSES:
             case CLASSES_WITH_INFO:
-                response = getListAction(hostname, port, vmId, vmPid, action);
+                response = getIncrementalListAction(hostname, port, vmId, vmPid, action);
+                break;
+            case CLASSES_PAGE:
+                String query = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
+                response = getPageAction(hostname, port, vmId, vmPid, query);
                 break;
             case SEARCH_CLASSES:
                 String substringAndRegex = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
@@ -145,6 +171,36 @@ public class DecompilerRequestReceiver {
 
     }
 
+    private static final class AgentWithPort {
+        private final JrdAgent agent;
+        private final int port;
+
+        AgentWithPort(JrdAgent agent, int port) {
+            this.agent = agent;
+            this.port = port;
+        }
+    }
+
+    private AgentWithPort getAgent(String hostname, int listenPort, String vmId, int vmPid) {
+        return getAgent(hostname, listenPort, vmId, vmPid, attachManager, vmManager);
+    }
+
+    private static AgentWithPort getAgent(
+            String hostname, int listenPort, String vmId, int vmPid, AgentAttachManager attachManager, VmManager vmManager
+    ) {
+        if (listenPort >= 0 || vmPid >= 0) {
+            int actualListenPort = getPort(hostname, listenPort, vmId, vmPid, attachManager);
+            return new AgentWithPort(new CallDecompilerAgent(actualListenPort, hostname), actualListenPort);
+        }
+        VmInfo vmInfo = vmManager.findVmFromPid(vmId);
+        VmDecompilerStatus status = new VmDecompilerStatus();
+        status.setHostname("localhost");
+        status.setListenPort(vmPid);
+        status.setVmId(vmId);
+        vmInfo.setVmDecompilerStatus(status);
+        return new AgentWithPort(FsAgent.get(vmInfo), -1);
+    }
+
     private ResponseWithPort getResponse(String hostname, int listenPort, String vmId, int vmPid, String requestBody) {
         return getResponse(hostname, listenPort, vmId, vmPid, requestBody, attachManager, vmManager);
     }
@@ -153,21 +209,13 @@ public class DecompilerRequestReceiver {
             String hostname, int listenPort, String vmId, int vmPid, String requestBody, AgentAttachManager attachManager,
             VmManager vmManager
     ) {
-        int actualListenPort = -1;
-        JrdAgent nativeAgent;
-        if (listenPort >= 0 || vmPid >= 0) {
-            actualListenPort = getPort(hostname, listenPort, vmId, vmPid, attachManager);
-            nativeAgent = new CallDecompilerAgent(actualListenPort, hostname);
-        } else {
-            VmInfo vmInfo = vmManager.findVmFromPid(vmId);
-            VmDecompilerStatus status = new VmDecompilerStatus();
-            status.setHostname("localhost");
-            status.setListenPort(vmPid);
-            status.setVmId(vmId);
-            vmInfo.setVmDecompilerStatus(status);
-            nativeAgent = FsAgent.get(vmInfo);
-        }
-        String reply = nativeAgent.submitRequest(requestBody);
+        AgentWithPort agent = getAgent(hostname, listenPort, vmId, vmPid, attachManager, vmManager);
+        String reply = agent.agent.submitRequest(requestBody);
+        checkReply(reply, requestBody);
+        return new ResponseWithPort(reply, agent.port);
+    }
+
+    private static void checkReply(String reply, String requestBody) {
         ErrorCandidate errorCandidate = new ErrorCandidate(reply);
         if (errorCandidate.isError()) {
             throw new RuntimeException(
@@ -175,7 +223,31 @@ public class DecompilerRequestReceiver {
                             requestBody.replace("\n", "\\n") + "'."
             );
         }
-        return new ResponseWithPort(reply, actualListenPort);
+    }
+
+    private static void checkReply(ClassBodies reply, String requestBody) {
+        if (reply.isError()) {
+            checkReply(reply.getError(), requestBody);
+            throw new RuntimeException("Agent returned '" + reply.getError() + "' for request '" + requestBody.replace("\n", "\\n") + "'.");
+        }
+    }
+
+    /**
+     * Bodies given as raw bytes are passed to the agent as they are, see {@link AgentRequestAction#getBody()}.
+     */
+    private String getOverwriteAction(
+            RequestAction action, String hostname, int listenPort, String vmId, int vmPid, AgentRequestAction request
+    ) {
+        String className = request.getParameter(AgentRequestAction.CLASS_NAME_PARAM);
+        List<byte[]> bodies = request.getBodies();
+        if (bodies != null) {
+            String header = action + "\n" + className;
+            String trailer = request.getParameter(AgentRequestAction.JAR_INIT_PARAM);
+            return getOverwriteAction(hostname, listenPort, vmId, vmPid, header, bodies, trailer);
+        }
+        return getOverwriteAction(
+                action, hostname, listenPort, vmId, vmPid, className, request.getParameter(AgentRequestAction.CLASS_TO_OVERWRITE_BODY)
+        );
     }
 
     private String getOverwriteAction(
@@ -196,6 +268,29 @@ public class DecompilerRequestReceiver {
         return OK_RESPONSE;
     }
 
+    /**
+     * The bodies are passed to the agent as raw bytes, binary protocol sends them so.
+     *
+     * @param trailer line following the bodies, or null
+     */
+    private String getOverwriteAction(
+            String hostname, int listenPort, String vmId, int vmPid, String header, List<byte[]> newBodies, String trailer
+    ) {
+        try {
+            AgentWithPort agent = getAgent(hostname, listenPort, vmId, vmPid);
+            checkReply(agent.agent.submitRequest(header, newBodies, trailer), header);
+            VmDecompilerStatus status = vmManager.getVmInfoByID(vmId).getVmDecompilerStatus();
+            status.setHostname(hostname);
+            status.setListenPort(agent.port);
+            status.setVmId(vmId);
+            vmManager.getVmInfoByID(vmId).replaceVmDecompilerStatus(status);
+        } catch (Exception ex) {
+            Logger.getLogger().log(Logger.Level.ALL, ex);
+            return TopLevelErrorCandidate.toError(ex);
+        }
+        return OK_RESPONSE;
+    }
+
     private String getVersionAction(String hostname, int listenPort, String vmId, int vmPid) {
         try {
             ResponseWithPort reply = getResponse(hostname, listenPort, vmId, vmPid, RequestAction.VERSION + "\n");
@@ -212,6 +307,26 @@ public class DecompilerRequestReceiver {
         return OK_RESPONSE;
     }
 
+    /**
+     * Replies which are not classes to be parsed and sorted (metrics, statuses, events) are stored as they came,
+     * lists of them ';' separated.
+     */
+    private String getRawReplyAction(String hostname, int listenPort, String vmId, int vmPid, String requestLines) {
+        try {
+            ResponseWithPort reply = getResponse(hostname, listenPort, vmId, vmPid, requestLines);
+            VmDecompilerStatus status = vmManager.getVmInfoByID(vmId).getVmDecompilerStatus();
+            status.setHostname(hostname);
+            status.setListenPort(reply.port);
+            status.setVmId(vmId);
+            status.setLoadedClassBytes(reply.response);
+            vmManager.getVmInfoByID(vmId).replaceVmDecompilerStatus(status);
+        } catch (Exception ex) {
+            Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            return TopLevelErrorCandidate.toError(ex);
+        }
+        return OK_RESPONSE;
+    }
+
     private String getRemoveOverrideAction(String hostname, int listenPort, String vmId, int vmPid, String fqn) {
         return getNoReplyValue(hostname, listenPort, vmId, vmPid, fqn, RequestAction.REMOVE_OVERRIDES);
     }
@@ -235,14 +350,43 @@ public class DecompilerRequestReceiver {
         return OK_RESPONSE;
     }
 
+    /**
+     * Bodies are kept as raw bytes, as binary protocol sends them, see {@link VmDecompilerStatus#getLoadedClassBody()}.
+     */
     private String getByteCodeAction(String hostname, int listenPort, String vmId, int vmPid, String className) {
         try {
-            ResponseWithPort reply = getResponse(hostname, listenPort, vmId, vmPid, RequestAction.BYTES + "\n" + className);
+            String request = RequestAction.BYTES + "\n" + className;
+            AgentWithPort agent = getAgent(hostname, listenPort, vmId, vmPid);
+            ClassBodies reply = agent.agent.submitBodiesRequest(request);
+            checkReply(reply, request);
+            byte[] body = reply.getBodies().get(className);
+            if (body == null) {
+                throw new RuntimeException("Agent did not return body of " + className + ".");
+            }
             VmDecompilerStatus status = vmManager.getVmInfoByID(vmId).getVmDecompilerStatus();
             status.setHostname(hostname);
-            status.setListenPort(reply.port);
+            status.setListenPort(agent.port);
             status.setVmId(vmId);
-            status.setLoadedClassBytes(reply.response);
+            status.setLoadedClassBody(body);
+            vmManager.getVmInfoByID(vmId).replaceVmDecompilerStatus(status);
+        } catch (Exception ex) {
+            Logger.getLogger().log(Logger.Level.ALL, ex);
+            return TopLevelErrorCandidate.toError(ex);
+        }
+        return OK_RESPONSE;
+    }
+
+    private String getByteCodesAction(String hostname, int listenPort, String vmId, int vmPid, String classNames) {
+        try {
+            String request = RequestAction.BYTES_MULTI + "\n" + classNames;
+            AgentWithPort agent = getAgent(hostname, listenPort, vmId, vmPid);
+            ClassBodies reply = agent.agent.submitBodiesRequest(request);
+            checkReply(reply, request);
+            VmDecompilerStatus status = vmManager.getVmInfoByID(vmId).getVmDecompilerStatus();
+            status.setHostname(hostname);
+            status.setListenPort(agent.port);
+            status.setVmId(vmId);
+            status.setLoadedClassesBodies(reply.getBodies(), reply.getErrors());
             vmManager.getVmInfoByID(vmId).replaceVmDecompilerStatus(status);
         } catch (Exception ex) {
             Logger.getLogger().log(Logger.Level.ALL, ex);
@@ -278,6 +422,171 @@ public class DecompilerRequestReceiver {
         return OK_RESPONSE;
     }
 
+    /**
+     * Asks the agent only for classes loaded and unloaded since the previous listing, and applies them to it.
+     * File system VMs and agents which do not know the request are asked for full listing.
+     * Any other failure is reported as it is, and the next listing asks for changes again.
+     */
+    private String getIncrementalListAction(String hostname, int listenPort, String vmId, int vmPid, RequestAction type) {
+        VmDecompilerStatus status = vmManager.getVmInfoByID(vmId).getVmDecompilerStatus();
+        boolean withInfo = type == RequestAction.CLASSES_WITH_INFO;
+        boolean fsVm = listenPort < 0 && vmPid < 0;
+        if (fsVm || !status.isClassesSinceSupported()) {
+            return getListAction(hostname, listenPort, vmId, vmPid, type);
+        }
+        String token = status.getListedClassesToken(withInfo);
+        // old agents ignore the dict word and send plain details
+        String request = RequestAction.CLASSES_SINCE + "\n" + (token == null ? "none" : token) + (withInfo ? " dict true" : "");
+        try {
+            AgentWithPort agent = getAgent(hostname, listenPort, vmId, vmPid);
+            String reply = agent.agent.submitRequest(request);
+            if (isUnknownCommand(reply)) {
+                Logger.getLogger().log(Logger.Level.DEBUG, "Agent does not list changes of classes, listing all of them. " + reply);
+                status.setClassesSinceSupported(false);
+                return getListAction(hostname, listenPort, vmId, vmPid, type);
+            }
+            checkReply(reply, request);
+            int headerEnd = reply.indexOf(';');
+            String[] header = (headerEnd < 0 ? reply : reply.substring(0, headerEnd)).split(" ");
+            String[] items = decodeDictionary(headerEnd < 0 ? new String[0] : reply.substring(headerEnd + 1).split(";"));
+            ClassInfo[] arrayOfClasses;
+            if ("DELTA".equals(header[0]) && token != null) {
+                arrayOfClasses = applyChanges(status.getListedClasses(), items);
+            } else {
+                arrayOfClasses = parseClasses(String.join(";", items));
+                Arrays.sort(arrayOfClasses, new ClassesComparator());
+            }
+            status.setHostname(hostname);
+            status.setListenPort(agent.port);
+            status.setVmId(vmId);
+            status.setListedClasses(arrayOfClasses, header[1], withInfo);
+            status.setLoadedClasses(arrayOfClasses);
+            vmManager.getVmInfoByID(vmId).replaceVmDecompilerStatus(status);
+        } catch (Exception ex) {
+            Logger.getLogger().log(Logger.Level.ALL, ex);
+            return TopLevelErrorCandidate.toError(ex);
+        }
+        return OK_RESPONSE;
+    }
+
+    /**
+     * @return true if the reply is the error of agent which does not know the command at all
+     */
+    public static boolean isUnknownCommand(String reply) {
+        if (reply == null) {
+            return false;
+        }
+        ErrorCandidate errorCandidate = new ErrorCandidate(reply);
+        return errorCandidate.isError() && errorCandidate.getErrorMessage().contains(UNKNOWN_COMMAND);
+    }
+
+    /**
+     * Lists the page of classes matching the query, filtered by the agent. The first item of the reply is "PAGE total".
+     * Unlike full listing, the page is not remembered as the listing to which later changes are applied.
+     */
+    private String getPageAction(String hostname, int listenPort, String vmId, int vmPid, String query) {
+        try {
+            ResponseWithPort reply = getResponse(hostname, listenPort, vmId, vmPid, RequestAction.CLASSES_PAGE + "\n" + query);
+            int headerEnd = reply.response.indexOf(';');
+            String header = headerEnd < 0 ? reply.response : reply.response.substring(0, headerEnd);
+            if (!header.startsWith("PAGE ")) {
+                throw new RuntimeException("Agent did not send page of classes, but " + header);
+            }
+            String[] items = decodeDictionary(headerEnd < 0 ? new String[0] : reply.response.substring(headerEnd + 1).split(";"));
+            ClassInfo[] arrayOfClasses = parseClasses(String.join(";", items));
+            Arrays.sort(arrayOfClasses, new ClassesComparator());
+            Logger.getLogger().log(Logger.Level.DEBUG, "Listed " + arrayOfClasses.length + " of " + header.substring(5) + " classes.");
+
+            VmDecompilerStatus status = vmManager.getVmInfoByID(vmId).getVmDecompilerStatus();
+            status.setHostname(hostname);
+            status.setListenPort(reply.port);
+            status.setVmId(vmId);
+            status.setLoadedClasses(arrayOfClasses);
+            vmManager.getVmInfoByID(vmId).replaceVmDecompilerStatus(status);
+        } catch (Exception ex) {
+            Logger.getLogger().log(Logger.Level.ALL, ex);
+            return TopLevelErrorCandidate.toError(ex);
+        }
+        return OK_RESPONSE;
+    }
+
+    /**
+     * @param items classes, possibly with "|id|text" items of dictionary, whose ids their location and class loader reference
+     * @return classes with ids replaced by texts, without the dictionary items
+     */
+    static String[] decodeDictionary(String[] items) {
+        Map<String, String> dictionary = new HashMap<>();
+        List<String> classes = new ArrayList<>(items.length);
+        for (String item : items) {
+            int idEnd = item.indexOf('|', 1);
+            if (item.startsWith("|") && idEnd > 0) {
+                dictionary.put(item.substring(1, idEnd), item.substring(idEnd + 1));
+            } else {
+                classes.add(item);
+            }
+        }
+        if (dictionary.isEmpty()) {
+            return classes.toArray(new String[0]);
+        }
+        String[] decoded = new String[classes.size()];
+        for (int i = 0; i < decoded.length; i++) {
+            String[] fields = classes.get(i).split("\\|");
+            for (int field = 1; field < fields.length; field++) {
+                fields[field] = dictionary.getOrDefault(fields[field], fields[field]);
+            }
+            decoded[i] = String.join("|", fields);
+        }
+        return decoded;
+    }
+
+    /**
+     * Classes of the same name may be loaded by several class loaders, so the listing may hold the name more times.
+     * Each load is added as a new item. Unload is described the same way as the load was, and removes only the item
+     * with the same name, location and class loader, never other class of the same name.
+     *
+     * @param listed classes sorted by name
+     * @param changes "+class" for loaded and "-class" for unloaded class
+     * @return classes sorted by name with changes applied
+     */
+    static ClassInfo[] applyChanges(ClassInfo[] listed, String[] changes) {
+        ClassesComparator comparator = new ClassesComparator();
+        List<ClassInfo> merged = new ArrayList<>(Arrays.asList(listed));
+        for (String change : changes) {
+            if (change.length() < 2) {
+                continue;
+            }
+            ClassInfo changed = new ClassInfo(change.substring(1));
+            int index = Collections.binarySearch(merged, changed, comparator);
+            if (change.charAt(0) == '+') {
+                merged.add(index >= 0 ? index : -index - 1, changed);
+            } else if (index >= 0) {
+                int same = findSameClass(merged, index, changed);
+                if (same >= 0) {
+                    merged.remove(same);
+                }
+            }
+        }
+        return merged.toArray(new ClassInfo[0]);
+    }
+
+    /**
+     * @param index index of any item with the name of the class
+     * @return index of item with the same name, location and class loader, or -1 if there is none
+     */
+    private static int findSameClass(List<ClassInfo> sorted, int index, ClassInfo clazz) {
+        int first = index;
+        while (first > 0 && sorted.get(first - 1).equals(clazz)) {
+            first--;
+        }
+        for (int i = first; i < sorted.size() && sorted.get(i).equals(clazz); i++) {
+            ClassInfo candidate = sorted.get(i);
+            if (candidate.getLocation().equals(clazz.getLocation()) && candidate.getClassLoader().equals(clazz.getClassLoader())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private String getHaltAction(String hostname, int listenPort, String vmId, int vmPid) {
         return getHaltAction(hostname, listenPort, vmId, vmPid, attachManager, vmManager, true);
     }
@@ -1,6 +1,10 @@
 package org.jrd.backend.core;
 
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class stores all information about the state of decompiler plugin on
@@ -15,6 +19,13 @@ public class VmDecompilerStatus {
     private int listenPort;
     private ClassInfo[] loadedClasses;
     private String loadedClassBytes;
+    private byte[] loadedClassBody;
+    private Map<String, byte[]> loadedClassesBodies;
+    private Map<String, String> loadedClassesErrors;
+    private ClassInfo[] listedClasses;
+    private String listedClassesToken;
+    private boolean listedClassesWithInfo;
+    private boolean classesSinceSupported;
 
     public VmDecompilerStatus() {
         this(false);
@@ -22,7 +33,11 @@ public class VmDecompilerStatus {
 
     public VmDecompilerStatus(boolean reused) {
         this.loadedClassBytes = "";
+        this.loadedClassesBodies = Collections.emptyMap();
+        this.loadedClassesErrors = Collections.emptyMap();
         this.loadedClasses = new ClassInfo[]{};
+        this.listedClasses = new ClassInfo[]{};
+        this.classesSinceSupported = true;
         this.reused = reused;
     }
 
@@ -54,10 +69,29 @@ public class VmDecompilerStatus {
         this.loadedClasses = Arrays.copyOf(loadedClassNames, loadedClassNames.length);
     }
 
+    /**
+     * @return reply of last request, which is base64 encoded body for bytes request
+     */
     public String getLoadedClassBytes() {
+        if (loadedClassBytes == null) {
+            loadedClassBytes = Base64.getEncoder().encodeToString(loadedClassBody);
+        }
         return loadedClassBytes;
     }
 
+    /**
+     * Body of class obtained by last bytes request. Agents send it raw over binary protocol, and it is kept so,
+     * and encoded only if somebody asks for {@link #getLoadedClassBytes()}.
+     *
+     * @return raw body of class obtained by last bytes request
+     */
+    public byte[] getLoadedClassBody() {
+        if (loadedClassBody == null) {
+            loadedClassBody = Base64.getDecoder().decode(loadedClassBytes);
+        }
+        return Arrays.copyOf(loadedClassBody, loadedClassBody.length);
+    }
+
     public String[] getLoadedClassNames() {
         return Arrays.stream(loadedClasses).map(ClassInfo::getName).toArray(String[]::new);
     }
@@ -68,6 +102,60 @@ public class VmDecompilerStatus {
 
     public void setLoadedClassBytes(String value) {
         loadedClassBytes = value;
+        loadedClassBody = null;
+    }
+
+    public void setLoadedClassBody(byte[] value) {
+        loadedClassBody = Arrays.copyOf(value, value.length);
+        loadedClassBytes = null;
+    }
+
+    /**
+     * @return raw bodies of classes obtained by last multi class bytes request, without those which failed
+     */
+    public Map<String, byte[]> getLoadedClassesBodies() {
+        return Collections.unmodifiableMap(loadedClassesBodies);
+    }
+
+    /**
+     * @return error messages of classes which failed in last multi class bytes request
+     */
+    public Map<String, String> getLoadedClassesErrors() {
+        return Collections.unmodifiableMap(loadedClassesErrors);
+    }
+
+    public void setLoadedClassesBodies(Map<String, byte[]> bodies, Map<String, String> errors) {
+        loadedClassesBodies = new LinkedHashMap<>(bodies);
+        loadedClassesErrors = new LinkedHashMap<>(errors);
+    }
+
+    /**
+     * Remembers complete listing of classes, to which the agent's changes since the token can be applied later.
+     * Unlike {@link #setLoadedClasses}, it is not overwritten by searches.
+     */
+    public void setListedClasses(ClassInfo[] classes, String token, boolean withInfo) {
+        listedClasses = Arrays.copyOf(classes, classes.length);
+        listedClassesToken = token;
+        listedClassesWithInfo = withInfo;
+    }
+
+    public ClassInfo[] getListedClasses() {
+        return Arrays.copyOf(listedClasses, listedClasses.length);
+    }
+
+    /**
+     * @return token of the remembered listing, or null if there is none with (or without) details as requested
+     */
+    public String getListedClassesToken(boolean withInfo) {
+        return listedClassesWithInfo == withInfo ? listedClassesToken : null;
+    }
+
+    public boolean isClassesSinceSupported() {
+        return classesSinceSupported;
+    }
+
+    public void setClassesSinceSupported(boolean supported) {
+        classesSinceSupported = supported;
     }
 
     public boolean isReused() {
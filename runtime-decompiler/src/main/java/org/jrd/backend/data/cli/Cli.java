@@ -14,13 +14,18 @@ import org.jrd.backend.data.cli.utils.Saving;
 import org.jrd.backend.data.cli.workers.AddClasses;
 import org.jrd.backend.data.cli.workers.Api;
 import org.jrd.backend.data.cli.workers.AttachDetach;
+import org.jrd.backend.data.cli.workers.ClassEvents;
 import org.jrd.backend.data.cli.workers.Classes;
 import org.jrd.backend.data.cli.workers.Compile;
+import org.jrd.backend.data.cli.workers.ConstantPoolIndex;
 import org.jrd.backend.data.cli.workers.Decompile;
+import org.jrd.backend.data.cli.workers.Hashes;
 import org.jrd.backend.data.cli.workers.InitClass;
 import org.jrd.backend.data.cli.workers.ListAgents;
 import org.jrd.backend.data.cli.workers.ListJvms;
 import org.jrd.backend.data.cli.workers.ListPlugins;
+import org.jrd.backend.data.cli.workers.Logs;
+import org.jrd.backend.data.cli.workers.Metrics;
 import org.jrd.backend.data.cli.workers.Overrides;
 import org.jrd.backend.data.cli.workers.OverwriteAndUpload;
 import org.jrd.backend.data.cli.workers.Patch;
@@ -241,6 +246,26 @@ public class Cli {
                     VmInfo vmInfo6 = new InitClass(filteredArgs, vmManager).init();
                     operatedOn.add(vmInfo6);
                     break;
+                case METRICS:
+                    VmInfo vmInfoMetrics = new Metrics(filteredArgs, vmManager).metrics();
+                    operatedOn.add(vmInfoMetrics);
+                    break;
+                case CLASS_EVENTS:
+                    VmInfo vmInfoClassEvents = new ClassEvents(filteredArgs, vmManager).dump();
+                    operatedOn.add(vmInfoClassEvents);
+                    break;
+                case LOGS:
+                    VmInfo vmInfoLogs = new Logs(filteredArgs, vmManager).logs();
+                    operatedOn.add(vmInfoLogs);
+                    break;
+                case HASHES:
+                    VmInfo vmInfoHashes = new Hashes(filteredArgs, vmManager).hashes();
+                    operatedOn.add(vmInfoHashes);
+                    break;
+                case CP_INDEX:
+                    VmInfo vmInfoCpIndex = new ConstantPoolIndex(filteredArgs, vmManager).constantPoolIndex();
+                    operatedOn.add(vmInfoCpIndex);
+                    break;
                 case ATTACH:
                     VmInfo vmInfo7 = new AttachDetach(filteredArgs, vmManager).attach();
                     operatedOn.add(vmInfo7);
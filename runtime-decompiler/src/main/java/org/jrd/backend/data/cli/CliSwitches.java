@@ -34,6 +34,11 @@ public final class CliSwitches {
     public static final String ADD_CLASSES = "-addclasses";
     public static final String PATCH = "-patch";
     public static final String INIT = "-init";
+    public static final String CP_INDEX = "-cpindex";
+    public static final String METRICS = "-metrics";
+    public static final String CLASS_EVENTS = "-classevents";
+    public static final String LOGS = "-logs";
+    public static final String HASHES = "-hashes";
     public static final String AGENT = "-agent";
     public static final String ATTACH = "-attach";
     public static final String DETACH = "-detach";
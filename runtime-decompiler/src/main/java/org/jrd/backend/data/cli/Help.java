@@ -52,6 +52,11 @@ public final class Help {
     public static final String ADD_JAR_FORMAT = ADD_JAR + " <PUC> <JAR FILE> [" + BOOT_CLASS_LOADER + "]";
     public static final String PATCH_FORMAT = PATCH + " <PUC>  <PLUGIN>xor<ADDITIONAL-SOURCE/CLASS-PATH (" + HEX + ") (" + REVERT + ")";
     public static final String INIT_FORMAT = INIT + " <PUC> <FQN>";
+    public static final String CP_INDEX_FORMAT = CP_INDEX + " <PUC> enable|drop|status";
+    public static final String METRICS_FORMAT = METRICS + " <PUC>";
+    public static final String CLASS_EVENTS_FORMAT = CLASS_EVENTS + " <PUC> <SECONDS> [LOADED,REDEFINED,OVERRIDE_SET,OVERRIDE_REMOVED]";
+    public static final String LOGS_FORMAT = LOGS + " <PUC> [SINCE] [ERROR|WARN|INFO|DEBUG]";
+    public static final String HASHES_FORMAT = HASHES + BASE_SHARED_FORMAT;
     public static final String AGENT_FORMAT =
             AGENT + " <" + AgentLiveliness.class.getSimpleName() + "> " + "<" + AgentLoneliness.class.getSimpleName() + "> " + "<port>";
     public static final String ATTACH_FORMAT = ATTACH + " <PID>";
@@ -117,6 +122,17 @@ public final class Help {
             " -savelike fqn can be used to save patched sources";
     private static final String INIT_TEXT = "Try to initialize a class in a running JVM (has no effect in FS VMs). " +
             "Because class loading is lazy, the class you need might be missing, eg. java.lang.Override.";
+    private static final String CP_INDEX_TEXT = "Enable, drop or show status of agent's index of constant pool strings. " +
+            "Once enabled, first " + SEARCH + " builds it and next searches only look it up (has no effect in FS VMs).";
+    private static final String METRICS_TEXT = "Print what the agent costs the running JVM: connections, transferred bytes, " +
+            "latencies of commands and of class retransformations, size of overrides. Counters, gauges and histograms " +
+            "recorded by patched code through org.jrd.agent.api.Metrics follow, prefixed by api.";
+    private static final String CLASS_EVENTS_TEXT = "Print classes loaded, redefined and overridden in the running JVM " +
+            "during given seconds, once they are over. Kinds of events can be limited by comma separated list.";
+    private static final String LOGS_TEXT = "Print what the agent logged in the running JVM, it keeps the last few thousands records. " +
+            "Pass NEXT of the previous call as SINCE to get only newer ones. Level limits how verbose records are printed.";
+    private static final String HASHES_TEXT = "Print SHA-256 of bytecode of each matching class, as " + BYTES + " would print it. " +
+            "The agent caches them until the class is redefined, so classes can be compared with a build or another JVM cheaply.";
     static final String ATTACH_TEXT = "Will only attach the agent to selected pid. Prints out the port for future usage.";
     public static final String AGENT_TEXT =
             "Control how agent is attached. Have sense only in operations attaching to PID. Possible values of " +
@@ -196,12 +212,19 @@ public final class Help {
         ALL_OPTIONS.put(ADD_CLASSES_FORMAT1, ADD_CLASSES_TEXT1);
         ALL_OPTIONS.put(ADD_CLASSES_FORMAT2, ADD_CLASSES_TEXT2);
         ALL_OPTIONS.put(INIT_FORMAT, INIT_TEXT);
+        ALL_OPTIONS.put(CP_INDEX_FORMAT, CP_INDEX_TEXT);
+        ALL_OPTIONS.put(METRICS_FORMAT, METRICS_TEXT);
+        ALL_OPTIONS.put(CLASS_EVENTS_FORMAT, CLASS_EVENTS_TEXT);
+        ALL_OPTIONS.put(LOGS_FORMAT, LOGS_TEXT);
+        ALL_OPTIONS.put(HASHES_FORMAT, HASHES_TEXT);
         ALL_OPTIONS.put(ATTACH_FORMAT, ATTACH_TEXT);
         ALL_OPTIONS.put(AGENT_FORMAT, AGENT_TEXT);
         ALL_OPTIONS.put(DETACH_FORMAT, DETACH_TEXT);
         ALL_OPTIONS.put(API_FORMAT, API_TEXT);
         ALL_OPTIONS.put(COMPLETION_FORMAT, COMPLETION_TEXT);
+    }
 
+    static {
         SAVING_OPTIONS.put(SAVE_AS_FORMAT, SAVE_AS_TEXT);
         SAVING_OPTIONS.put(SAVE_LIKE_FORMAT, SAVE_LIKE_TEXT);
 
@@ -220,7 +243,8 @@ public final class Help {
     }
 
     private static final String[] UNSAVABLE_OPTIONS = new String[]{HELP, H, COMPLETION, REVERT, HEX, BOOT_CLASS_LOADER, SYSTEM_CLASS_LOADER,
-            OVERWRITE, INIT, REMOVE_OVERRIDES, ADD_CLASS, ADD_CLASSES, ADD_JAR, LIST_OVERRIDES_FORMAT};
+            OVERWRITE, INIT, CP_INDEX, METRICS, CLASS_EVENTS, LOGS, HASHES, REMOVE_OVERRIDES, ADD_CLASS, ADD_CLASSES, ADD_JAR,
+            LIST_OVERRIDES_FORMAT};
     private static final String[] SAVABLE_OPTIONS = new String[]{LIST_CLASSES, LIST_CLASSESDETAILS, BYTES, BASE64, DEPS, COMPILE, DECOMPILE,
             PATCH, API, LIST_JVMS, LIST_PLUGINS, LIST_CLASSESBYTECODEVERSIONS, LIST_CLASSESDETAILSBYTECODEVERSIONS, SEARCH};
 
@@ -1,7 +1,6 @@
 package org.jrd.backend.data.cli;
 
 import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
-import org.jrd.backend.communication.ErrorCandidate;
 import org.jrd.backend.core.AgentAttachManager;
 import org.jrd.backend.core.AgentRequestAction;
 import org.jrd.backend.core.ClassInfo;
@@ -27,10 +26,17 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -170,12 +176,7 @@ public final class Lib {
                         .map(a -> new ClassInfo(a, null, null)).collect(Collectors.toList());
             }
         } else {
-            if (details) {
-                allClasses = Arrays.stream(obtainClassesDetails(vmInfo, vmManager)).collect(Collectors.toList());
-            } else {
-                allClasses =
-                        Arrays.stream(obtainClasses(vmInfo, vmManager)).map(a -> new ClassInfo(a, null, null)).collect(Collectors.toList());
-            }
+            allClasses = obtainClassesMatchingAny(vmInfo, vmManager, filter, details);
         }
         List<ClassInfo> filteredClasses = new ArrayList<>(allClasses.size());
         for (ClassInfo clazz : allClasses) {
@@ -186,12 +187,118 @@ public final class Lib {
         return filteredClasses;
     }
 
+    /**
+     * The patterns are pushed down to the agent, so only matching classes are transferred.
+     * Agents which can not filter classes, and FS vms, list all of them.
+     */
+    private static List<ClassInfo> obtainClassesMatchingAny(VmInfo vmInfo, VmManager vmManager, List<Pattern> filter, boolean details) {
+        ClassInfo[] matching = null;
+        if (vmInfo.getType() != VmInfo.Type.FS && !filter.isEmpty()) {
+            List<String> regexes = filter.stream().map(Pattern::pattern).collect(Collectors.toList());
+            // options of the query are separated by whitespace
+            if (regexes.stream().noneMatch(r -> r.matches("(?s).*\\s.*"))) {
+                String regex = regexes.stream().map(r -> "(?:" + r + ")").collect(Collectors.joining("|"));
+                matching = obtainClassesPage(vmInfo, vmManager, "regex=" + regex + (details ? " info=true dict" : ""));
+            }
+        }
+        if (matching != null) {
+            return Arrays.asList(matching);
+        }
+        if (details) {
+            return Arrays.stream(obtainClassesDetails(vmInfo, vmManager)).collect(Collectors.toList());
+        }
+        return Arrays.stream(obtainClasses(vmInfo, vmManager)).map(a -> new ClassInfo(a, null, null)).collect(Collectors.toList());
+    }
+
+    /**
+     * @param query whitespace separated options of the listing, eg. "package=java.util exclude=array,lambda limit=100 info=true dict"
+     * @return the page of classes matching the query, or null if the agent can not filter classes
+     */
+    public static ClassInfo[] obtainClassesPage(VmInfo vmInfo, VmManager vmManager, String query) {
+        AgentRequestAction request = DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.CLASSES_PAGE, query);
+        String response = DecompilationController.submitRequest(vmManager, request);
+        if (!DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            Logger.getLogger().log(Logger.Level.DEBUG, "Agent does not filter classes, listing all of them. " + response);
+            return null;
+        }
+        return vmInfo.getVmDecompilerStatus().getLoadedClasses();
+    }
+
     public static int[] getByteCodeVersions(ClassInfo clazz, VmInfo vmInfo, VmManager vmManager) {
-        VmDecompilerStatus result = obtainClass(vmInfo, clazz.getName(), vmManager);
-        byte[] source = Base64.getDecoder().decode(result.getLoadedClassBytes());
-        int bytecodeVersion = Lib.getByteCodeVersion(source);
-        int buildJavaPerVersion = Lib.getJavaFromBytelevel(bytecodeVersion);
-        return new int[]{bytecodeVersion, buildJavaPerVersion};
+        int[] versions = getByteCodeVersions(Collections.singletonList(clazz.getName()), vmInfo, vmManager).get(clazz.getName());
+        if (versions == null) {
+            throw new RuntimeException("Bytecode version of " + clazz.getName() + " not found in " + vmInfo.getVmId());
+        }
+        return versions;
+    }
+
+    /**
+     * Versions of all the classes are obtained by single request, for which the agent sends only headers of class files.
+     * Agents not knowing such request are asked for whole body of each class.
+     *
+     * @return {bytecode version, java version} by class name, only for classes whose version was found
+     */
+    public static Map<String, int[]> getByteCodeVersions(Collection<String> classNames, VmInfo vmInfo, VmManager vmManager) {
+        Map<String, int[]> versions = new HashMap<>();
+        if (classNames.isEmpty()) {
+            return versions;
+        }
+        AgentRequestAction request = DecompilationController
+                .createRequest(vmInfo, AgentRequestAction.RequestAction.CLASS_VERSIONS, "NAMES " + String.join(" ", classNames));
+        String response = DecompilationController.submitRequest(vmManager, request);
+        if (!DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            Logger.getLogger().log(Logger.Level.DEBUG, "Agent does not send class versions, reading whole classes. " + response);
+            for (String className : classNames) {
+                try {
+                    byte[] source = obtainClass(vmInfo, className, vmManager).getLoadedClassBody();
+                    int bytecodeVersion = getByteCodeVersion(source);
+                    versions.put(className, new int[]{bytecodeVersion, getJavaFromBytelevel(bytecodeVersion)});
+                } catch (RuntimeException ex) {
+                    Logger.getLogger().log(Logger.Level.DEBUG, ex);
+                }
+            }
+            return versions;
+        }
+        for (String item : vmInfo.getVmDecompilerStatus().getLoadedClassBytes().split(";")) {
+            // "name major minor", or "name ERROR reason"; the first item is the header
+            String[] nameMajorMinor = item.split(" ");
+            if (nameMajorMinor.length == 3 && !"ERROR".equals(nameMajorMinor[1])) {
+                int bytecodeVersion = Integer.parseInt(nameMajorMinor[1]);
+                versions.put(nameMajorMinor[0], new int[]{bytecodeVersion, getJavaFromBytelevel(bytecodeVersion)});
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Signatures are read by the agent from the loaded class, so the class does not have to be transferred and disassembled.
+     *
+     * @return signatures of constructors and methods of the class as javap prints them,
+     * or null if the agent does not send them or does not know the class, and the class must be disassembled
+     */
+    public static List<String> obtainMethods(VmInfo vmInfo, VmManager vmManager, String className) {
+        AgentRequestAction request =
+                DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.METHODS, "NAMES " + className);
+        String response = DecompilationController.submitRequest(vmManager, request);
+        if (!DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            Logger.getLogger().log(Logger.Level.DEBUG, "Agent does not send methods, disassembling whole class. " + response);
+            return null;
+        }
+        String prefix = className + " ";
+        List<String> signatures = new ArrayList<>();
+        for (String item : vmInfo.getVmDecompilerStatus().getLoadedClassBytes().split(";")) {
+            // "name signature", or "name ERROR reason"; the first item is the header
+            if (!item.startsWith(prefix)) {
+                continue;
+            }
+            String signature = item.substring(prefix.length());
+            if (signature.startsWith("ERROR ")) {
+                Logger.getLogger().log(Logger.Level.DEBUG, "Agent did not send methods of " + className + ": " + signature);
+                return null;
+            }
+            signatures.add(signature + ";");
+        }
+        return signatures;
     }
 
     static boolean matchesAtLeastOne(ClassInfo clazz, List<Pattern> filter) {
@@ -292,6 +399,37 @@ public final class Lib {
         }
     }
 
+    /**
+     * Obtains bodies of many classes by one request. Agents not knowing the multi class request are asked class by class.
+     *
+     * @return bodies of classes which were obtained, classes which failed are only logged
+     */
+    public static Map<String, byte[]> obtainClassesBodies(VmInfo vmInfo, Collection<String> classes, VmManager manager) {
+        Map<String, byte[]> result = new LinkedHashMap<>(classes.size());
+        if (classes.isEmpty()) {
+            return result;
+        }
+        AgentRequestAction request = DecompilationController
+                .createRequest(vmInfo, AgentRequestAction.RequestAction.BYTES_MULTI, String.join(" ", classes));
+        String response = DecompilationController.submitRequest(manager, request);
+        if (DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            for (Map.Entry<String, String> error : vmInfo.getVmDecompilerStatus().getLoadedClassesErrors().entrySet()) {
+                Logger.getLogger().log(Logger.Level.DEBUG, error.getKey() + ": " + error.getValue());
+            }
+            result.putAll(vmInfo.getVmDecompilerStatus().getLoadedClassesBodies());
+            return result;
+        }
+        Logger.getLogger().log(Logger.Level.DEBUG, "Multi class bytes request failed, obtaining one by one: " + response);
+        for (String clazz : classes) {
+            try {
+                result.put(clazz, obtainClass(vmInfo, clazz, manager).getLoadedClassBody());
+            } catch (RuntimeException ex) {
+                Logger.getLogger().log(Logger.Level.DEBUG, ex);
+            }
+        }
+        return result;
+    }
+
     public static VmDecompilerStatus obtainVersion(VmInfo vmInfo, VmManager manager) {
         AgentRequestAction request = DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.VERSION);
         String response = DecompilationController.submitRequest(manager, request);
@@ -302,6 +440,116 @@ public final class Lib {
         }
     }
 
+    /**
+     * @return agent's metrics, one "name value" per item
+     */
+    public static String[] obtainMetrics(VmInfo vmInfo, VmManager manager) {
+        AgentRequestAction request = DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.METRICS);
+        String response = DecompilationController.submitRequest(manager, request);
+        if (DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            return vmInfo.getVmDecompilerStatus().getLoadedClassBytes().split(";");
+        } else {
+            throw new RuntimeException(DecompilationController.CLASSES_NOPE);
+        }
+    }
+
+    /**
+     * Dumps class events the agent collects during given time, the call returns once the time is up.
+     *
+     * @param kinds comma separated kinds of events, or ALL
+     * @return events, each "KIND class name" or "DROPPED count" when the agent had to drop some
+     */
+    public static List<String> dumpClassEvents(VmInfo vmInfo, VmManager manager, int seconds, String kinds) {
+        AgentRequestAction request =
+                DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.CLASS_EVENTS, kinds + " " + seconds);
+        String response = DecompilationController.submitRequest(manager, request);
+        if (!DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            throw new RuntimeException(DecompilationController.CLASSES_NOPE);
+        }
+        List<String> events = new ArrayList<>();
+        for (String event : vmInfo.getVmDecompilerStatus().getLoadedClassBytes().split(";")) {
+            // the first item is the header, heartbeats only keep the connection checked
+            if (!event.isEmpty() && !"CLASS_EVENTS".equals(event) && !"HEARTBEAT".equals(event)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * @param since NEXT of previous call, to get only newer records, 0 for all the agent still has
+     * @param level the most verbose level to get, ERROR, WARN, INFO or DEBUG
+     * @return "NEXT sequence" followed by records of agent's log, "DROPPED count" before them if older ones were overwritten
+     */
+    public static List<String> obtainLogs(VmInfo vmInfo, VmManager manager, long since, String level) {
+        AgentRequestAction request =
+                DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.LOGS, since + " " + level);
+        String response = DecompilationController.submitRequest(manager, request);
+        if (!DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            throw new RuntimeException(DecompilationController.CLASSES_NOPE);
+        }
+        List<String> records = new ArrayList<>();
+        for (String logRecord : vmInfo.getVmDecompilerStatus().getLoadedClassBytes().split(";")) {
+            // the first item is the header
+            if (!logRecord.isEmpty() && !"LOGS".equals(logRecord)) {
+                records.add(logRecord);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @param classRegex classes to hash, matched by the agent against all its loaded classes
+     * @return hash of each matching class by its name, as {@link #hashBytecode} computes it from its body in the VM,
+     * or "ERROR reason" if the agent could not obtain the body
+     */
+    public static Map<String, String> obtainClassHashes(VmInfo vmInfo, VmManager manager, String classRegex) {
+        AgentRequestAction request =
+                DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.CLASS_HASHES, "REGEX " + classRegex);
+        String response = DecompilationController.submitRequest(manager, request);
+        if (!DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            throw new RuntimeException(DecompilationController.CLASSES_NOPE);
+        }
+        Map<String, String> hashes = new LinkedHashMap<>();
+        for (String item : vmInfo.getVmDecompilerStatus().getLoadedClassBytes().split(";")) {
+            int delimiter = item.indexOf(' ');
+            // the first item is the header
+            if (delimiter > 0) {
+                hashes.put(item.substring(0, delimiter), item.substring(delimiter + 1));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * @return hex of SHA-256 of the bytecode, the same as the agent reports for a class of such body
+     */
+    public static String hashBytecode(byte[] body) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(body)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @param operation enable, drop or status of the agent's constant pool index, which speeds up repeated searches
+     * @return status of the index as reported by the agent
+     */
+    public static String constantPoolIndex(VmInfo vmInfo, VmManager manager, String operation) {
+        AgentRequestAction request = DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.CP_INDEX, operation);
+        String response = DecompilationController.submitRequest(manager, request);
+        if (DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+            return vmInfo.getVmDecompilerStatus().getLoadedClassBytes();
+        } else {
+            throw new RuntimeException(DecompilationController.CLASSES_NOPE);
+        }
+    }
+
     public static void detach(String host, int port, VmManager vmManager) {
         DecompilerRequestReceiver.getHaltAction(host, port, "none", 0, new AgentAttachManager(vmManager), vmManager, false);
         Logger.getLogger().log(host + ":" + port + " should be detached successfully");
@@ -339,7 +587,9 @@ public final class Lib {
     }
 
     public static String uploadClass(VmInfo vmInfo, String className, byte[] bytes, VmManager vmManager) {
-        return uploadClass(vmInfo, className, Base64.getEncoder().encodeToString(bytes), vmManager);
+        AgentRequestAction request =
+                DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.OVERWRITE, className, bytes);
+        return DecompilationController.submitRequest(vmManager, request);
     }
 
     public static String uploadClass(VmInfo vmInfo, String className, String clazzBytesInBase64, VmManager vmManager) {
@@ -349,6 +599,36 @@ public final class Lib {
         return response;
     }
 
+    /**
+     * Overwrites all the classes by single request and single retransformation, so the VM never runs some of them new
+     * and others old, and if any of them is refused, none is overwritten.
+     * Old agents, not knowing such request, get the classes one by one.
+     *
+     * @param classes bodies by class names
+     * @return response for each class
+     */
+    public static Map<String, String> uploadClasses(VmInfo vmInfo, Map<String, byte[]> classes, VmManager vmManager) {
+        Map<String, String> responses = new LinkedHashMap<>(classes.size());
+        if (classes.size() > 1) {
+            AgentRequestAction request = DecompilationController.createRequest(
+                    vmInfo, AgentRequestAction.RequestAction.OVERWRITE_MULTI, String.join(" ", classes.keySet()),
+                    new ArrayList<>(classes.values())
+            );
+            String response = DecompilationController.submitRequest(vmManager, request);
+            if (!DecompilerRequestReceiver.isUnknownCommand(response)) {
+                for (String className : classes.keySet()) {
+                    responses.put(className, response);
+                }
+                return responses;
+            }
+            Logger.getLogger().log(Logger.Level.DEBUG, "Agent can not overwrite multiple classes at once, overwriting one by one.");
+        }
+        for (Map.Entry<String, byte[]> clazz : classes.entrySet()) {
+            responses.put(clazz.getKey(), uploadClass(vmInfo, clazz.getKey(), clazz.getValue(), vmManager));
+        }
+        return responses;
+    }
+
     public static String addClass(VmInfo vmInfo, String className, String clazzBytesInBase64, VmManager vmManager) {
         AgentRequestAction request =
                 DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.ADD_CLASS, className, clazzBytesInBase64);
@@ -363,6 +643,23 @@ public final class Lib {
         return response;
     }
 
+    /**
+     * The jar is passed to the agent as raw bytes, so the client never holds it encoded to Base64.
+     *
+     * @param init which classes of the jar the agent initializes: null or ALL for all of them, "ALL threads" to do so in parallel,
+     *             NONE, or "ONLY fqn1 fqn2..."; agents not knowing it initialize all classes
+     */
+    public static String addJar(VmInfo vmInfo, boolean isBoot, String jarName, byte[] jarBytes, String init, VmManager vmManager) {
+        String name = getPrefixByBoot(isBoot) + "/" + jarName;
+        AgentRequestAction request = DecompilationController
+                .createRequest(vmInfo, AgentRequestAction.RequestAction.ADD_JAR, name, Collections.singletonList(jarBytes));
+        // the init line simply follows the body, older agents do not read it
+        if (init != null) {
+            request.setParameter(AgentRequestAction.JAR_INIT_PARAM, init);
+        }
+        return DecompilationController.submitRequest(vmManager, request);
+    }
+
     public static PluginWrapperWithMetaInfo getPluginWrapper(PluginManager pluginManager, String pluginIdOrNonsense, boolean doThrow) {
         PluginWithOptions wrapper = null;
         boolean haveCompiler = false;
@@ -499,13 +796,17 @@ public final class Lib {
         }
         jar.close();
         //the jar is saved to tmp with random name via agent alter
-        return Lib.addJar(
-                vmInfo, isBoot, "custom" + toJar.size() + "classes.jar", Base64.getEncoder().encodeToString(jar.toBytes()), vmManager
-        );
+        return Lib.addJar(vmInfo, isBoot, "custom" + toJar.size() + "classes.jar", jar.toBytes(), null, vmManager);
     }
 
     public static String addByteClassesViaJar(VmInfo vmInfo, List<IdentifiedBytecode> toJar, boolean isBoot, VmManager vmManager)
             throws IOException {
+        return addByteClassesViaJar(vmInfo, toJar, isBoot, null, vmManager);
+    }
+
+    public static String addByteClassesViaJar(
+            VmInfo vmInfo, List<IdentifiedBytecode> toJar, boolean isBoot, String init, VmManager vmManager
+    ) throws IOException {
         InMemoryJar jar = new InMemoryJar();
         jar.open();
         for (IdentifiedBytecode item : toJar) {
@@ -513,9 +814,7 @@ public final class Lib {
         }
         jar.close();
         //the jar is saved to tmp with random name via agent alter
-        return Lib.addJar(
-                vmInfo, isBoot, "custom" + toJar.size() + "classes.jar", Base64.getEncoder().encodeToString(jar.toBytes()), vmManager
-        );
+        return Lib.addJar(vmInfo, isBoot, "custom" + toJar.size() + "classes.jar", jar.toBytes(), init, vmManager);
     }
 
     public static Integer getDefaultRemoteBytecodelevelCatched(VmInfo vmInfo, VmManager vmManager) {
@@ -533,12 +832,11 @@ public final class Lib {
     }
 
     public static Integer getDefaultRemoteBytecodelevel(VmInfo vmInfo, VmManager vmManager, String className) {
-        String base64Bytes = Lib.obtainClass(vmInfo, className, vmManager).getLoadedClassBytes();
-        ErrorCandidate errorCandidateRemote = new ErrorCandidate(base64Bytes);
-        if (errorCandidateRemote.isError()) {
+        int[] versions = getByteCodeVersions(Collections.singletonList(className), vmInfo, vmManager).get(className);
+        if (versions == null) {
             throw new RuntimeException(className + " not found on local nor remote paths/vm"); //not probable, see the init check above
         }
-        return Lib.getBuildJavaPerVersion(Base64.getDecoder().decode(base64Bytes));
+        return versions[1];
     }
 
 }
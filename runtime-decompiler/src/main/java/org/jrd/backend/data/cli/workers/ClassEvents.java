@@ -0,0 +1,41 @@
+package org.jrd.backend.data.cli.workers;
+
+import org.jrd.backend.data.VmInfo;
+import org.jrd.backend.data.VmManager;
+import org.jrd.backend.data.cli.CliUtils;
+import org.jrd.backend.data.cli.Help;
+import org.jrd.backend.data.cli.Lib;
+
+import java.util.List;
+
+public class ClassEvents {
+
+    private final List<String> filteredArgs;
+    private final VmManager vmManager;
+
+    public ClassEvents(List<String> filteredArgs, VmManager vmManager) {
+        this.filteredArgs = filteredArgs;
+        this.vmManager = vmManager;
+    }
+
+    public VmInfo dump() {
+        if (filteredArgs.size() != 3 && filteredArgs.size() != 4) {
+            throw new IllegalArgumentException("Incorrect argument count! Please use '" + Help.CLASS_EVENTS_FORMAT + "'.");
+        }
+        int seconds;
+        try {
+            seconds = Integer.parseInt(filteredArgs.get(2));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Seconds must be a number. Please use '" + Help.CLASS_EVENTS_FORMAT + "'.", ex);
+        }
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Seconds must be positive. Please use '" + Help.CLASS_EVENTS_FORMAT + "'.");
+        }
+        String kinds = filteredArgs.size() == 4 ? filteredArgs.get(3) : "ALL";
+        VmInfo vmInfo = CliUtils.getVmInfo(filteredArgs.get(1), vmManager);
+        for (String event : Lib.dumpClassEvents(vmInfo, vmManager, seconds, kinds)) {
+            System.out.println(event);
+        }
+        return vmInfo;
+    }
+}
@@ -14,9 +14,12 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class Classes {
 
@@ -66,6 +69,9 @@ public class Classes {
             VmInfo vmInfo, List<Pattern> filter, boolean details, boolean bytecodeVersion, Optional<String> search
     ) throws IOException {
         List<ClassInfo> classes = Lib.obtainFilteredClasses(vmInfo, vmManager, filter, details, search);
+        Map<String, int[]> versions = bytecodeVersion ?
+                Lib.getByteCodeVersions(classes.stream().map(ClassInfo::getName).collect(Collectors.toList()), vmInfo, vmManager) :
+                Collections.emptyMap();
         if (saving.shouldSave()) {
             if (saving.getLike().equals(Saving.DEFAULT) || saving.getLike().equals(Saving.EXACT)) {
                 try (
@@ -73,7 +79,7 @@ public class Classes {
                                 new PrintWriter(new OutputStreamWriter(new FileOutputStream(saving.getAs()), StandardCharsets.UTF_8))
                 ) {
                     for (ClassInfo clazz : classes) {
-                        String bytecodes = getBytecodesString(vmInfo, details, bytecodeVersion, clazz, false);
+                        String bytecodes = getBytecodesString(details, bytecodeVersion, versions.get(clazz.getName()));
                         pw.println(clazz.toPrint(details) + bytecodes);
                     }
                 }
@@ -84,24 +90,23 @@ public class Classes {
             }
         } else {
             for (ClassInfo clazz : classes) {
-                String bytecodes = getBytecodesString(vmInfo, details, bytecodeVersion, clazz, false);
+                String bytecodes = getBytecodesString(details, bytecodeVersion, versions.get(clazz.getName()));
                 System.out.println(clazz.toPrint(details) + bytecodes);
             }
         }
     }
 
-    private String getBytecodesString(VmInfo vmInfo, boolean details, boolean bytecodeVersion, ClassInfo clazz, boolean doThrow) {
+    /**
+     * @param versions {bytecode version, java version} of the class, null if unknown
+     */
+    private static String getBytecodesString(boolean details, boolean bytecodeVersion, int[] versions) {
         String bytecodes = "";
         if (bytecodeVersion) {
-            try {
-                int[] versions = Lib.getByteCodeVersions(clazz, vmInfo, vmManager);
+            if (versions != null) {
                 //double space metters
                 bytecodes = "  JDK " + versions[1] + " (bytecode: " + versions[0] + ")";
-            } catch (Exception ex) {
+            } else {
                 bytecodes = "  bytecode level unknown";
-                if (doThrow) {
-                    throw new RuntimeException(bytecodes, ex);
-                }
             }
             if (details) {
                 bytecodes = "\n" + bytecodes;
@@ -1,7 +1,6 @@
 package org.jrd.backend.data.cli.workers;
 
 import org.jrd.backend.communication.RuntimeCompilerConnector;
-import org.jrd.backend.core.ClassInfo;
 import org.jrd.backend.core.DecompilerRequestReceiver;
 import org.jrd.backend.core.Logger;
 import org.jrd.backend.data.Config;
@@ -19,9 +18,10 @@ import org.jrd.frontend.utility.CommonUtils;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -75,28 +75,35 @@ public class Compile {
         Map<Integer, List<IdentifiedSource>> sortedSources = new HashMap<>();
         {
             IdentifiedSource[] identifiedSources = CommonUtils.toIdentifiedSources(args.isRecursive(), args.getFilesToCompile());
+            List<String> fqns =
+                    Arrays.stream(identifiedSources).map(is -> is.getClassIdentifier().getFullName()).collect(Collectors.toList());
+            //FIRST try to find the classes in target vm if enabled, versions of all of them are obtained by single request
+            Map<String, int[]> targetVersions = Collections.emptyMap();
+            if (shouldUpload) {
+                try {
+                    targetVersions = Lib.getByteCodeVersions(fqns, targetVm, vmManager);
+                } catch (Exception ex) {
+                    Logger.getLogger().log(Logger.Level.DEBUG, ex);
+                }
+            }
+            //FALLBACK try to find the rest of classes in source vm
+            Map<String, int[]> sourceVersions = Collections.emptyMap();
+            try {
+                List<String> notInTarget = new ArrayList<>(fqns);
+                notInTarget.removeAll(targetVersions.keySet());
+                sourceVersions = Lib.getByteCodeVersions(notInTarget, args.getClassesProvider().getVmInfo(), vmManager);
+            } catch (Exception ex) {
+                Logger.getLogger().log(ex);
+            }
             for (IdentifiedSource is : identifiedSources) {
                 String fqn = is.getClassIdentifier().getFullName();
                 Integer detectedByteCode = null;
-                //FIRST try to find the class in target vm if enabled
-                if (shouldUpload) {
-                    try {
-                        int[] versions = Lib.getByteCodeVersions(new ClassInfo(fqn), targetVm, vmManager);
-                        detectedByteCode = versions[1];
-                        Logger.getLogger().log(Logger.Level.ALL, fqn + " - detected bytecode in target VM: " + detectedByteCode);
-                    } catch (Exception ex) {
-                        System.out.println(""); //findbugs issue
-                    }
-                }
-                if (detectedByteCode == null) {
-                    //FALLBACK try to find the class in target vm in source
-                    try {
-                        int[] versions = Lib.getByteCodeVersions(new ClassInfo(fqn), args.getClassesProvider().getVmInfo(), vmManager);
-                        detectedByteCode = versions[1]; /**/
-                        Logger.getLogger().log(Logger.Level.ALL, fqn + " - detected bytecode in source VM: " + detectedByteCode);
-                    } catch (Exception ex) {
-                        Logger.getLogger().log(ex);
-                    }
+                if (targetVersions.containsKey(fqn)) {
+                    detectedByteCode = targetVersions.get(fqn)[1];
+                    Logger.getLogger().log(Logger.Level.ALL, fqn + " - detected bytecode in target VM: " + detectedByteCode);
+                } else if (sourceVersions.containsKey(fqn)) {
+                    detectedByteCode = sourceVersions.get(fqn)[1];
+                    Logger.getLogger().log(Logger.Level.ALL, fqn + " - detected bytecode in source VM: " + detectedByteCode);
                 }
                 if (detectedByteCode == null) {
                     if (targetVm != null) {
@@ -139,13 +146,16 @@ public class Compile {
 
         if (shouldUpload) {
             int failCount = 0;
+            Map<String, byte[]> toUpload = new LinkedHashMap<>(allBytecode.size());
             for (IdentifiedBytecode bytecode : allBytecode) {
                 String className = bytecode.getClassIdentifier().getFullName();
                 Logger.getLogger().log("Uploading class '" + className + "'.");
-
-                String response = Lib.uploadClass(targetVm, className, Base64.getEncoder().encodeToString(bytecode.getFile()), vmManager);
-
-                if (DecompilerRequestReceiver.OK_RESPONSE.equals(response)) {
+                toUpload.put(className, bytecode.getFile());
+            }
+            // all at once, so the VM is never left with only some of them uploaded
+            for (Map.Entry<String, String> response : Lib.uploadClasses(targetVm, toUpload, vmManager).entrySet()) {
+                String className = response.getKey();
+                if (DecompilerRequestReceiver.OK_RESPONSE.equals(response.getValue())) {
                     Logger.getLogger().log(Logger.Level.ALL, "Successfully uploaded class '" + className + "'.");
                 } else {
                     failCount++;
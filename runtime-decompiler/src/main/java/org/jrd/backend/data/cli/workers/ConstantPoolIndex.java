@@ -0,0 +1,29 @@
+package org.jrd.backend.data.cli.workers;
+
+import org.jrd.backend.data.VmInfo;
+import org.jrd.backend.data.VmManager;
+import org.jrd.backend.data.cli.CliUtils;
+import org.jrd.backend.data.cli.Help;
+import org.jrd.backend.data.cli.Lib;
+
+import java.util.List;
+
+public class ConstantPoolIndex {
+
+    private final List<String> filteredArgs;
+    private final VmManager vmManager;
+
+    public ConstantPoolIndex(List<String> filteredArgs, VmManager vmManager) {
+        this.filteredArgs = filteredArgs;
+        this.vmManager = vmManager;
+    }
+
+    public VmInfo constantPoolIndex() {
+        if (filteredArgs.size() != 3) {
+            throw new IllegalArgumentException("Incorrect argument count! Please use '" + Help.CP_INDEX_FORMAT + "'.");
+        }
+        VmInfo vmInfo = CliUtils.getVmInfo(filteredArgs.get(1), vmManager);
+        System.out.println(Lib.constantPoolIndex(vmInfo, vmManager, filteredArgs.get(2)));
+        return vmInfo;
+    }
+}
@@ -12,7 +12,6 @@ import org.jrd.backend.decompiling.PluginManager;
 
 import java.io.File;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
@@ -53,7 +52,7 @@ public class Decompile {
             for (String clazz : classes) {
                 classCount++;
                 VmDecompilerStatus result = Lib.obtainClass(vmInfo, clazz, vmManager);
-                byte[] bytes = Base64.getDecoder().decode(result.getLoadedClassBytes());
+                byte[] bytes = result.getLoadedClassBody();
 
                 if (new File(plugin).exists() && plugin.toLowerCase().endsWith(".json")) {
                     throw new RuntimeException("Plugin loading directly from file is not implemented.");
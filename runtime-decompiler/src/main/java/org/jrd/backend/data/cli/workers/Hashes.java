@@ -0,0 +1,36 @@
+package org.jrd.backend.data.cli.workers;
+
+import org.jrd.backend.data.VmInfo;
+import org.jrd.backend.data.VmManager;
+import org.jrd.backend.data.cli.CliUtils;
+import org.jrd.backend.data.cli.Help;
+import org.jrd.backend.data.cli.Lib;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class Hashes {
+
+    private final List<String> filteredArgs;
+    private final VmManager vmManager;
+
+    public Hashes(List<String> filteredArgs, VmManager vmManager) {
+        this.filteredArgs = filteredArgs;
+        this.vmManager = vmManager;
+    }
+
+    public VmInfo hashes() {
+        if (filteredArgs.size() < 3) {
+            throw new IllegalArgumentException("Incorrect argument count! Please use '" + Help.HASHES_FORMAT + "'.");
+        }
+        VmInfo vmInfo = CliUtils.getVmInfo(filteredArgs.get(1), vmManager);
+        // all the regexes are matched by single pass of the agent over loaded classes
+        String classRegex =
+                filteredArgs.subList(2, filteredArgs.size()).stream().map(r -> "(?:" + r + ")").collect(Collectors.joining("|"));
+        for (Map.Entry<String, String> hash : Lib.obtainClassHashes(vmInfo, vmManager, classRegex).entrySet()) {
+            System.out.println(hash.getKey() + " " + hash.getValue());
+        }
+        return vmInfo;
+    }
+}
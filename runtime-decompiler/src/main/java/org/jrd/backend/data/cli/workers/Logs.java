@@ -0,0 +1,38 @@
+package org.jrd.backend.data.cli.workers;
+
+import org.jrd.backend.data.VmInfo;
+import org.jrd.backend.data.VmManager;
+import org.jrd.backend.data.cli.CliUtils;
+import org.jrd.backend.data.cli.Help;
+import org.jrd.backend.data.cli.Lib;
+
+import java.util.List;
+
+public class Logs {
+
+    private final List<String> filteredArgs;
+    private final VmManager vmManager;
+
+    public Logs(List<String> filteredArgs, VmManager vmManager) {
+        this.filteredArgs = filteredArgs;
+        this.vmManager = vmManager;
+    }
+
+    public VmInfo logs() {
+        if (filteredArgs.size() < 2 || filteredArgs.size() > 4) {
+            throw new IllegalArgumentException("Incorrect argument count! Please use '" + Help.LOGS_FORMAT + "'.");
+        }
+        long since;
+        try {
+            since = filteredArgs.size() > 2 ? Long.parseLong(filteredArgs.get(2)) : 0;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Since must be a number. Please use '" + Help.LOGS_FORMAT + "'.", ex);
+        }
+        String level = filteredArgs.size() > 3 ? filteredArgs.get(3) : "DEBUG";
+        VmInfo vmInfo = CliUtils.getVmInfo(filteredArgs.get(1), vmManager);
+        for (String logRecord : Lib.obtainLogs(vmInfo, vmManager, since, level)) {
+            System.out.println(logRecord);
+        }
+        return vmInfo;
+    }
+}
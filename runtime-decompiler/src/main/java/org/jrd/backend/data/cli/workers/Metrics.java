@@ -0,0 +1,31 @@
+package org.jrd.backend.data.cli.workers;
+
+import org.jrd.backend.data.VmInfo;
+import org.jrd.backend.data.VmManager;
+import org.jrd.backend.data.cli.CliUtils;
+import org.jrd.backend.data.cli.Help;
+import org.jrd.backend.data.cli.Lib;
+
+import java.util.List;
+
+public class Metrics {
+
+    private final List<String> filteredArgs;
+    private final VmManager vmManager;
+
+    public Metrics(List<String> filteredArgs, VmManager vmManager) {
+        this.filteredArgs = filteredArgs;
+        this.vmManager = vmManager;
+    }
+
+    public VmInfo metrics() {
+        if (filteredArgs.size() != 2) {
+            throw new IllegalArgumentException("Incorrect argument count! Please use '" + Help.METRICS_FORMAT + "'.");
+        }
+        VmInfo vmInfo = CliUtils.getVmInfo(filteredArgs.get(1), vmManager);
+        for (String metric : Lib.obtainMetrics(vmInfo, vmManager)) {
+            System.out.println(metric);
+        }
+        return vmInfo;
+    }
+}
@@ -34,6 +34,7 @@ import java.util.Base64;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -196,12 +197,7 @@ public class Patch {
                     } else {
                         //we are done also here, it was found on SRC path (and is base64 as it is found by agent)
                         //but wee need to find how it was compiled
-                        String remoteImpl = Lib.obtainClass(vmInfo, className, vmManager).getLoadedClassBytes();
-                        ErrorCandidate errorCandidateRemote = new ErrorCandidate(remoteImpl);
-                        if (errorCandidateRemote.isError()) {
-                            throw new RuntimeException(className + " not found on local nor remote paths/vm"); //not probable, see the init check above
-                        }
-                        byteCodeLevel = Lib.getBuildJavaPerVersion(Base64.getDecoder().decode(remoteImpl));
+                        byteCodeLevel = Lib.getDefaultRemoteBytecodelevel(vmInfo, vmManager, className);
                         System.out.println("...local src ( compiled as " + byteCodeLevel + ")");
                     }
                 }
@@ -333,6 +329,7 @@ public class Patch {
         for (Map.Entry<Integer, Map<String, String>> toUploadWithBytecode : binariesToUpload.entrySet()) {
             Integer bytecodeLevel = toUploadWithBytecode.getKey();
             System.out.println("Upload group of bytecode level: " + (bytecodeLevel == null ? "default:" : "" + bytecodeLevel));
+            Map<String, byte[]> toOverwrite = new LinkedHashMap<>();
             for (Map.Entry<String, String> toUpload : toUploadWithBytecode.getValue().entrySet()) {
                 String className = toUpload.getKey();
                 String reply;
@@ -356,7 +353,7 @@ public class Patch {
                                     new IdentifiedBytecode[]{new IdentifiedBytecode(
                                             new ClassIdentifier(className), Base64.getDecoder().decode(toUpload.getValue())
                                     )}
-                            ), isBoot, vmManager
+                            ), isBoot, "NONE", vmManager // initialized just below, so its failure is reported
                     );
                     ErrorCandidate ec1 = new ErrorCandidate(reply1); //unluckily always ok
                     if (ec1.isError()) {
@@ -370,16 +367,14 @@ public class Patch {
                     }
                 } else {
                     System.out.println("Overwriting class: " + className);
-                    reply = Lib.uploadClass(vmInfo, className, toUpload.getValue(), vmManager);
-                }
-                ErrorCandidate ec = new ErrorCandidate(reply);
-                if (ec.isError() || reply.startsWith("error ")/*fix me, why the or is needed?*/) {
-                    System.out.println("failed - " + reply.replaceAll("for request 'OVERWRITE.*", ""));
-                    failures.add(className);
-                } else {
-                    System.out.println("Uploaded.");
-                    passes.add(className);
+                    toOverwrite.put(className, Base64.getDecoder().decode(toUpload.getValue()));
+                    continue;
                 }
+                reportUpload(className, reply, failures, passes);
+            }
+            // all at once, so the VM is never left with only some of them patched
+            for (Map.Entry<String, String> reply : Lib.uploadClasses(vmInfo, toOverwrite, vmManager).entrySet()) {
+                reportUpload(reply.getKey(), reply.getValue(), failures, passes);
             }
         }
         if (failures.isEmpty()) {
@@ -391,6 +386,17 @@ public class Patch {
         return vmInfo;
     }
 
+    private static void reportUpload(String className, String reply, List<String> failures, List<String> passes) {
+        ErrorCandidate ec = new ErrorCandidate(reply);
+        if (ec.isError() || reply.startsWith("error ")/*fix me, why the or is needed?*/) {
+            System.out.println(className + " failed - " + reply.replaceAll("for request 'OVERWRITE.*", ""));
+            failures.add(className);
+        } else {
+            System.out.println(className + " uploaded.");
+            passes.add(className);
+        }
+    }
+
     private List<String> applySubPatch(List<String> patch, SingleFilePatch startEnd, List<String> linesToPatch)
             throws PatchFailedException {
         List<String> subPatch = patch.subList(startEnd.getStart(), startEnd.getEnd() + 1);
@@ -17,7 +17,6 @@ import org.jrd.frontend.frame.main.ModelProvider;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -72,7 +71,7 @@ public class PrintBytes {
                 VmDecompilerStatus result = Lib.obtainClass(vmInfo, clazz, vmManager);
                 byte[] bytes;
                 if (operation.equals(BYTES)) {
-                    bytes = Base64.getDecoder().decode(result.getLoadedClassBytes());
+                    bytes = result.getLoadedClassBody();
                 } else if (operation.equals(DEPS)) {
                     Collection<String> deps = new DependenciesReader(new ModelProvider() {
                         @Override
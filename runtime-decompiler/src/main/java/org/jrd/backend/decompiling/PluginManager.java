@@ -31,7 +31,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -43,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Executes manages external decompiler wrapper plugins.
@@ -195,16 +195,11 @@ public class PluginManager {
                     Set<String> setdeps = new HashSet<>(deps1.size() + inners.size());
                     //setdeps.addAll(inners); //should be in all deps
                     setdeps.addAll(deps1);
-                    for (String clazz : setdeps) {
-                        addAndInitDepndenceClass(vmInfo, vmManager, otherClasses, clazz);
-                    }
+                    addAndInitDepndenceClasses(vmInfo, vmManager, otherClasses, setdeps);
                 } else if (dd == Config.DepndenceNumbers.ALL_INNERS) {
                     Set<String> inners = io.github.mkoncek.classpathless.util.BytecodeExtractor
                             .extractNestedClasses(bytecode, new RuntimeCompilerConnector.JrdClassesProvider(vmInfo, vmManager));
-                    for (String clazz : inners) {
-                        otherClasses
-                                .put(clazz, Base64.getDecoder().decode(Lib.obtainClass(vmInfo, clazz, vmManager).getLoadedClassBytes()));
-                    }
+                    otherClasses.putAll(Lib.obtainClassesBodies(vmInfo, inners, vmManager));
                 } else {
                     //just the one class, no additon to inners
                     //maybe the getDecompileMethodNoInners to be called, or to get rid of it?
@@ -223,6 +218,23 @@ public class PluginManager {
         }
     }
 
+    /**
+     * Already loaded dependencies are obtained by single request, only the rest is initialized and obtained one by one.
+     */
+    private void addAndInitDepndenceClasses(VmInfo vmInfo, VmManager vmManager, Map<String, byte[]> otherClasses, Set<String> deps) {
+        List<String> wanted = deps.stream().filter(clazz -> !(isLambdaForm(clazz) || isArrayForm(clazz) || isUndecompilableLambda(clazz)))
+                .collect(Collectors.toList());
+        Map<String, byte[]> loaded = Lib.obtainClassesBodies(vmInfo, wanted, vmManager);
+        for (String clazz : wanted) {
+            byte[] body = loaded.get(clazz);
+            if (body != null) {
+                otherClasses.put(clazz, body);
+            } else {
+                addAndInitDepndenceClass(vmInfo, vmManager, otherClasses, clazz);
+            }
+        }
+    }
+
     private void addAndInitDepndenceClass(VmInfo vmInfo, VmManager vmManager, Map<String, byte[]> otherClasses, String clazz) {
         if (!(isLambdaForm(clazz) || isArrayForm(clazz) || isUndecompilableLambda(clazz))) {
             try {
@@ -232,7 +244,7 @@ public class PluginManager {
                 } catch (Exception eex) {
                     Logger.getLogger().log(eex);
                 }
-                otherClasses.put(clazz, Base64.getDecoder().decode(Lib.obtainClass(vmInfo, clazz, vmManager).getLoadedClassBytes()));
+                otherClasses.put(clazz, Lib.obtainClass(vmInfo, clazz, vmManager).getLoadedClassBody());
             } catch (Exception ex) {
                 Logger.getLogger().log(ex);
             }
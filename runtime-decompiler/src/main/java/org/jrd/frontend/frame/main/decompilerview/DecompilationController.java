@@ -23,6 +23,7 @@ import org.jrd.backend.data.DependenciesReader;
 import org.jrd.backend.data.Model;
 import org.jrd.backend.data.VmInfo;
 import org.jrd.backend.data.VmManager;
+import org.jrd.backend.data.cli.Lib;
 import org.jrd.backend.decompiling.DecompilerWrapper;
 import org.jrd.backend.decompiling.PluginManager;
 import org.jrd.frontend.frame.filesystem.NewFsVmController;
@@ -60,6 +61,8 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -431,8 +434,7 @@ public class DecompilationController implements ModelProvider, LoadingDialogProv
             return;
         }
         VmDecompilerStatus vmStatus = vmInfo.getVmDecompilerStatus();
-        String bytesInString = vmStatus.getLoadedClassBytes();
-        byte[] bytes = Base64.getDecoder().decode(bytesInString);
+        byte[] bytes = vmStatus.getLoadedClassBody();
         try {
             decompiledClass = pluginManager.decompile(bytecodeDecompilerView.getSelectedDecompiler(), name, bytes, null, vmInfo, vmManager);
         } catch (Exception e) {
@@ -578,6 +580,10 @@ public class DecompilationController implements ModelProvider, LoadingDialogProv
     }
 
     private String[] getMethodsFromClassInRunningVm(CompletionSettings settings, String fqn) {
+        List<String> signatures = Lib.obtainMethods(vmInfo, vmManager, fqn);
+        if (signatures != null) {
+            return ClassesAndMethodsProvider.signaturesToMethods(settings, signatures);
+        }
         Collection<IdentifiedBytecode> b = getClassesProvider().getClass(new ClassIdentifier(fqn));
         String[] l =
                 ClassesAndMethodsProvider.bytesToMethods(settings, b.stream().map(a -> a.getFile()).collect(Collectors.toList()).get(0));
@@ -690,6 +696,30 @@ public class DecompilationController implements ModelProvider, LoadingDialogProv
         return createRequest(vmInfo, action, commands);
     }
 
+    /**
+     * Request to overwrite the class by the body, passed to the agent as raw bytes.
+     */
+    public static AgentRequestAction createRequest(VmInfo vmInfo, RequestAction action, String className, byte[] body) {
+        return createRequest(vmInfo, action, className, Collections.singletonList(body));
+    }
+
+    /**
+     * Request to overwrite or add classes or jar by the bodies, passed to the agent as raw bytes.
+     *
+     * @param names name of the class or jar, or space separated names of classes for {@link RequestAction#OVERWRITE_MULTI}
+     */
+    public static AgentRequestAction createRequest(VmInfo vmInfo, RequestAction action, String names, List<byte[]> bodies) {
+        if (!EnumSet.of(RequestAction.OVERWRITE, RequestAction.OVERWRITE_MULTI, RequestAction.ADD_CLASS, RequestAction.ADD_JAR)
+                .contains(action)) {
+            throw new AssertionError(action + " does not carry raw bodies");
+        }
+        VmDecompilerStatus status = vmInfo.getVmDecompilerStatus();
+        if (status == null) {
+            return AgentRequestAction.create(vmInfo, "localhost", AgentRequestAction.NOT_ATTACHED_PORT, action, names, bodies);
+        }
+        return AgentRequestAction.create(vmInfo, status.getHostname(), status.getListenPort(), action, names, bodies);
+    }
+
     public static AgentRequestAction createRequest(VmInfo vmInfo, RequestAction action, String... commands) {
         VmDecompilerStatus status = vmInfo.getVmDecompilerStatus();
         int listenPort = AgentRequestAction.NOT_ATTACHED_PORT;
@@ -709,6 +739,7 @@ public class DecompilationController implements ModelProvider, LoadingDialogProv
             case CLASSES:
             case OVERRIDES:
             case CLASSES_WITH_INFO:
+            case METRICS:
             case HALT:
                 request = AgentRequestAction.create(vmInfo, hostname, listenPort, action);
                 break;
@@ -716,11 +747,20 @@ public class DecompilationController implements ModelProvider, LoadingDialogProv
             case REMOVE_OVERRIDES:
             case INIT_CLASS:
             case BYTES:
+            case BYTES_MULTI:
+            case CP_INDEX:
+            case CLASS_EVENTS:
+            case LOGS:
+            case CLASS_HASHES:
+            case CLASS_VERSIONS:
+            case METHODS:
+            case CLASSES_PAGE:
                 request = AgentRequestAction.create(vmInfo, hostname, listenPort, action, commands[0]);
                 break;
             case ADD_CLASS:
             case ADD_JAR:
             case OVERWRITE:
+            case OVERWRITE_MULTI:
                 try {
                     request = AgentRequestAction.create(vmInfo, hostname, listenPort, action, commands[0], commands[1]);
                 } catch (Exception ex) {
@@ -110,6 +110,9 @@ public final class AgentApiGenerator {
         }
     }
 
+    private static final String[] AGENT_API_CLASSES =
+            new String[]{"org.jrd.agent.api.Variables", "org.jrd.agent.api.UnsafeVariables", "org.jrd.agent.api.Metrics"};
+
     private static List<ClazzWithMethods> agentApi;
 
     private AgentApiGenerator() {
@@ -123,7 +126,7 @@ public final class AgentApiGenerator {
         if (agentApi == null) {
             try {
                 agentApi = new ArrayList<>();
-                for (String clazz : new String[]{"org.jrd.agent.api.Variables", "org.jrd.agent.api.UnsafeVariables"}) {
+                for (String clazz : AGENT_API_CLASSES) {
                     String mainClazz = Lib.obtainClass(vmInfo, clazz, vmManager).getLoadedClassBytes();
                     if (withSignatures) {
                         Collection<ClazzMethod> mainMethods = getClazzMethods(vmInfo, vmManager, pluginManager, clazz, mainClazz);
@@ -92,8 +92,8 @@ public final class CommonUtils {
     }
 
     public static String uploadBytecode(String clazz, VmManager vmManager, VmInfo vmInfo, byte[] bytes) {
-        final String body = DecompilationController.bytesToBase64(bytes);
-        AgentRequestAction request = DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.OVERWRITE, clazz, body);
+        AgentRequestAction request =
+                DecompilationController.createRequest(vmInfo, AgentRequestAction.RequestAction.OVERWRITE, clazz, bytes);
         return DecompilationController.submitRequest(vmManager, request);
     }
 
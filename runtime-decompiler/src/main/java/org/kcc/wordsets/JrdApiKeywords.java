@@ -31,6 +31,9 @@ public class JrdApiKeywords implements CompletionItem.CompletionItemSet {
             "class, this one is bound to Class declaration. Otherwise same as Local/Global fake fields/methods\n";
     private static final String CLAZZS_UNBOUND =
             "\nThis call is lacking initial Class, and is trying to detect it." + "It is not always what you require\n";
+    private static final String METRICS = "Metrics are named counters, gauges and latency histograms, created on first use.\n" +
+            "Unlike variables they are primitive and striped, so recording them from hot code costs nearly nothing.\n" +
+            "The agent reports them by its METRICS command, see -metrics.\n\n";
     private static final String GLOBAL = "Global fields and methods are unbound.\n" +
             "They represents C/Pascal const wittou namesapce so you can access them globally.\n" +
             "It is simple pair name/value.\n\n";
@@ -135,6 +138,17 @@ public class JrdApiKeywords implements CompletionItem.CompletionItemSet {
             INTRO + CLAZZS + SAFE + CLAZZS_FINAL), new CompletionItem("org.jrd.agent.api.Variables.Clazzs.removeAll(String);",
             INTRO + CLAZZS + SAFE + CLAZZS_FINAL + "This calls classForName on String."), new CompletionItem(
             "(String)(org.jrd.agent.api.Variables.dumpAll());", "Will dump to String all safe variables currently declared"),
+            new CompletionItem("org.jrd.agent.api.Metrics.counter(String).increment();", METRICS),
+            new CompletionItem("org.jrd.agent.api.Metrics.counter(String).add(long);", METRICS),
+            new CompletionItem("org.jrd.agent.api.Metrics.gauge(String).set(long);", METRICS),
+            new CompletionItem("org.jrd.agent.api.Metrics.gauge(String).add(long);", METRICS),
+            new CompletionItem("org.jrd.agent.api.Metrics.histogram(String).recordSince(long);",
+                    METRICS + "Pass System.nanoTime() taken at the start of the measured code.\n"),
+            new CompletionItem(
+                    "org.jrd.agent.api.Metrics.histogram(String).recordNanos(long);", METRICS + "Records duration in nanoseconds.\n"
+            ),
+            new CompletionItem("(String)(org.jrd.agent.api.Metrics.dumpAll());", "Will dump to String all metrics currently recorded"),
+            new CompletionItem("org.jrd.agent.api.Metrics.removeAll();", METRICS),
             new CompletionItem("(Object)(org.jrd.agent.api.UnsafeVariables.Local.create(Object, String, Object));", UNSAFE),
             new CompletionItem("(Object)(org.jrd.agent.api.UnsafeVariables.Local.get(Object, String));", UNSAFE), new CompletionItem(
             "(Object)(org.jrd.agent.api.UnsafeVariables.Local.getOrCreate(Object, String, Object));", UNSAFE), new CompletionItem(
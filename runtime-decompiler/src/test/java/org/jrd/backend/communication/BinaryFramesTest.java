@@ -0,0 +1,134 @@
+package org.jrd.backend.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryFramesTest {
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testFrameRoundTrip() throws IOException {
+        byte[] body = {(byte) 0xCA, (byte) 0xFE, 0, '\n', (byte) 0xBA, (byte) 0xBE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFrames.writeFrame(new DataOutputStream(bytes), BinaryFrames.REQUEST, 42, Arrays.asList(utf8("OVERWRITE"), utf8("a.A"), body));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(BinaryFrames.REQUEST, in.readByte());
+        assertEquals(42, in.readInt());
+        int length = in.readInt();
+        assertEquals(3 * Integer.BYTES + 9 + 3 + body.length, length);
+
+        List<byte[]> fields = new ArrayList<>();
+        BinaryFrames.readFields(in, length, fields);
+        assertEquals(3, fields.size());
+        assertEquals("OVERWRITE", new String(fields.get(0), StandardCharsets.UTF_8));
+        assertEquals("a.A", new String(fields.get(1), StandardCharsets.UTF_8));
+        assertArrayEquals(body, fields.get(2));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void testEmptyFrame() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFrames.writeFrame(new DataOutputStream(bytes), BinaryFrames.END, 7, new ArrayList<>());
+        assertEquals(1 + Integer.BYTES + Integer.BYTES, bytes.size());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(BinaryFrames.END, in.readByte());
+        assertEquals(7, in.readInt());
+        List<byte[]> fields = new ArrayList<>();
+        BinaryFrames.readFields(in, in.readInt(), fields);
+        assertEquals(0, fields.size());
+    }
+
+    @Test
+    void testFieldLongerThanFrameIsRefused() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(100);
+        out.write(new byte[100]);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertThrows(IOException.class, () -> BinaryFrames.readFields(in, 50, new ArrayList<>()));
+    }
+
+    @Test
+    void testNegativeFieldLengthIsRefused() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(-1);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertThrows(IOException.class, () -> BinaryFrames.readFields(in, 10, new ArrayList<>()));
+    }
+
+    @Test
+    void testReadHandshakeLineLeavesFramesUnread() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(utf8(BinaryFrames.HANDSHAKE + "\r\n"));
+        BinaryFrames.writeFrame(new DataOutputStream(bytes), BinaryFrames.END, 1, new ArrayList<>());
+        InputStream in = new ByteArrayInputStream(bytes.toByteArray());
+
+        assertEquals(BinaryFrames.HANDSHAKE, BinaryFrames.readHandshakeLine(in));
+        assertEquals(BinaryFrames.END, in.read());
+    }
+
+    @Test
+    void testReadHandshakeLineOfClosedStream() throws IOException {
+        assertNull(BinaryFrames.readHandshakeLine(new ByteArrayInputStream(new byte[0])));
+        assertEquals("ERROR old", BinaryFrames.readHandshakeLine(new ByteArrayInputStream(utf8("ERROR old"))));
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] original) {
+        deflater.setInput(original);
+        byte[] buffer = new byte[original.length + 64];
+        int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Test
+    void testInflateFramesOfOneStream() throws IOException {
+        byte[] first = utf8("java.lang.String java.lang.String java.lang.String");
+        byte[] second = utf8("java.lang.String again");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] firstDeflated = deflate(deflater, first);
+        byte[] secondDeflated = deflate(deflater, second);
+        deflater.end();
+
+        Inflater inflater = new Inflater();
+        assertArrayEquals(first, BinaryFrames.inflate(inflater, firstDeflated, first.length));
+        assertArrayEquals(second, BinaryFrames.inflate(inflater, secondDeflated, second.length));
+        inflater.end();
+    }
+
+    @Test
+    void testInflateRefusesWrongLength() {
+        byte[] original = utf8("java.lang.String");
+        Deflater deflater = new Deflater();
+        byte[] deflated = deflate(deflater, original);
+        deflater.end();
+
+        assertThrows(IOException.class, () -> BinaryFrames.inflate(new Inflater(), deflated, original.length + 1));
+        assertThrows(IOException.class, () -> BinaryFrames.inflate(new Inflater(), deflated, original.length - 1));
+        assertThrows(IOException.class, () -> BinaryFrames.inflate(new Inflater(), utf8("not deflated"), original.length));
+    }
+}
@@ -0,0 +1,60 @@
+package org.jrd.backend.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassBodiesTest {
+
+    private static final byte[] BODY_A = {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 1};
+    private static final byte[] BODY_B = "not really a class".getBytes(StandardCharsets.UTF_8);
+
+    private static String base64(byte[] body) {
+        return Base64.getEncoder().encodeToString(body);
+    }
+
+    @Test
+    void testSingleBodyFromText() {
+        ClassBodies bodies = ClassBodies.fromText(base64(BODY_A), "a.A");
+
+        assertFalse(bodies.isError());
+        assertEquals(1, bodies.getBodies().size());
+        assertArrayEquals(BODY_A, bodies.getBodies().get("a.A"));
+        assertTrue(bodies.getErrors().isEmpty());
+    }
+
+    @Test
+    void testMultipleBodiesFromText() {
+        String reply = "a.A " + base64(BODY_A) + "\nmissing.M ERROR class not found\nb.B " + base64(BODY_B);
+        ClassBodies bodies = ClassBodies.fromText(reply, null);
+
+        assertFalse(bodies.isError());
+        assertArrayEquals(new Object[]{"a.A", "b.B"}, bodies.getBodies().keySet().toArray());
+        assertArrayEquals(BODY_A, bodies.getBodies().get("a.A"));
+        assertArrayEquals(BODY_B, bodies.getBodies().get("b.B"));
+        assertEquals("class not found", bodies.getErrors().get("missing.M"));
+    }
+
+    @Test
+    void testFailedRequestFromText() {
+        ClassBodies bodies = ClassBodies.fromText("ERROR Agent received unknown command", "a.A");
+
+        assertTrue(bodies.isError());
+        assertEquals("ERROR Agent received unknown command", bodies.getError());
+        assertTrue(bodies.getBodies().isEmpty());
+    }
+
+    @Test
+    void testNoReply() {
+        ClassBodies bodies = ClassBodies.fromText(null, null);
+
+        assertTrue(bodies.isError());
+        assertTrue(new ErrorCandidate(bodies.getError()).isError());
+    }
+}
@@ -0,0 +1,45 @@
+package org.jrd.backend.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JrdAgentTest {
+
+    private static final byte[] BODY_A = {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 1};
+    private static final byte[] BODY_B = "not really a class".getBytes(StandardCharsets.UTF_8);
+
+    private static String base64(byte[] body) {
+        return Base64.getEncoder().encodeToString(body);
+    }
+
+    @Test
+    void testBodiesAreSentAsBase64LinesToTextAgent() {
+        AtomicReference<String> sent = new AtomicReference<>();
+        JrdAgent agent = request -> {
+            sent.set(request);
+            return "OK";
+        };
+
+        assertEquals("OK", agent.submitRequest("OVERWRITE_MULTI\na.A b.B", Arrays.asList(BODY_A, BODY_B), null));
+        assertEquals("OVERWRITE_MULTI\na.A b.B\n" + base64(BODY_A) + "\n" + base64(BODY_B), sent.get());
+    }
+
+    @Test
+    void testTrailerFollowsBodies() {
+        AtomicReference<String> sent = new AtomicReference<>();
+        JrdAgent agent = request -> {
+            sent.set(request);
+            return "OK";
+        };
+
+        agent.submitRequest("ADD_JAR\nBOOT/some.jar", Collections.singletonList(BODY_A), "NONE");
+        assertEquals("ADD_JAR\nBOOT/some.jar\n" + base64(BODY_A) + "\nNONE", sent.get());
+    }
+}
@@ -0,0 +1,98 @@
+package org.jrd.backend.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecompilerRequestReceiverTest {
+
+    private static ClassInfo[] classes(String... items) {
+        ClassInfo[] result = new ClassInfo[items.length];
+        for (int i = 0; i < items.length; i++) {
+            result[i] = new ClassInfo(items[i]);
+        }
+        return result;
+    }
+
+    private static String[] names(ClassInfo[] classes) {
+        String[] result = new String[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            result[i] = classes[i].getName();
+        }
+        return result;
+    }
+
+    @Test
+    void testDecodeDictionary() {
+        String[] decoded = DecompilerRequestReceiver.decodeDictionary(
+                new String[]{"|0|/app.jar", "|1|app loader", "a.A|0|1", "b.B|0|1", "c.C|jrt:/java.base|1"}
+        );
+        assertArrayEquals(
+                new String[]{"a.A|/app.jar|app loader", "b.B|/app.jar|app loader", "c.C|jrt:/java.base|app loader"}, decoded
+        );
+    }
+
+    @Test
+    void testDecodeDictionaryWithoutDictionary() {
+        String[] items = {"a.A|/app.jar|app loader", "b.B"};
+        assertArrayEquals(items, DecompilerRequestReceiver.decodeDictionary(items));
+    }
+
+    @Test
+    void testApplyChangesKeepsOrder() {
+        ClassInfo[] merged = DecompilerRequestReceiver.applyChanges(classes("a.A", "c.C", "e.E"), new String[]{"+d.D", "-c.C", "+b.B"});
+        assertArrayEquals(new String[]{"a.A", "b.B", "d.D", "e.E"}, names(merged));
+    }
+
+    @Test
+    void testApplyChangesKeepsClassesOfOtherLoaders() {
+        ClassInfo[] merged = DecompilerRequestReceiver.applyChanges(
+                classes("a.A|/app.jar|app", "b.B|/app.jar|app"), new String[]{"+a.A|/plugin.jar|plugin"}
+        );
+        assertArrayEquals(new String[]{"a.A", "a.A", "b.B"}, names(merged));
+        assertEquals(
+                new HashSet<>(Arrays.asList("a.A|/app.jar|app", "a.A|/plugin.jar|plugin")),
+                new HashSet<>(Arrays.asList(merged[0].toAgentLikeAnswer(), merged[1].toAgentLikeAnswer()))
+        );
+    }
+
+    @Test
+    void testApplyChangesUnloadsOnlySameClass() {
+        ClassInfo[] listed = classes("a.A|/app.jar|app", "a.A|/plugin.jar|plugin", "b.B|/app.jar|app");
+
+        ClassInfo[] byDetails = DecompilerRequestReceiver.applyChanges(listed, new String[]{"-a.A|/plugin.jar|plugin"});
+        assertEquals(2, byDetails.length);
+        assertEquals("a.A|/app.jar|app", byDetails[0].toAgentLikeAnswer());
+
+        ClassInfo[] otherLoader = DecompilerRequestReceiver.applyChanges(listed, new String[]{"-a.A|/plugin.jar|other plugin"});
+        assertEquals(3, otherLoader.length);
+        ClassInfo[] byNameOnly = DecompilerRequestReceiver.applyChanges(listed, new String[]{"-a.A"});
+        assertEquals(3, byNameOnly.length);
+    }
+
+    @Test
+    void testApplyChangesUnloadsOneOfSameNamedClassesListedByName() {
+        ClassInfo[] merged = DecompilerRequestReceiver.applyChanges(classes("a.A", "a.A", "b.B"), new String[]{"-a.A"});
+        assertArrayEquals(new String[]{"a.A", "b.B"}, names(merged));
+    }
+
+    @Test
+    void testApplyChangesIgnoresUnknownUnloadsAndEmptyItems() {
+        ClassInfo[] merged = DecompilerRequestReceiver.applyChanges(classes("a.A"), new String[]{"-z.Z", "", "+"});
+        assertArrayEquals(new String[]{"a.A"}, names(merged));
+    }
+
+    @Test
+    void testIsUnknownCommand() {
+        assertTrue(DecompilerRequestReceiver.isUnknownCommand("ERROR Agent received unknown command: 'CLASSES_SINCE'."));
+        assertFalse(DecompilerRequestReceiver.isUnknownCommand("ERROR java.net.ConnectException: Connection refused"));
+        assertFalse(DecompilerRequestReceiver.isUnknownCommand("DELTA token;+a.A"));
+        assertFalse(DecompilerRequestReceiver.isUnknownCommand(null));
+    }
+}